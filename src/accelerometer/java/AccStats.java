@@ -1,5 +1,4 @@
 import java.util.Arrays;
-import java.util.List;
 
 public class AccStats {
 
@@ -8,47 +7,53 @@ public class AccStats {
             double[] yArray,
             double[] zArray,
             Filter filter,
-            Boolean getFeatures,
+            FeatureSet features,
             int sampleRate)
     {
-        // calculate raw x/y/z summary values
-        double xMean = mean(xArray);
-        double yMean = mean(yArray);
-        double zMean = mean(zArray);
-        double xRange = range(xArray);
-        double yRange = range(yArray);
-        double zRange = range(zArray);
-        double xStd = std(xArray, xMean);
-        double yStd = std(yArray, yMean);
-        double zStd = std(zArray, zMean);
-        double xyCovariance = covariance(xArray, yArray, xMean, yMean, 0);
-        double xzCovariance = covariance(xArray, zArray, xMean, zMean, 0);
-        double yzCovariance = covariance(yArray, zArray, yMean, zMean, 0);
-
-        // calculate vector magnitude (i.e. euclidean norm minus one) stats
-        double[] enmo = getENMO(xArray, yArray, zArray);
-        // filter signal
-        if (filter != null){
-            filter.filter(enmo);
-        }
-        double[] enmoTrunc = trunc(enmo);
-        double[] enmoAbs = abs(enmo);
+        // the features need the (filtered) enmoTrunc values themselves
+        double[] enmoTrunc = null;
+        if (filter != null || features != null) {
+            enmoTrunc = new double[xArray.length];
+        }
+        double[] basicStatistics = basicStats(xArray, yArray, zArray, filter, enmoTrunc, false);
+        return withFeatures(basicStatistics, xArray, yArray, zArray, enmoTrunc, features, sampleRate);
+    }
 
 
-        // don't forget to change header method immediately below !!!
-        double[] basicStatistics = {
-            mean(enmoTrunc), mean(enmoAbs),
-            xMean, yMean, zMean,
-            xRange, yRange, zRange,
-            xStd, yStd, zStd,
-            xyCovariance, xzCovariance, yzCovariance,
-        };
+    /**
+     * As getAccStats(), for ENMO values that have already been computed by
+     * getENMO() (and filtered, if wanted), so that filtering, which carries
+     * state from one epoch to the next, can be done apart from the rest.
+     * The enmo values are truncated in place.
+     */
+    public static double [] getAccStatsWithENMO(
+            double[] xArray,
+            double[] yArray,
+            double[] zArray,
+            double[] enmo,
+            FeatureSet features,
+            int sampleRate)
+    {
+        double[] basicStatistics = basicStats(xArray, yArray, zArray, null, enmo, true);
+        return withFeatures(basicStatistics, xArray, yArray, zArray, enmo, features, sampleRate);
+    }
+
 
+    private static double[] withFeatures(
+            double[] basicStatistics,
+            double[] xArray,
+            double[] yArray,
+            double[] zArray,
+            double[] enmoTrunc,
+            FeatureSet features,
+            int sampleRate)
+    {
         double[] outputFeats = null;
-        //extract features if requested
-        if (getFeatures){
-            double[] features = Features.getFeatures(xArray, yArray, zArray, enmoTrunc, sampleRate);
-            outputFeats = AccStats.combineArrays(basicStatistics, features);
+        //extract features if requested (null for none)
+        if (features != null){
+            double[] featureVals = Features.getFeatures(xArray, yArray, zArray, enmoTrunc,
+                sampleRate, features, features.isStill(basicStatistics));
+            outputFeats = AccStats.combineArrays(basicStatistics, featureVals);
         } else{
             outputFeats = basicStatistics;
         }
@@ -56,54 +61,317 @@ public class AccStats {
         return outputFeats;
     }
 
-    public static String getStatsHeader(Boolean getFeatures){
-        String header = "enmoTrunc,enmoAbs";
-        header += ",xMean,yMean,zMean";
-        header += ",xRange,yRange,zRange,xStd,yStd,zStd";
-        header += ",xyCov,xzCov,yzCov";
-        if(getFeatures){
-            header += "," + Features.getFeaturesHeader();
+
+    // ENMO (before truncation), i.e. vector magnitude minus one, of each value
+    public static void getENMO(double[] x, double[] y, double[] z, double[] enmo) {
+        for (int i = 0; i < x.length; i++) {
+            enmo[i] = getVectorMagnitude(x[i], y[i], z[i]) - 1;
         }
-        return header;
+    }
+
+    /**
+     * The basic statistics of getAccStats():
+     *  {enmoTrunc mean, enmoAbs mean, x/y/z mean, x/y/z range, x/y/z std,
+     *   xy/xz/yz covariance}
+     * computed in two passes over the x/y/z values (sums, then deviations
+     * from the means), rather than a pass and/or array per statistic.
+     * Each sum is accumulated in the same order as mean(), range() and std()
+     * do, so the values are the same as theirs.
+     * If filter isn't null, the ENMO values are filtered before their means
+     * are taken, which needs enmoTrunc. If enmoTrunc isn't null, it is set to
+     * the (filtered) truncated ENMO of each sample.
+     */
+    public static double[] getBasicStats(
+            double[] x,
+            double[] y,
+            double[] z,
+            Filter filter,
+            double[] enmoTrunc) {
+        return basicStats(x, y, z, filter, enmoTrunc, false);
     }
 
 
-    private static double[] getENMO(double[] x, double[] y, double[] z) {
-        //get euclidean norm minus one
-        double[] enmo = new double[x.length];
-        for (int i = 0; i < x.length; i++){
-            double vm = getVectorMagnitude(x[i], y[i], z[i]);
-            enmo[i] = vm-1;
+    // getBasicStats(), where enmoTrunc may already hold the ENMO values
+    private static double[] basicStats(
+            double[] x,
+            double[] y,
+            double[] z,
+            Filter filter,
+            double[] enmoTrunc,
+            boolean enmoGiven) {
+        int n = x.length;
+        double[] stats = new double[14];
+        if (n == 0) {
+            Arrays.fill(stats, Double.NaN);
+            return stats;
+        }
+
+        // sums, ranges, and vector magnitude (i.e. euclidean norm minus one)
+        double xSum = 0, ySum = 0, zSum = 0;
+        double xMin = Double.MAX_VALUE, yMin = Double.MAX_VALUE, zMin = Double.MAX_VALUE;
+        double xMax = -Double.MAX_VALUE, yMax = -Double.MAX_VALUE, zMax = -Double.MAX_VALUE;
+        double truncSum = 0, absSum = 0;
+        for (int i = 0; i < n; i++) {
+            double xi = x[i], yi = y[i], zi = z[i];
+            if (!Double.isNaN(xi)) {
+                xSum += xi;
+            }
+            if (!Double.isNaN(yi)) {
+                ySum += yi;
+            }
+            if (!Double.isNaN(zi)) {
+                zSum += zi;
+            }
+            if (xi < xMin) { xMin = xi; }
+            if (xi > xMax) { xMax = xi; }
+            if (yi < yMin) { yMin = yi; }
+            if (yi > yMax) { yMax = yi; }
+            if (zi < zMin) { zMin = zi; }
+            if (zi > zMax) { zMax = zi; }
+            if (enmoTrunc == null) {
+                double enmo = getVectorMagnitude(xi, yi, zi) - 1;
+                if (!Double.isNaN(enmo)) {
+                    absSum += Math.abs(enmo);
+                    if (enmo > 0) {
+                        truncSum += enmo;
+                    }
+                }
+            } else if (!enmoGiven) {
+                enmoTrunc[i] = getVectorMagnitude(xi, yi, zi) - 1;
+            }
+        }
+        if (enmoTrunc != null) {
+            if (filter != null) {
+                filter.filter(enmoTrunc);
+            }
+            for (int i = 0; i < n; i++) {
+                double enmo = enmoTrunc[i];
+                if (!Double.isNaN(enmo)) {
+                    absSum += Math.abs(enmo);
+                    if (enmo > 0) {
+                        truncSum += enmo;
+                    }
+                }
+                if (enmo < 0) {
+                    enmoTrunc[i] = 0;
+                }
+            }
+        }
+        double xMean = xSum / n;
+        double yMean = ySum / n;
+        double zMean = zSum / n;
+
+        // squared deviations and co-deviations from the means
+        double xVar = 0, yVar = 0, zVar = 0;
+        double xyCov = 0, xzCov = 0, yzCov = 0;
+        for (int i = 0; i < n; i++) {
+            double xi = x[i], yi = y[i], zi = z[i];
+            double dx = xi - xMean;
+            double dy = yi - yMean;
+            double dz = zi - zMean;
+            boolean xOk = !Double.isNaN(xi);
+            boolean yOk = !Double.isNaN(yi);
+            boolean zOk = !Double.isNaN(zi);
+            if (xOk) {
+                xVar += dx * dx;
+            }
+            if (yOk) {
+                yVar += dy * dy;
+            }
+            if (zOk) {
+                zVar += dz * dz;
+            }
+            if (xOk && yOk) {
+                xyCov += dx * dy;
+            }
+            if (xOk && zOk) {
+                xzCov += dx * dz;
+            }
+            if (yOk && zOk) {
+                yzCov += dy * dz;
+            }
         }
-        return enmo;
+
+        // don't forget to change header method immediately below !!!
+        stats[0] = truncSum / n;
+        stats[1] = absSum / n;
+        stats[2] = xMean;
+        stats[3] = yMean;
+        stats[4] = zMean;
+        stats[5] = xMax - xMin;
+        stats[6] = yMax - yMin;
+        stats[7] = zMax - zMin;
+        stats[8] = Math.sqrt(xVar / n);
+        stats[9] = Math.sqrt(yVar / n);
+        stats[10] = Math.sqrt(zVar / n);
+        // (covariances have always been divided by n+1)
+        stats[11] = xyCov / (n + 1);
+        stats[12] = xzCov / (n + 1);
+        stats[13] = yzCov / (n + 1);
+        return stats;
     }
 
 
-    public static double getVectorMagnitude(double x, double y, double z) {
-        return Math.sqrt(x * x + y * y + z * z);
-    }
+    /**
+     * The sums and moments behind getBasicStats() for a run of values, which
+     * can be merged with those of the run after it (using the pairwise
+     * updates of Chan, Golub & LeVeque) to give those of both runs, without
+     * going over the values again. Used for overlapping epochs, which are
+     * made of the same (shorter) runs of values.
+     * NaN values are not skipped, unlike in getBasicStats().
+     */
+    public static class RunningStats {
+        private int n = 0;
+        private double truncSum = 0, absSum = 0;
+        private double xMean = 0, yMean = 0, zMean = 0;
+        private double xMin = Double.MAX_VALUE, yMin = Double.MAX_VALUE, zMin = Double.MAX_VALUE;
+        private double xMax = -Double.MAX_VALUE, yMax = -Double.MAX_VALUE, zMax = -Double.MAX_VALUE;
+        // sums of squared deviations and co-deviations from the means
+        private double xM2 = 0, yM2 = 0, zM2 = 0;
+        private double xyC = 0, xzC = 0, yzC = 0;
+
+
+        public RunningStats() {
+        }
+
+
+        // the stats of x/y/z, and of the (filtered, untruncated) enmo values
+        public RunningStats(double[] x, double[] y, double[] z, double[] enmo) {
+            n = x.length;
+            double xSum = 0, ySum = 0, zSum = 0;
+            for (int i = 0; i < n; i++) {
+                double xi = x[i], yi = y[i], zi = z[i];
+                xSum += xi;
+                ySum += yi;
+                zSum += zi;
+                if (xi < xMin) { xMin = xi; }
+                if (xi > xMax) { xMax = xi; }
+                if (yi < yMin) { yMin = yi; }
+                if (yi > yMax) { yMax = yi; }
+                if (zi < zMin) { zMin = zi; }
+                if (zi > zMax) { zMax = zi; }
+                double e = enmo[i];
+                if (!Double.isNaN(e)) {
+                    absSum += Math.abs(e);
+                    if (e > 0) {
+                        truncSum += e;
+                    }
+                }
+            }
+            xMean = xSum / n;
+            yMean = ySum / n;
+            zMean = zSum / n;
+            for (int i = 0; i < n; i++) {
+                double dx = x[i] - xMean;
+                double dy = y[i] - yMean;
+                double dz = z[i] - zMean;
+                xM2 += dx * dx;
+                yM2 += dy * dy;
+                zM2 += dz * dz;
+                xyC += dx * dy;
+                xzC += dx * dz;
+                yzC += dy * dz;
+            }
+        }
 
 
-    private static double[] abs(double[] vals) {
-        double[] output = new double[vals.length];
-        for (int i = 0; i < vals.length; i++) {
-            output[i] = Math.abs(vals[i]);
+        // add the stats of the values that follow these
+        public void merge(RunningStats next) {
+            if (next.n == 0) {
+                return;
+            }
+            if (n == 0) {
+                copy(next);
+                return;
+            }
+            double total = n + next.n;
+            double weight = n * (double) next.n / total;
+            double dx = next.xMean - xMean;
+            double dy = next.yMean - yMean;
+            double dz = next.zMean - zMean;
+            xM2 += next.xM2 + dx * dx * weight;
+            yM2 += next.yM2 + dy * dy * weight;
+            zM2 += next.zM2 + dz * dz * weight;
+            xyC += next.xyC + dx * dy * weight;
+            xzC += next.xzC + dx * dz * weight;
+            yzC += next.yzC + dy * dz * weight;
+            xMean += dx * next.n / total;
+            yMean += dy * next.n / total;
+            zMean += dz * next.n / total;
+            xMin = Math.min(xMin, next.xMin);
+            yMin = Math.min(yMin, next.yMin);
+            zMin = Math.min(zMin, next.zMin);
+            xMax = Math.max(xMax, next.xMax);
+            yMax = Math.max(yMax, next.yMax);
+            zMax = Math.max(zMax, next.zMax);
+            truncSum += next.truncSum;
+            absSum += next.absSum;
+            n += next.n;
+        }
+
+
+        public void copy(RunningStats other) {
+            n = other.n;
+            truncSum = other.truncSum;
+            absSum = other.absSum;
+            xMean = other.xMean;
+            yMean = other.yMean;
+            zMean = other.zMean;
+            xMin = other.xMin;
+            yMin = other.yMin;
+            zMin = other.zMin;
+            xMax = other.xMax;
+            yMax = other.yMax;
+            zMax = other.zMax;
+            xM2 = other.xM2;
+            yM2 = other.yM2;
+            zM2 = other.zM2;
+            xyC = other.xyC;
+            xzC = other.xzC;
+            yzC = other.yzC;
+        }
+
+
+        // the same statistics, in the same order, as getBasicStats()
+        public double[] getBasicStats() {
+            double[] stats = new double[14];
+            if (n == 0) {
+                Arrays.fill(stats, Double.NaN);
+                return stats;
+            }
+            stats[0] = truncSum / n;
+            stats[1] = absSum / n;
+            stats[2] = xMean;
+            stats[3] = yMean;
+            stats[4] = zMean;
+            stats[5] = xMax - xMin;
+            stats[6] = yMax - yMin;
+            stats[7] = zMax - zMin;
+            stats[8] = Math.sqrt(xM2 / n);
+            stats[9] = Math.sqrt(yM2 / n);
+            stats[10] = Math.sqrt(zM2 / n);
+            stats[11] = xyC / (n + 1);
+            stats[12] = xzC / (n + 1);
+            stats[13] = yzC / (n + 1);
+            return stats;
         }
-        return output;
     }
 
 
-    private static double[] trunc(double[] vals) {
-        double[] output = new double[vals.length];
-        double tmp;
-        for (int i = 0; i < vals.length; i++) {
-            tmp = vals[i];
-            if (tmp < 0) {
-                tmp = 0;
-            }
-            output[i] = tmp;
+    public static String getStatsHeader(FeatureSet features){
+        String header = "enmoTrunc,enmoAbs";
+        header += ",xMean,yMean,zMean";
+        header += ",xRange,yRange,zRange,xStd,yStd,zStd";
+        header += ",xyCov,xzCov,yzCov";
+        if(features != null && features.size() > 0){
+            header += "," + features.getHeader();
         }
-        return output;
+        return header;
+    }
+
+
+    public static double getVectorMagnitude(double x, double y, double z) {
+        return Math.sqrt(x * x + y * y + z * z);
     }
 
 
@@ -114,6 +382,8 @@ public class AccStats {
      */
 
     // percentiles = {0.25, 0.5, 0.75}, to calculate 25th, median and 75th percentile
+    // The order statistics needed are found by selection in a per-thread
+    // scratch copy of vals (partitioning once per rank) rather than sorting
     public static double[] percentiles(double[] vals, double[] percentiles) {
         double[] output = new double[percentiles.length];
         int n = vals.length;
@@ -125,31 +395,178 @@ public class AccStats {
             Arrays.fill(output, vals[0]);
             return output;
         }
-        double[] sortedVals = vals.clone();
-        Arrays.sort(sortedVals);
+
+        // the (0-based) ranks each percentile needs
+        // this follows the R default (R7) interpolation model
+        // https://en.wikipedia.org/wiki/Quantile#Estimating_quantiles_from_a_sample
+        int[] ranks = new int[2 * percentiles.length];
+        int numRanks = 0;
         for (int i = 0; i<percentiles.length; i++) {
-            // this follows the R default (R7) interpolation model
-            // https://en.wikipedia.org/wiki/Quantile#Estimating_quantiles_from_a_sample
             double h = percentiles[i] * (n-1) + 1;
             if (h<=1.0) {
-                output[i] = sortedVals[0];
-                continue;
+                ranks[numRanks++] = 0;
+            } else if (h>=n) {
+                ranks[numRanks++] = n-1;
+            } else {
+                int hfloor = (int) Math.floor(h);
+                ranks[numRanks++] = hfloor-1;
+                ranks[numRanks++] = hfloor;
             }
-            if (h>=n) {
-                output[i] = sortedVals[n-1];
+        }
+        double[] rankVals = orderStatistics(vals, ranks, numRanks);
+
+        int r = 0;
+        for (int i = 0; i<percentiles.length; i++) {
+            double h = percentiles[i] * (n-1) + 1;
+            if (h<=1.0 || h>=n) {
+                output[i] = rankVals[r++];
                 continue;
             }
             // interpolate using: x[h] + (h - floor(h)) (x[h + 1] - x[h])
             int hfloor = (int) Math.floor(h);
-            double xh = sortedVals[hfloor-1] ;
-            double xh2 = sortedVals[hfloor] ;
+            double xh = rankVals[r++];
+            double xh2 = rankVals[r++];
             output[i] = xh + (h - hfloor) * (xh2 - xh);
-            //S ystem.out.println(percentiles[i] + ", h:" + h + ", " + xh + ", " + xh2);
         }
         return output;
     }
 
 
+    // copies of the values percentiles() selects from, per thread
+    private static final ThreadLocal<double[]> selectScratch =
+        ThreadLocal.withInitial(() -> new double[0]);
+
+    // below this many values, select() sorts rather than partitions
+    private static final int SELECT_SORT_THRESHOLD = 16;
+
+
+    /**
+     * The values at the given (0-based) ranks of vals, in the order that
+     * Arrays.sort() would put them, i.e. with -0.0 before 0.0 and NaNs last.
+     * The values are copied into a scratch buffer, and each distinct rank is
+     * found by partitioning only the part of it that follows the rank before.
+     */
+    private static double[] orderStatistics(double[] vals, int[] ranks, int numRanks) {
+        int n = vals.length;
+        double[] buf = selectScratch.get();
+        if (buf.length < n) {
+            buf = new double[n];
+            selectScratch.set(buf);
+        }
+        // copy, moving NaNs to the end, and count the values that sort
+        // before 0.0 (negative values and -0.0)
+        int numNaN = 0;
+        int numBelowZero = 0;
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            double v = vals[i];
+            if (v != v) {
+                numNaN++;
+                continue;
+            }
+            if (v < 0 || (v == 0 && Double.doubleToRawLongBits(v) != 0)) {
+                numBelowZero++;
+            }
+            buf[m++] = v;
+        }
+
+        int[] sortedRanks = Arrays.copyOf(ranks, numRanks);
+        Arrays.sort(sortedRanks);
+        double[] sortedVals = new double[numRanks];
+        int lo = 0;
+        for (int i = 0; i < numRanks; i++) {
+            int rank = sortedRanks[i];
+            if (i > 0 && rank == sortedRanks[i - 1]) {
+                sortedVals[i] = sortedVals[i - 1];
+                continue;
+            }
+            if (rank >= m) {
+                sortedVals[i] = Double.NaN;
+                continue;
+            }
+            double v = select(buf, lo, m - 1, rank);
+            lo = rank + 1;
+            if (v == 0) {
+                // partitioning doesn't tell -0.0 and 0.0 apart
+                v = rank < numBelowZero ? -0.0 : 0.0;
+            }
+            sortedVals[i] = v;
+        }
+
+        double[] output = new double[numRanks];
+        for (int i = 0; i < numRanks; i++) {
+            output[i] = sortedVals[Arrays.binarySearch(sortedRanks, ranks[i])];
+        }
+        return output;
+    }
+
+
+    /**
+     * Introselect: rearrange a[lo..hi] so that a[k] holds the value that
+     * would be there if it was sorted, with no greater values before it and
+     * no smaller values after it. Quickselect with median-of-three pivots,
+     * which sorts the remaining range once it has partitioned too often.
+     * The first and last ranks are found by a scan instead.
+     * a[lo..hi] must not contain NaNs.
+     */
+    private static double select(double[] a, int lo, int hi, int k) {
+        if (k == lo || k == hi) {
+            // the smallest or largest value only needs a scan
+            int best = k;
+            for (int i = lo; i <= hi; i++) {
+                if (k == lo ? a[i] < a[best] : a[i] > a[best]) {
+                    best = i;
+                }
+            }
+            swap(a, k, best);
+            return a[k];
+        }
+        int maxPartitions = 2 * (32 - Integer.numberOfLeadingZeros(hi - lo + 1));
+        while (hi - lo >= SELECT_SORT_THRESHOLD) {
+            if (maxPartitions-- == 0) {
+                break;
+            }
+            // order a[lo], a[lo+1] (pivot) and a[hi] by the median of three
+            int mid = (lo + hi) >>> 1;
+            swap(a, mid, lo + 1);
+            if (a[lo] > a[hi]) swap(a, lo, hi);
+            if (a[lo + 1] > a[hi]) swap(a, lo + 1, hi);
+            if (a[lo] > a[lo + 1]) swap(a, lo, lo + 1);
+            double pivot = a[lo + 1];
+            int i = lo + 1;
+            int j = hi;
+            while (true) {
+                do i++; while (a[i] < pivot);
+                do j--; while (a[j] > pivot);
+                if (j < i) {
+                    break;
+                }
+                swap(a, i, j);
+            }
+            a[lo + 1] = a[j];
+            a[j] = pivot;
+            // a[lo..j-1] <= pivot, a[i..hi] >= pivot, and any between equal it
+            if (j <= k && k < i) {
+                return pivot;
+            }
+            if (j > k) {
+                hi = j - 1;
+            } else {
+                lo = i;
+            }
+        }
+        Arrays.sort(a, lo, hi + 1);
+        return a[k];
+    }
+
+
+    private static void swap(double[] a, int i, int j) {
+        double tmp = a[i];
+        a[i] = a[j];
+        a[j] = tmp;
+    }
+
+
     // returns {mean, standard deviation} together to reduce processing time
     public static double[] angleAvgStd(double[] vals1, double[] vals2) {
         int len = vals1.length;
@@ -173,23 +590,6 @@ public class AccStats {
     }
 
 
-    // covariance of two signals (with lag in samples)
-    private static double covariance(double[] vals1, double[] vals2, double mean1, double mean2, int lag) {
-        lag = Math.abs(lag); // should be identical
-        if ( vals1.length <= lag || vals1.length != vals2.length ) {
-            return Double.NaN;
-        }
-        double cov = 0; // covariance
-        for (int i = lag; i < vals1.length; i++) {
-            if (!Double.isNaN(vals1[i-lag]) && !Double.isNaN(vals2[i])) {
-                cov += (vals1[i]-mean1) * (vals2[i]-mean2);
-            }
-        }
-        cov /= vals1.length+1-lag;
-        return cov;
-    }
-
-
     public static double correlation(double[] vals1, double[] vals2) {
         return correlation(vals1, vals2, 0);
     }
@@ -245,18 +645,6 @@ public class AccStats {
     }
 
 
-    private static double sum(List<Double> vals) {
-        if (vals.size() == 0) {
-            return Double.NaN;
-        }
-        double sum = 0;
-        for (int i = 0; i < vals.size(); i++) {
-            sum += vals.get(i);
-        }
-        return sum;
-    }
-
-
     public static double mean(double[] vals) {
         if (vals.length == 0) {
             return Double.NaN;
@@ -265,11 +653,16 @@ public class AccStats {
     }
 
 
-    public static double mean(List<Double> vals) {
-        if (vals.size() == 0) {
+    // mean of vals[0..length), including any NaN values (unlike mean(double[]))
+    public static double mean(double[] vals, int length) {
+        if (length == 0) {
             return Double.NaN;
         }
-        return sum(vals) / (double) vals.size();
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += vals[i];
+        }
+        return sum / (double) length;
     }
 
 
@@ -323,28 +716,28 @@ public class AccStats {
     }
 
 
+    // stats are the getAccStats() (or getBasicStats()) of numValues x/y/z values
     public static int countStuckVals(
-            double[] xArray,
-            double[] yArray,
-            double[] zArray) {
+            double[] stats,
+            int numValues) {
         //get necessary background stats...
-        double xMean = mean(xArray);
-        double yMean = mean(yArray);
-        double zMean = mean(zArray);
-        double xStd = std(xArray, xMean);
-        double yStd = std(yArray, yMean);
-        double zStd = std(zArray, zMean);
+        double xMean = stats[2];
+        double yMean = stats[3];
+        double zMean = stats[4];
+        double xStd = stats[8];
+        double yStd = stats[9];
+        double zStd = stats[10];
         // see if values are likely to have been abnormally stuck during this epoch
         int numStuckValues = 0;
         double stuckVal = 1.5;
         if (xStd == 0 && (xMean < -stuckVal || xMean > stuckVal)) {
-            numStuckValues = xArray.length;
+            numStuckValues = numValues;
         }
         if (yStd == 0 && (yMean < -stuckVal || yMean > stuckVal)) {
-            numStuckValues = yArray.length;
+            numStuckValues = numValues;
         }
         if (zStd == 0 && (zMean < -stuckVal || zMean > stuckVal)) {
-            numStuckValues = zArray.length;
+            numStuckValues = numValues;
         }
         return numStuckValues;
     }
@@ -4,13 +4,17 @@ import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
 
@@ -39,12 +43,12 @@ public class AccelerometerParser {
 
         String accFile = ""; // file to process
         String timeZone = "Europe/London";  // file timezone (default: Europe/London)
-		String outputFile = ""; // file name for epoch file
-		String rawFile = ""; // file name for epoch file
-		String npyFile = ""; // file name for epoch file
-		Boolean rawOutput = false; // whether to output raw data
-		Boolean npyOutput = false; // whether to output npy data
+		// outputFile, epochPeriod, filter, features etc. of the epoch writer
+		EpochConfig epochConfig = new EpochConfig();
 		boolean verbose = false; //to facilitate logging
+		boolean useMmap = true; // memory-map .cwa and .bin files rather than read them line by line
+		int readerThreads = 1; // threads used to decode raw data (1 = sequential)
+		boolean useGzIndex = false; // use (or create) a .gzidx access point index for .cwa.gz files
         int timeShift = 0;  // shift (in minutes) applied to file time
 
 		DF6.setRoundingMode(RoundingMode.CEILING);
@@ -52,28 +56,30 @@ public class AccelerometerParser {
     	DF3.setRoundingMode(RoundingMode.HALF_UP); // To match their implementation
 
     	// epochWriter parameters
-        int epochPeriod = 30;
         // output time format, e.g. 2020-06-14 19:01:15.123000+0100 [Europe/London]
         // this should be consistent with the date_parser used later in the Python code
         final DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSxxxx '['VV']'");
     	DateTimeFormatter csvTimeFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSxxxx '['VV']'");
-    	boolean getStationaryBouts = false;
-    	double stationaryStd = 0.013;
     	double[] xyzIntercept = new double[] { 0.0, 0.0, 0.0 };
     	double[] xyzSlope = new double[] { 1.0, 1.0, 1.0 };
     	double[] xyzSlopeT = new double[] { 0.0, 0.0, 0.0 };
     	int range = 8;
     	int sampleRate = 100;
         String resampleMethod = "linear";
-    	boolean useFilter = true;
     	long startTime = -1; // milliseconds since epoch
     	long endTime = -1;
     	String startTimeStr = "";
     	String endTimeStr = "";
-    	boolean getFeatures = false;
         // Must supply additional information when loading from a .csv file
     	int csvStartRow = 1;
     	List<Integer> csvTimeXYZTempColsIndex = Arrays.asList( 0,1,2,3 );
+		// for a .csv file without a time column: time of its first row, and sample rate
+		LocalDateTime csvStartTime = null;
+		double csvSampleRate = -1;
+		// extra epoch writers, given as "name.param:value", e.g.
+		// "stationary.getStationaryBouts:true", which are fed the same data
+		Map<String, List<String>> namedConfigParams = new LinkedHashMap<>();
+		List<EpochConfig> namedConfigs = new ArrayList<>();
 
 
 		if (args.length < 1) {
@@ -87,11 +93,11 @@ public class AccelerometerParser {
 		if (args.length == 1) {
 			// single parameter needs to be accFile
 			accFile = args[0];
-			outputFile = accFile.split("\\.")[0] + "Epoch.csv";
+			epochConfig.outputFile = accFile.split("\\.")[0] + "Epoch.csv";
 		} else {
 			// load accFile, and also copy functionParameters (args[1:])
 			accFile = args[0];
-			outputFile = accFile.split("\\.")[0] + "Epoch.csv";
+			epochConfig.outputFile = accFile.split("\\.")[0] + "Epoch.csv";
 			functionParameters = Arrays.copyOfRange(args, 1, args.length);
 			SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-M-d'T'H:m");
 			dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
@@ -102,24 +108,32 @@ public class AccelerometerParser {
 				// individual_Parameters will look like "epoch_period:60"
 				String funcName = param.split(":")[0];
                 String funcParam = param.substring(param.indexOf(":") + 1);
-                if (funcName.equals("timeZone")) {
+                if (funcName.contains(".")) {
+					String configName = funcName.substring(0, funcName.indexOf("."));
+					if (!EpochConfig.isValidName(configName)) {
+						System.err.println("error parsing " + funcName + ":" + funcParam
+								+ ", '" + configName + "' isn't an epoch writer name (a letter, then letters, digits, _ or -)");
+						System.exit(-2);
+					}
+					if (!namedConfigParams.containsKey(configName)) {
+						namedConfigParams.put(configName, new ArrayList<String>());
+					}
+					namedConfigParams.get(configName).add(param.substring(configName.length() + 1));
+				} else if (epochConfig.set(funcName, funcParam)) {
+					// a setting of the epoch writer, as of the named ones
+				} else if (funcName.equals("timeZone")) {
                     timeZone = funcParam;
 					dateFormat.setTimeZone(TimeZone.getTimeZone(timeZone));
 				} else if (funcName.equals("timeShift")) {
 					timeShift = Integer.parseInt(funcParam);
-                } else if (funcName.equals("outputFile")) {
-					outputFile = funcParam;
 				} else if (funcName.equals("verbose")) {
 					verbose = Boolean.parseBoolean(funcParam.toLowerCase());
-				} else if (funcName.equals("epochPeriod")) {
-					epochPeriod = Integer.parseInt(funcParam);
-				} else if (funcName.equals("filter")) {
-					useFilter = Boolean.parseBoolean(funcParam.toLowerCase());
-				} else if (funcName.equals("getStationaryBouts")) {
-					getStationaryBouts = Boolean.parseBoolean(funcParam.toLowerCase());
-					epochPeriod = 10;
-				} else if (funcName.equals("stationaryStd")) {
-					stationaryStd = Double.parseDouble(funcParam);
+				} else if (funcName.equals("mmap")) {
+					useMmap = Boolean.parseBoolean(funcParam.toLowerCase());
+				} else if (funcName.equals("readerThreads")) {
+					readerThreads = Integer.parseInt(funcParam);
+				} else if (funcName.equals("gzIndex")) {
+					useGzIndex = Boolean.parseBoolean(funcParam.toLowerCase());
 				} else if (funcName.equals("xIntercept")) {
 					xyzIntercept[0] = Double.parseDouble(funcParam);
 				} else if (funcName.equals("yIntercept")) {
@@ -144,14 +158,6 @@ public class AccelerometerParser {
 					resampleMethod = funcParam;
 				} else if (funcName.equals("range")) {
 					range = Integer.parseInt(funcParam);
-				} else if (funcName.equals("rawOutput")) {
-					rawOutput = Boolean.parseBoolean(funcParam.toLowerCase());
-				} else if (funcName.equals("rawFile")) {
-					rawFile = funcParam;
-				} else if (funcName.equals("npyOutput")) {
-                    npyOutput = Boolean.parseBoolean(funcParam.toLowerCase());
-                } else if (funcName.equals("npyFile")) {
-					npyFile = funcParam;
 				} else if (funcName.equals("startTime")) {
                 	startTimeStr = funcParam;
 				} else if (funcName.equals("endTime")) {
@@ -170,8 +176,15 @@ public class AccelerometerParser {
 					}
 				} else if (funcName.equals("csvStartRow")) {
 					csvStartRow = Integer.parseInt(funcParam);
-				} else if (funcName.equals("getFeatures")) {
-					getFeatures = Boolean.parseBoolean(funcParam.toLowerCase());
+				} else if (funcName.equals("csvStartTime")) {
+					try {
+						csvStartTime = LocalDateTime.parse(funcParam);
+					} catch (DateTimeParseException ex) {
+						System.err.println("error parsing csvStartTime:'" + funcParam + "', must be in format: 1996-07-30T13:59");
+						System.exit(-2);
+					}
+				} else if (funcName.equals("csvSampleRate")) {
+					csvSampleRate = Double.parseDouble(funcParam);
 				} else if (funcName.equals("csvTimeFormat")) {
 					csvTimeFormat = DateTimeFormatter.ofPattern(funcParam);
 				} else {
@@ -195,40 +208,85 @@ public class AccelerometerParser {
 					System.exit(-2);
 				}
 			}
+			// named epoch writers start with the settings above, and their own outputFile
+			for (Map.Entry<String, List<String>> entry : namedConfigParams.entrySet()) {
+				EpochConfig config = new EpochConfig(entry.getKey(), epochConfig);
+				for (String param : entry.getValue()) {
+					String funcName = param.split(":")[0];
+					String funcParam = param.substring(param.indexOf(":") + 1);
+					if (!config.set(funcName, funcParam)) {
+						System.err.println("unknown parameter " + config.name + "." + funcName + ":" + funcParam);
+					}
+				}
+				config.finish();
+				namedConfigs.add(config);
+			}
+			epochConfig.finish();
+			if (!CsvReader.isValidRowTiming(csvStartTime, csvSampleRate)) {
+				System.err.println("csvStartTime and csvSampleRate (> 0) must be given together");
+				System.exit(-2);
+			}
 		}
 
 		EpochWriter epochWriter = null;
 		try {
-			System.out.println("Intermediate file: " + outputFile);
+			System.out.println("Intermediate file: " + epochConfig.outputFile);
    			epochWriter = DeviceReader.setupEpochWriter(
-   				outputFile, useFilter, rawOutput, rawFile, npyOutput,
-        		npyFile, getFeatures, timeFormat, timeZone,
-        		epochPeriod, sampleRate, resampleMethod, range,
+   				epochConfig.outputFile, epochConfig.useFilter, epochConfig.sosFilter,
+   				epochConfig.rawOutput, epochConfig.rawFile, epochConfig.npyOutput, epochConfig.npyFile,
+        		epochConfig.features, epochConfig.epochThreads, timeFormat, timeZone,
+        		epochConfig.epochPeriod, epochConfig.epochHop, sampleRate, resampleMethod, range,
                 xyzIntercept, xyzSlope, xyzSlopeT,
-        		getStationaryBouts, stationaryStd,
+        		epochConfig.getStationaryBouts, epochConfig.stationaryStd,
         		startTime, endTime, verbose
    				);
+			for (EpochConfig config : namedConfigs) {
+				System.out.println("Intermediate file (" + config.name + "): " + config.outputFile);
+				epochWriter.addSibling(DeviceReader.setupEpochWriter(
+					config.outputFile, config.useFilter, config.sosFilter,
+					config.rawOutput, config.rawFile, config.npyOutput, config.npyFile,
+					config.features, config.epochThreads, timeFormat, timeZone,
+					config.epochPeriod, config.epochHop, sampleRate, resampleMethod, range,
+					xyzIntercept, xyzSlope, xyzSlopeT,
+					config.getStationaryBouts, config.stationaryStd,
+					startTime, endTime, verbose
+					));
+			}
 
 			// process file if input parameters are all ok
-			if (accFile.toLowerCase().endsWith(".cwa")) {
+			if (accFile.toLowerCase().endsWith(".cwa") && readerThreads > 1) {
+				AxivityReader.readCwaEpochsParallel(accFile, timeZone, timeShift, epochWriter,
+					readerThreads, verbose);
+			} else if (accFile.toLowerCase().endsWith(".cwa") && useMmap) {
+				AxivityReader.readCwaEpochsMapped(accFile, timeZone, timeShift, epochWriter, verbose);
+			} else if (accFile.toLowerCase().endsWith(".cwa")) {
 				AxivityReader.readCwaEpochs(accFile, timeZone, timeShift, epochWriter, verbose);
+			} else if (accFile.toLowerCase().endsWith(".cwa.gz") && useGzIndex) {
+				AxivityReader.readCwaGzEpochsIndexed(accFile, timeZone, timeShift, epochWriter,
+					readerThreads, startTime, verbose);
 			} else if (accFile.toLowerCase().endsWith(".cwa.gz")) {
                 AxivityReader.readCwaGzEpochs(accFile, timeZone, timeShift, epochWriter, verbose);
-            } else if (accFile.toLowerCase().endsWith(".bin")) {
+            } else if (accFile.toLowerCase().endsWith(".bin") && readerThreads > 1) {
+				GENEActivReader.readGeneaEpochsParallel(accFile, timeZone, timeShift, epochWriter,
+					readerThreads, verbose);
+			} else if (accFile.toLowerCase().endsWith(".bin") && useMmap) {
+				GENEActivReader.readGeneaEpochsMapped(accFile, timeZone, timeShift, epochWriter, verbose);
+			} else if (accFile.toLowerCase().endsWith(".bin")) {
 				GENEActivReader.readGeneaEpochs(accFile, timeZone, timeShift, epochWriter, verbose);
 			} else if (accFile.toLowerCase().endsWith(".gt3x")) {
-				ActigraphReader.readG3TXEpochs(accFile, epochWriter, verbose);
+				ActigraphReader.readG3TXEpochs(accFile, epochWriter, readerThreads, verbose);
 			} else if (accFile.toLowerCase().endsWith(".csv") ||
                         accFile.toLowerCase().endsWith(".csv.gz") ){
 				CsvReader.readCSVEpochs(accFile, epochWriter, csvStartRow,
-                    csvTimeXYZTempColsIndex, csvTimeFormat, verbose);
+                    csvTimeXYZTempColsIndex, csvTimeFormat, csvStartTime, csvSampleRate,
+                    readerThreads, verbose);
 			} else {
 				System.err.println("Unrecognised file format for: " + accFile);
 				System.exit(-1);
 			}
 		} catch (Exception excep) {
 			excep.printStackTrace(System.err);
-			System.err.println("error reading/writing file " + outputFile + ": "
+			System.err.println("error reading/writing file " + epochConfig.outputFile + ": "
 								+ excep.toString());
 			System.exit(-2);
 		} finally {
@@ -244,6 +302,130 @@ public class AccelerometerParser {
 	}
 
 
+	/**
+	 * Settings of an epoch writer: the main one, or an extra, named, one
+	 * which otherwise has the same settings
+	 */
+	private static class EpochConfig {
+		String name = null; // null for the main epoch writer
+		String outputFile = "";
+		boolean useFilter = true;
+		boolean sosFilter = false; // apply the filter as second-order sections
+		boolean rawOutput = false; // whether to output raw data (not inherited)
+		String rawFile = ""; // file name for raw data
+		boolean npyOutput = false; // whether to output npy data (not inherited)
+		String npyFile = ""; // file name for npy data
+		boolean getFeatures = false;
+		String featureNames = ""; // feature columns, e.g. "sanDiego,MAD" (implies getFeatures)
+		boolean skipStillFeatures = false; // no spectra etc. (NaN) for epochs with all std < stationaryStd
+		FeatureSet features = null; // set by finish()
+		int epochPeriod = 30;
+		boolean epochPeriodSet = false; // else getStationaryBouts uses 10 sec epochs
+		int epochHop = 0; // time between epoch starts (0 = epochPeriod, no overlap)
+		int epochThreads = 1; // threads used to summarise epochs (1 = sequential)
+		boolean getStationaryBouts = false;
+		double stationaryStd = 0.013;
+
+		EpochConfig() {
+		}
+
+		// a named epoch writer, with the settings of main but for its raw/npy
+		// outputs, and its own outputFile
+		EpochConfig(String name, EpochConfig main) {
+			this.name = name;
+			outputFile = main.outputFile.replaceFirst("(\\.csv(\\.gz)?)?$", "-" + name + "$1");
+			useFilter = main.useFilter;
+			sosFilter = main.sosFilter;
+			getFeatures = main.getFeatures;
+			featureNames = main.featureNames;
+			skipStillFeatures = main.skipStillFeatures;
+			epochPeriod = main.epochPeriod;
+			epochPeriodSet = main.epochPeriodSet;
+			epochHop = main.epochHop;
+			epochThreads = main.epochThreads;
+			getStationaryBouts = main.getStationaryBouts;
+			stationaryStd = main.stationaryStd;
+		}
+
+		// whether "name.param:value" can be given to a named epoch writer
+		static boolean isValidName(String name) {
+			return name.matches("[A-Za-z][A-Za-z0-9_-]*");
+		}
+
+		// set a "param:value" of this writer, or return false if unknown
+		boolean set(String funcName, String funcParam) {
+			if (funcName.equals("outputFile")) {
+				outputFile = funcParam;
+			} else if (funcName.equals("epochPeriod")) {
+				epochPeriod = Integer.parseInt(funcParam);
+				epochPeriodSet = true;
+			} else if (funcName.equals("epochHop")) {
+				epochHop = Integer.parseInt(funcParam);
+			} else if (funcName.equals("epochThreads")) {
+				epochThreads = Integer.parseInt(funcParam);
+			} else if (funcName.equals("filter")) {
+				useFilter = Boolean.parseBoolean(funcParam.toLowerCase());
+			} else if (funcName.equals("sosFilter")) {
+				sosFilter = Boolean.parseBoolean(funcParam.toLowerCase());
+			} else if (funcName.equals("getStationaryBouts")) {
+				getStationaryBouts = Boolean.parseBoolean(funcParam.toLowerCase());
+			} else if (funcName.equals("stationaryStd")) {
+				stationaryStd = Double.parseDouble(funcParam);
+			} else if (funcName.equals("getFeatures")) {
+				getFeatures = Boolean.parseBoolean(funcParam.toLowerCase());
+			} else if (funcName.equals("features")) {
+				featureNames = funcParam;
+			} else if (funcName.equals("skipStillFeatures")) {
+				skipStillFeatures = Boolean.parseBoolean(funcParam.toLowerCase());
+			} else if (funcName.equals("rawOutput")) {
+				rawOutput = Boolean.parseBoolean(funcParam.toLowerCase());
+			} else if (funcName.equals("rawFile")) {
+				rawFile = funcParam;
+			} else if (funcName.equals("npyOutput")) {
+				npyOutput = Boolean.parseBoolean(funcParam.toLowerCase());
+			} else if (funcName.equals("npyFile")) {
+				npyFile = funcParam;
+			} else {
+				return false;
+			}
+			return true;
+		}
+
+		// once all params are set (in any order): check them, and parse the features
+		void finish() {
+			String prefix = (name == null) ? "" : name + ".";
+			if (getStationaryBouts && !epochPeriodSet) {
+				epochPeriod = 10;
+			}
+			if (epochHop < 0 || (epochHop > 0 && epochPeriod % epochHop != 0)) {
+				System.err.println(prefix + "epochHop must divide its epochPeriod (" + epochPeriod + "s) exactly");
+				System.exit(-2);
+			}
+			features = parseFeatures(getFeatures, featureNames, prefix + "features",
+				skipStillFeatures, stationaryStd);
+		}
+	}
+
+
+	// feature columns to output (all of them if getFeatures and no names are
+	// given), or null for none; optionally not computing the dynamic ones for
+	// still epochs, i.e. those with x/y/z std all below stationaryStd
+	private static FeatureSet parseFeatures(boolean getFeatures, String featureNames, String paramName,
+			boolean skipStillFeatures, double stationaryStd) {
+		if (!getFeatures && featureNames.isEmpty()) {
+			return null;
+		}
+		try {
+			FeatureSet features = FeatureSet.parse(featureNames);
+			return skipStillFeatures ? features.skippingStillEpochs(stationaryStd) : features;
+		} catch (IllegalArgumentException ex) {
+			System.err.println("error parsing " + paramName + ":'" + featureNames + "', " + ex.getMessage());
+			System.exit(-2);
+			return null;
+		}
+	}
+
+
 	private static LocalDateTime epochMillisToLocalDateTime(long m) {
 		return LocalDateTime.ofEpochSecond((long) Math.floor(m/1000),
 			(int) TimeUnit.MILLISECONDS.toNanos((m % 1000)),
@@ -1,11 +1,13 @@
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -22,6 +24,14 @@ public class ActigraphReader extends DeviceReader {
     private static final int VALID_GT3_V1_FILE = 1;
     private static final int VALID_GT3_V2_FILE = 2;
     private static final int GT3_HEADER_SIZE = 8;
+    // header, payload (size < 2^16) and checksum
+    private static final int GT3_MAX_PACKET_SIZE = GT3_HEADER_SIZE + 65536;
+    // log.bin packet types
+    private static final int PARAMETER_ID = 21;
+    private static final int ACTIVITY_ID = 0;
+    private static final int ACTIVITY2_ID = 26;
+    // bytes of log.bin per run of packets decoded by one task
+    private static final int GT3_RUN_SIZE = 1024 * 1024;
 
     private static Logger logger;
     static {
@@ -49,11 +59,24 @@ public class ActigraphReader extends DeviceReader {
         String accFile,
         EpochWriter epochWriter,
         Boolean verbose) {
+        readG3TXEpochs(accFile, epochWriter, 1, verbose);
+    }
+
+
+    /**
+     * Reads a .gt3x file as above, decoding v2 log.bin packets on numThreads
+     * threads if numThreads > 1.
+     */
+    public static void readG3TXEpochs(
+        String accFile,
+        EpochWriter epochWriter,
+        int numThreads,
+        Boolean verbose) {
 
         ZipFile zip = null;
         // readers for the 'activity.bin' & 'info.txt' files inside the .zip
         BufferedReader infoReader = null;
-        InputStream activityReader = null;
+        ReadAheadInputStream activityReader = null;
 
         try {
             zip = new ZipFile( new File(accFile), ZipFile.OPEN_READ);
@@ -69,9 +92,9 @@ public class ActigraphReader extends DeviceReader {
                 if (entry.toString().equals("info.txt")) {
                     infoReader = new BufferedReader(new InputStreamReader(zip.getInputStream(entry)));
                 } else if (entry.toString().equals("activity.bin") && gt3Version == VALID_GT3_V1_FILE) {
-                    activityReader = zip.getInputStream(entry);
+                    activityReader = new ReadAheadInputStream(zip.getInputStream(entry));
                 } else if (entry.toString().equals("log.bin") && gt3Version == VALID_GT3_V2_FILE) {
-                    activityReader = zip.getInputStream(entry);
+                    activityReader = new ReadAheadInputStream(zip.getInputStream(entry));
                 }
             }
 
@@ -128,7 +151,15 @@ public class ActigraphReader extends DeviceReader {
                     accelerationScale,
                     firstSampleTime,
                     epochWriter);
-            if (gt3Version == VALID_GT3_V2_FILE) readG3TXV2Epoch(
+            if (gt3Version == VALID_GT3_V2_FILE && numThreads > 1) readG3TXV2EpochParallel(
+                    activityReader,
+                    infoTimeShift,
+                    sampleDelta,
+                    sampleFreq,
+                    accelerationScale,
+                    numThreads,
+                    epochWriter);
+            else if (gt3Version == VALID_GT3_V2_FILE) readG3TXV2Epoch(
                     activityReader,
                     infoTimeShift,
                     sampleDelta,
@@ -153,15 +184,14 @@ public class ActigraphReader extends DeviceReader {
 
 
     /**
-     ** Method to read all the x/y/z data from a GT3X (V2) activity.bin file.
-     ** File specification at: https://github.com/actigraph/NHANES-GT3X-File-Format/blob/master/fileformats/activity.bin.md
-     ** Data is stored sequentially at the sample rate specified in the header (1/f = sampleDelta in milliseconds)
-     ** Each pair of readings occupies an awkward 9 bytes to conserve space, so must be read 2 at a time.
-     ** The readings should range from -2046 to 2046, covering -6 to 6 G's,
-     ** thus the maximum accuracy is 0.003 G's. The values -2048, -2047 & 2047 should never appear in the stream.
+     ** Method to read all the x/y/z data from a GT3X (V2) log.bin file.
+     ** File specification at: https://github.com/actigraph/GT3X-File-Format
+     ** The file is a sequence of packets, each being an 8 byte header (separator,
+     ** type, timestamp, payload size), the payload, and a checksum byte. Each
+     ** packet is read in bulk, then its payload decoded from the byte array.
      **/
     private static void readG3TXV2Epoch(
-            InputStream activityReader,
+            ReadAheadInputStream activityReader,
             String infoTimeShift,
             double sampleDelta,
             double sampleFreq,
@@ -169,157 +199,249 @@ public class ActigraphReader extends DeviceReader {
             EpochWriter epochWriter
     ) {
 
-        final int PARAMETER_ID = 21;
-        final int ACTIVITY_ID = 0;
-        final int ACTIVITY2_ID = 26;
-
         int[] errCounter = new int[] { 0 }; // store val if updated in other
         // method (pass by reference using array?)
 
-        // Read 2 XYZ samples at a time, each sample consists of 36 bits ... 2 full samples will be 9 bytes
-        int checkSum = 0, type=0;
-        int i = 0;
-        long date = 0;
-        int datum;
-        int separator = 0;
-        int size = 0;
-        int initIndex = 0; // starting index of a parket
-        boolean isHeader = true;
+        long timeShiftNanos = getTimeShiftMillis(infoTimeShift) * NANOS_PER_MILLI;
+        byte[] packet = new byte[GT3_MAX_PACKET_SIZE];
+        SampleBatch samples = new SampleBatch();
+        long initIndex = 0; // starting index of a packet
         int packetCount = 0;
 
         // 1. process header
         // 2. process payload based on type for each packet
         // 3. validate checksum for each packet
         try {
-            while ((datum=activityReader.read())!=-1){
-                // 1. Process header
-                byte current = (byte)datum;
-                if (isHeader) {
-                    switch (i-initIndex) {
-                        case 0:
-                            separator = current;
-                            break;
-                        case 1:
-                            type = current;
-                            break;
-                        case 2:
-                            // not sure why this is needed but without casting, this might
-                            // result in leading ones during type conversion
-                            date = (long)(current & 0xFF);
-                            break;
-                        case 3:
-                            date = (long)(((current & 0xFF) << 8) ^ date);
-                            break;
-                        case 4:
-                            date = (long)(((current & 0xFF) << 16) ^ date);
-                            break;
-                        case 5:
-                            date = (long)(((current & 0xFF) << 24) ^ date);
-                            break;
-                        case 6:
-                            size = (int)(current & 0xFF);
-                            break;
-                        case 7:
-                            size = (int)(((current & 0xFF) << 8) ^ size);
-                    }
+            while (readPacket(activityReader, packet, 0, initIndex)) {
+                int size = getPacketSize(packet, 0);
+                if (packet[1] == PARAMETER_ID) {
+                    accelerationScale = processParameters(packet, GT3_HEADER_SIZE, size,
+                            accelerationScale);
+                } else {
+                    samples.clear();
+                    processPacket(packet, 0, sampleFreq, accelerationScale, timeShiftNanos,
+                            samples);
+                    samples.writeTo(epochWriter, errCounter);
+                }
 
-                    if (i == initIndex+GT3_HEADER_SIZE-1) {
-                        isHeader = false;
-                        logger.log(Level.FINER, "\nHeader info" +
-                                "\ntype: "+ type +
-                                String.format("\nDate 0x%08X: ", date) +
-                                "\nsize: "+ size +
-                                "\nStarting index: "+ initIndex);
-                    }
+                checkChecksum(initIndex, packet, 0);
+                initIndex += GT3_HEADER_SIZE + size + 1;
+                packetCount++;
 
-                } else if (isPayload(i, size, initIndex)) {
-                    // process payload depending on the type of record
-                    // There exist various packet types. Currently, we are
-                    // only processing packets of type ACTIVITY
-                    // https://github.com/actigraph/GT3X-File-Format
-                    checkSum ^= (byte)current;
-
-                    if (type == PARAMETER_ID) {
-                        logger.log(Level.INFO, "Processing parameter packet...");
-                        // process parameters Keyvale pair. Each pair is of 8 bytes.
-                        byte [] keyPair = new byte[8];
-                        byte mydatum;
-                        keyPair[0] = current;
-
-                        int k = 1;
-                        while (k < 8) {
-                            mydatum= (byte) activityReader.read();
-                            keyPair[k] = (byte) mydatum;
-                            checkSum ^= (byte) mydatum;
-                            k++;
-                        }
+                if (packetCount % 10000 == 0) {
+                    logger.log(Level.INFO, "Done processing "+packetCount+" packets.");
+                }
+            }
+        }
+        catch (IOException ex) {
+            logger.log(Level.INFO, "End of .g3tx file reached");
+        }
+    }
 
-                        // set acceleration scale if present
-                        if (isAccelScale(keyPair)) {
-                            int keyval = keyPair[4];
-                            keyval = (int)(((keyPair[5] & 0xFF) << 8) ^ keyval);
-                            keyval = (int)(((keyPair[6] & 0xFF) << 16) ^ keyval);
-                            keyval = (int)(((keyPair[7] & 0xFF) << 24) ^ keyval);
-                            accelerationScale = decodePara(keyval);
-                            logger.log(Level.INFO, "accelerationScale changed to "+accelerationScale);
-                        }
 
-                        i += 7;
-                    } else if (type == ACTIVITY_ID && size > 1) {
-                        // when Size = 1, it is a USB connection event thus ignore.
-                        int [] res = processActivity(
-                                infoTimeShift,
-                                sampleFreq,
-                                date,
-                                current,
-                                i,
-                                size,
-                                checkSum,
-                                initIndex,
-                                accelerationScale,
-                                activityReader,
-                                epochWriter);
-                        i = res[0];
-                        checkSum = res[1];
-                    } else if (type == ACTIVITY2_ID && size > 1) {
-                        // when Size = 1, it is a USB connection event thus ignore.
-                        int [] res = processActivity2(
-                                infoTimeShift,
-                                sampleFreq,
-                                date,
-                                current,
-                                i,
-                                size,
-                                checkSum,
-                                initIndex,
-                                accelerationScale,
-                                activityReader,
-                                epochWriter);
-                        i = res[0];
-                        checkSum = res[1];
+    /**
+     ** Read a GT3X (V2) log.bin file as readG3TXV2Epoch() does, but in two
+     ** phases: the calling thread splits the packet stream into runs of
+     ** packets, noting each packet's offset and the acceleration scale in
+     ** effect for it (PARAMETER packets are applied in file order), then the
+     ** activity packets of each run are decoded on numThreads threads, and the
+     ** samples passed to epochWriter in file order.
+     **/
+    private static void readG3TXV2EpochParallel(
+            ReadAheadInputStream activityReader,
+            String infoTimeShift,
+            double sampleDelta,
+            double sampleFreq,
+            double accelerationScale,
+            int numThreads,
+            EpochWriter epochWriter
+    ) {
+
+        int[] errCounter = new int[] { 0 }; // store val if updated in other
+        // method (pass by reference using array?)
+
+        long timeShiftNanos = getTimeShiftMillis(infoTimeShift) * NANOS_PER_MILLI;
+        double[] scale = { accelerationScale };
+        long[] initIndex = { 0 }; // starting index of the next packet
+        int[] packetCount = { 0 };
+        // a read error ends the packet stream (as it does in readG3TXV2Epoch),
+        // once the packets read before it have been decoded and written
+        IOException[] readError = { null };
+
+        try {
+            decodeInOrder(numThreads,
+                new Iterator<Callable<GT3XPacketRun>>() {
+                    GT3XPacketRun next = null;
+
+                    public boolean hasNext() {
+                        if (next == null) {
+                            if (readError[0] != null) {
+                                return false;
+                            }
+                            next = GT3XPacketRun.read(activityReader, initIndex[0], scale);
+                            readError[0] = next.readError;
+                            initIndex[0] += next.length;
+                        }
+                        return next.numPackets > 0;
                     }
-                } else {
-                    checkChecksum(i, separator, type, size, date, checkSum, current);
-                    checkSum = 0;
-                    date = 0;
-                    size = 0;
-                    type = 0;
-                    separator = 0;
-                    // allow reading header after checksum is done checking
-                    isHeader = true;
-                    initIndex = i+1;
-                    packetCount++;
-
-                    if (packetCount % 10000 == 0) {
-                        logger.log(Level.INFO, "Done processing "+packetCount+" packets.");
+                    public Callable<GT3XPacketRun> next() {
+                        hasNext();
+                        GT3XPacketRun run = next;
+                        next = null;
+                        return () -> run.decode(sampleFreq, timeShiftNanos);
+                    }
+                },
+                run -> {
+                    run.samples.writeTo(epochWriter, errCounter);
+                    if (run.badPacket >= 0) {
+                        // exits
+                        checkChecksum(run.firstIndex + run.offsets[run.badPacket],
+                                run.data, run.offsets[run.badPacket]);
                     }
+                    int prevPacketCount = packetCount[0];
+                    packetCount[0] += run.numPackets;
+                    if (packetCount[0] / 10000 != prevPacketCount / 10000) {
+                        logger.log(Level.INFO, "Done processing "
+                                + (packetCount[0] / 10000 * 10000) + " packets.");
+                    }
+                });
+        } catch (Exception excep) {
+            excep.printStackTrace(System.err);
+            System.err.println("error reading activity: " + excep.toString());
+            System.exit(-2);
+        }
+        if (readError[0] != null) {
+            logger.log(Level.INFO, "End of .g3tx file reached");
+        }
+    }
+
+
+    /**
+     ** A run of consecutive log.bin packets (of about GT3_RUN_SIZE bytes),
+     ** and the samples decoded from them by readG3TXV2EpochParallel()
+     **/
+    private static class GT3XPacketRun {
+        byte[] data = new byte[GT3_RUN_SIZE + GT3_MAX_PACKET_SIZE];
+        int length = 0;
+        long firstIndex; // position of data[0] in log.bin
+        int numPackets = 0;
+        int[] offsets = new int[1024]; // of each packet in data
+        double[] scales = new double[1024]; // acceleration scale for each packet
+
+        IOException readError = null; // that ended the run early, if any
+
+        SampleBatch samples;
+        int badPacket = -1; // first packet with a checksum mismatch
+
+        /**
+         * Read the next run of packets, applying PARAMETER packets to scale[0].
+         * The run has no packets at the end of the file. A read error ends
+         * the run after the packets read before it, and is kept in readError.
+        **/
+        static GT3XPacketRun read(ReadAheadInputStream activityReader,
+                long firstIndex, double[] scale) {
+            GT3XPacketRun run = new GT3XPacketRun();
+            run.firstIndex = firstIndex;
+            try {
+                run.readPackets(activityReader, scale);
+            } catch (IOException excep) {
+                run.readError = excep;
+            }
+            return run;
+        }
+
+        private void readPackets(ReadAheadInputStream activityReader,
+                double[] scale) throws IOException {
+            while (length < GT3_RUN_SIZE
+                    && readPacket(activityReader, data, length, firstIndex + length)) {
+                int size = getPacketSize(data, length);
+                if (data[length + 1] == PARAMETER_ID) {
+                    scale[0] = processParameters(data, length + GT3_HEADER_SIZE, size,
+                            scale[0]);
                 }
+                if (numPackets == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, 2 * numPackets);
+                    scales = Arrays.copyOf(scales, 2 * numPackets);
+                }
+                offsets[numPackets] = length;
+                scales[numPackets] = scale[0];
+                numPackets++;
+                length += GT3_HEADER_SIZE + size + 1;
+            }
+        }
 
-                i++;
+        // decode the activity packets, up to the first with a bad checksum
+        GT3XPacketRun decode(double sampleFreq, long timeShiftNanos) {
+            samples = new SampleBatch(numPackets * 100);
+            for (int k = 0; k < numPackets; k++) {
+                processPacket(data, offsets[k], sampleFreq, scales[k], timeShiftNanos, samples);
+                if (!checksumMatches(data, offsets[k])) {
+                    badPacket = k;
+                    break;
+                }
             }
+            data = badPacket < 0 ? null : data; // allow run's memory to be reclaimed
+            return this;
         }
-        catch (IOException ex) {
-            logger.log(Level.INFO, "End of .g3tx file reached");
+    }
+
+
+    /**
+     ** Read a log.bin packet (header, payload and checksum byte) into
+     ** buf[pos...]. Returns false at the end of the file, or if the packet
+     ** is truncated.
+     **/
+    private static boolean readPacket(ReadAheadInputStream activityReader,
+            byte[] buf, int pos, long initIndex) throws IOException {
+        if (activityReader.readFully(buf, pos, GT3_HEADER_SIZE) != GT3_HEADER_SIZE) {
+            return false;
+        }
+        int size = getPacketSize(buf, pos);
+        if (logger.isLoggable(Level.FINER)) {
+            logger.log(Level.FINER, "\nHeader info" +
+                    "\ntype: "+ buf[pos + 1] +
+                    String.format("\nDate 0x%08X: ", getPacketTime(buf, pos)) +
+                    "\nsize: "+ size +
+                    "\nStarting index: "+ initIndex);
+        }
+        if (activityReader.readFully(buf, pos + GT3_HEADER_SIZE, size + 1) != size + 1) {
+            logger.log(Level.INFO, "Ignoring truncated packet at byte " + initIndex);
+            return false;
+        }
+        return true;
+    }
+
+
+    // header: separator (0), type (1), timestamp (2-5), payload size (6-7)
+    private static int getPacketSize(byte[] packet, int pos) {
+        return (packet[pos + 6] & 0xFF) | ((packet[pos + 7] & 0xFF) << 8);
+    }
+
+
+    // int timestamp, as (signed) Unix time in seconds
+    private static long getPacketTime(byte[] packet, int pos) {
+        return (packet[pos + 2] & 0xFF) | ((packet[pos + 3] & 0xFF) << 8)
+                | ((packet[pos + 4] & 0xFF) << 16) | ((packet[pos + 5] & 0xFF) << 24);
+    }
+
+
+    /**
+     ** Add the samples of an activity packet at packet[pos...] to 'samples'.
+     ** There exist various packet types. Currently, we are
+     ** only processing packets of type ACTIVITY
+     ** https://github.com/actigraph/GT3X-File-Format
+     **/
+    private static void processPacket(byte[] packet, int pos, double sampleFreq,
+            double accelerationScale, long timeShiftNanos, SampleBatch samples) {
+        int type = packet[pos + 1];
+        int size = getPacketSize(packet, pos);
+        // when Size = 1, it is a USB connection event thus ignore.
+        if (type == ACTIVITY_ID && size > 1) {
+            processActivity(packet, pos + GT3_HEADER_SIZE, size, getPacketTime(packet, pos),
+                    sampleFreq, accelerationScale, timeShiftNanos, samples);
+        } else if (type == ACTIVITY2_ID && size > 1) {
+            processActivity2(packet, pos + GT3_HEADER_SIZE, size, getPacketTime(packet, pos),
+                    sampleFreq, accelerationScale, timeShiftNanos, samples);
         }
     }
 
@@ -333,7 +455,7 @@ public class ActigraphReader extends DeviceReader {
      ** thus the maximum accuracy is 0.003 G's. The values -2048, -2047 & 2047 should never appear in the stream.
      **/
     private static void readG3TXV1EpochPairs(
-            InputStream activityReader,
+            ReadAheadInputStream activityReader,
             String infoTimeShift,
             double sampleDelta,
             double sampleFreq,
@@ -345,44 +467,32 @@ public class ActigraphReader extends DeviceReader {
         int[] errCounter = new int[] { 0 }; // store val if updated in other
                                             // method (pass by reference using array?)
         int samples = 0; // num samples collected so far
+        long startTime = (firstSampleTime - getTimeShiftMillis(infoTimeShift)) * NANOS_PER_MILLI;
 
         // Read 2 XYZ samples at a time, each sample consists of 36 bits ... 2 full samples will be 9 bytes
-        byte[] bytes=new byte[9];
-        int i=0;
-        int twoSampleCounter = 0;
-        int datum;
-        int totalBytes = 0;
-        double[] twoSamples = null;
+        byte[] bytes = new byte[9 * 4096];
+        double[] twoSamples = new double[6];
+        SampleBatch batch = new SampleBatch(2 * 4096);
+        int numBytes;
 
         try {
-            while (( datum=activityReader.read())!=-1){
-                bytes[i]=(byte)datum;
-                totalBytes++;
-
-
-                if (false && totalBytes%10000==0)
-                    System.out.println("Converting sample.... "+(totalBytes/1000)+"K");
-
-                // if we have enough bytes to read two 36 bit data samples
-                if (++i==9){
-                    twoSamples = readAccelPair(bytes, accelerationScale);
-                    twoSampleCounter = 2;
+            while ((numBytes = activityReader.readFully(bytes, 0, bytes.length)) > 0) {
+                batch.clear();
+                // a trailing incomplete pair is ignored
+                for (int pos = 0; pos + 9 <= numBytes; pos += 9) {
+                    readAccelPair(bytes, pos, accelerationScale, twoSamples);
+
+                    for (int s = 0; s < 6; s += 3) {
+                        long time = Math.round((1e9*samples)/sampleFreq) + startTime;
+                        double temp = 1.0d; // don't know temp yet
+                        batch.add(time, twoSamples[s], twoSamples[s+1], twoSamples[s+2], temp);
+
+                        samples += 1;
+                    }
                 }
-
-                // read the two samples from the sample counter
-                while (twoSampleCounter>0) {
-                    twoSampleCounter--;
-                    i=0;
-
-                    long time = Math.round((1000d*samples)/sampleFreq) + firstSampleTime;
-                    double x = twoSamples[3-twoSampleCounter*3];
-                    double y = twoSamples[4-twoSampleCounter*3];
-                    double z = twoSamples[5-twoSampleCounter*3];
-                    double temp = 1.0d; // don't know temp yet
-                    time = getTrueUnixTime(time, infoTimeShift);
-                    epochWriter.newValues(time, x, y, z, temp, errCounter);
-
-                    samples += 1;
+                batch.writeTo(epochWriter, errCounter);
+                if (numBytes < bytes.length) {
+                    break;
                 }
             }
         }
@@ -392,79 +502,66 @@ public class ActigraphReader extends DeviceReader {
     }
 
 
-    private static int [] processActivity(
-            String infoTimeShift,
-            double sampleFreq,
-            long firstSampleTime,
-            byte current,
-            int i,
+    /**
+     ** Decode an ACTIVITY packet payload: 12-bit y/x/z values packed
+     ** big-endian. The first sample is timed 1/sampleFreq after the packet's
+     ** timestamp (in seconds).
+     **/
+    private static void processActivity(
+            byte[] payload,
+            int start,
             int size,
-            int checkSum,
-            int initIndex,
+            long firstSampleTime,
+            double sampleFreq,
             double accelerationScale,
-            InputStream activityReader,
-            EpochWriter epochWriter) {
-        int[] errCounter = new int[] { 0 }; // store val if updated in other
+            long timeShiftNanos,
+            SampleBatch samplesOut) {
 
+        boolean finer = logger.isLoggable(Level.FINER);
+        long startTime = firstSampleTime * NANOS_PER_SECOND - timeShiftNanos;
         double [] sample = new double[3];
-        int offset = 0;
+        int i = start; // next payload byte
+        int end = start + size;
+        boolean evenNibble = true; // does the next value start at a byte boundary
         int shifter;
-        short axis_val;
         int samples = 0;
-        try {
-            while (isPayload(i, size, initIndex)) {
-                for (int axis = 0; axis < 3; axis++) {
-                    if (0 == (offset & 0x07)) {
-                        if (i != initIndex + GT3_HEADER_SIZE) {
-                            current = (byte) activityReader.read();
-                            checkSum ^= (byte) current;
-                        }
-                        i++;
-
-                        shifter = ((current & 0xFF) << 4);
-
-                        current = (byte) activityReader.read();
-                        checkSum ^= (byte) current;
-                        i++;
-
-                        shifter |= ((current & 0xF0) >>> 4);
-                        offset += 12;
-                    } else {
-                        shifter = ((current & 0x0F) << 8);
-
-                        current = (byte) activityReader.read();
-                        checkSum ^= (byte) current;
-                        i++;
-                        shifter |= (current & 0xFF);
-                        offset += 12;
-                    }
-                    if (shifter > 2047)
-                        shifter += 61440;
-
-                    axis_val = (short) shifter;
-                    sample[axis] = axis_val / accelerationScale;
-                    sample[axis] = (double) Math.round(sample[axis] * 1000d) / 1000d; // round to 3rd decimal
+        // whole samples only: 5 bytes if starting at a byte boundary, else 4
+        while (i + (evenNibble ? 5 : 4) <= end) {
+            for (int axis = 0; axis < 3; axis++) {
+                if (evenNibble) {
+                    shifter = ((payload[i] & 0xFF) << 4) | ((payload[i + 1] & 0xF0) >>> 4);
+                    i += 2;
+                } else {
+                    shifter = ((payload[i - 1] & 0x0F) << 8) | (payload[i] & 0xFF);
+                    i += 1;
                 }
+                evenNibble = !evenNibble;
+                if (shifter > 2047)
+                    shifter -= 4096;
+
+                sample[axis] = shifter / accelerationScale;
+                sample[axis] = (double) Math.round(sample[axis] * 1000d) / 1000d; // round to 3rd decimal
+            }
+            if (finer) {
                 logger.log(Level.FINER, "i: " + i);
                 logger.log(Level.FINER, "x y z: " + sample[1] + " " + sample[0] + " " + sample[2]);
-
-                double temp = 1.0d; // don't know temp yet
-                samples += 1;
-                long myTime = Math.round((1000d*samples)/sampleFreq) + firstSampleTime*1000; // in Miliseconds
-                myTime = getTrueUnixTime(myTime, infoTimeShift);
-                epochWriter.newValues(myTime, sample[1], sample[0], sample[2], temp, errCounter);
             }
-        } catch (IOException ex) {
-            ex.printStackTrace(System.err);
-            System.err.println("error when reading activity at byte " + i + ": " + ex.toString());
-            System.exit(-2);
-        }
 
-        return new int[] {i, checkSum};
+            double temp = 1.0d; // don't know temp yet
+            samples += 1;
+            long myTime = Math.round((1e9*samples)/sampleFreq) + startTime; // in nanoseconds
+            samplesOut.add(myTime, sample[1], sample[0], sample[2], temp);
+        }
     }
 
 
     public static long getTrueUnixTime(long myTime, String infoTimeShift) {
+        return myTime - getTimeShiftMillis(infoTimeShift);
+    }
+
+
+    // time shift w.r.t. UTC (milliseconds), e.g. "-04:00:00"
+    private static long getTimeShiftMillis(String infoTimeShift) {
         int shiftSign = 1;
         if (infoTimeShift.charAt(0) == '-') {
             shiftSign = -1;
@@ -474,148 +571,157 @@ public class ActigraphReader extends DeviceReader {
         LocalTime timeShift = LocalTime.parse(infoTimeShift);
         long timeShiftMilli = 1000 * (shiftSign * timeShift.getHour() * 60 * 60 +
                 timeShift.getMinute() * 60); // time shfit w.r.t. UTC
-        return myTime - timeShiftMilli;
+        return timeShiftMilli;
     }
 
 
-    private static int [] processActivity2(
-            String infoTimeShift,
-            double sampleFreq,
-            long firstSampleTime,
-            byte current,
-            int i,
+    /**
+     ** Decode an ACTIVITY2 packet payload: 16-bit little-endian x/y/z values.
+     ** The first sample is timed 1/sampleFreq after the packet's timestamp.
+     **/
+    private static void processActivity2(
+            byte[] payload,
+            int start,
             int size,
-            int checkSum,
-            int initIndex,
+            long firstSampleTime,
+            double sampleFreq,
             double accelerationScale,
-            InputStream activityReader,
-            EpochWriter epochWriter) {
-        int[] errCounter = new int[] { 0 }; // store val if updated in other
+            long timeShiftNanos,
+            SampleBatch samplesOut) {
 
+        boolean finer = logger.isLoggable(Level.FINER);
+        long startTime = firstSampleTime * NANOS_PER_SECOND - timeShiftNanos;
         double [] sample = new double[3];
-        int shifter;
         short axis_val;
         int samples = 0;
-        try {
-            while (isPayload(i, size, initIndex)) {
-                for (int axis = 0; axis < 3; axis++) {
-                    if (i != initIndex + GT3_HEADER_SIZE) {
-                        current = (byte) activityReader.read();
-                        checkSum ^= (byte) current;
-                    }
+        for (int i = start; i + 6 <= start + size; ) {
+            for (int axis = 0; axis < 3; axis++) {
+                axis_val = (short) ((payload[i] & 0xff) | ((payload[i + 1] & 0xff) << 8));
+                i += 2;
 
-                    shifter = current & 0xff;
-                    current = (byte) activityReader.read();
-                    checkSum ^= (byte) current;
-                    shifter |= ((current & 0xff) << 8);
-                    i += 2;
-
-                    axis_val = (short) shifter;
-
-                    sample[axis] = axis_val / accelerationScale;
-                    sample[axis] = (double) Math.round(sample[axis] * 1000d) / 1000d; // round to 3rd decimal
-                }
+                sample[axis] = axis_val / accelerationScale;
+                sample[axis] = (double) Math.round(sample[axis] * 1000d) / 1000d; // round to 3rd decimal
+            }
 
-                double temp = 1.0d; // don't know temp yet
-                samples += 1;
+            double temp = 1.0d; // don't know temp yet
+            samples += 1;
 
-                long myTime = Math.round((1000d*samples)/sampleFreq) + firstSampleTime*1000; // in Miliseconds
-                myTime = getTrueUnixTime(myTime, infoTimeShift);
+            long myTime = Math.round((1e9*samples)/sampleFreq) + startTime; // in nanoseconds
 
+            if (finer) {
                 logger.log(Level.FINER, "i: " + i + "\nx y z: " + sample[0] + " " + sample[1] + " " + sample[2] +
                         "\nTime:" + myTime);
-                epochWriter.newValues(myTime,
-                                      sample[0], sample[1], sample[2], temp, errCounter);
             }
-        } catch (IOException ex) {
-            ex.printStackTrace(System.err);
-            System.err.println("error when reading activity at byte " + i + ": " + ex.toString());
-            System.exit(-2);
+            samplesOut.add(myTime, sample[0], sample[1], sample[2], temp);
         }
+    }
+
 
-        return new int[] {i, checkSum};
+    /**
+     ** Decode a PARAMETERS packet payload: 8 byte key/value pairs. Returns
+     ** the acceleration scale, updated if present.
+     **/
+    private static double processParameters(byte[] payload, int start, int size,
+            double accelerationScale) {
+        for (int k = start; k + 8 <= start + size; k += 8) {
+            logger.log(Level.INFO, "Processing parameter packet...");
+            // set acceleration scale if present
+            if (isAccelScale(payload, k)) {
+                int keyval = payload[k + 4];
+                keyval = (int)(((payload[k + 5] & 0xFF) << 8) ^ keyval);
+                keyval = (int)(((payload[k + 6] & 0xFF) << 16) ^ keyval);
+                keyval = (int)(((payload[k + 7] & 0xFF) << 24) ^ keyval);
+                accelerationScale = decodePara(keyval);
+                logger.log(Level.INFO, "accelerationScale changed to "+accelerationScale);
+            }
+        }
+        return accelerationScale;
     }
 
 
-    private static double[] readAccelPair(byte[] bytes, double accelerationScale) {
+    // decode the pair of samples in bytes[pos, pos+9) into pair (x1, y1, z1, x2, y2, z2)
+    private static void readAccelPair(byte[] bytes, int pos, double accelerationScale,
+            double[] pair) {
 
         int datum = 0;
-        datum=(bytes[0]&0xff);datum=datum<<4;datum|=(bytes[1]&0xff)>>>4;
+        datum=(bytes[pos]&0xff);datum=datum<<4;datum|=(bytes[pos+1]&0xff)>>>4;
         short y1=(short)datum;
         if (y1>2047)
             y1+=61440;
 
-        datum=bytes[1]&0x0F;datum=datum<<8;datum|=(bytes[2]&0xff);
+        datum=bytes[pos+1]&0x0F;datum=datum<<8;datum|=(bytes[pos+2]&0xff);
         short x1=(short)datum;
         if (x1>2047)
             x1+=61440;
 
-        datum=bytes[3]&0xff;datum=datum<<4;datum|=(bytes[4]&0xff)>>>4;
+        datum=bytes[pos+3]&0xff;datum=datum<<4;datum|=(bytes[pos+4]&0xff)>>>4;
         short z1=(short)datum;
         if (z1>2047)
             z1+=61440;
 
-        datum=bytes[4]&0x0F;datum=datum<<8;datum|=(bytes[5]&0xff);
+        datum=bytes[pos+4]&0x0F;datum=datum<<8;datum|=(bytes[pos+5]&0xff);
         short y2=(short) datum;
         if (y2>2047)
             y2+=61440;
 
-        datum=(bytes[6]&0xff);datum=datum<<4;datum|=(bytes[7]&0xff)>>>4;
+        datum=(bytes[pos+6]&0xff);datum=datum<<4;datum|=(bytes[pos+7]&0xff)>>>4;
         short x2=(short)datum;
         if (x2>2047)
             x2+=61440;
 
-        datum=bytes[7]&0x0F;datum=datum<<8;datum|=(bytes[8]&0xff);
+        datum=bytes[pos+7]&0x0F;datum=datum<<8;datum|=(bytes[pos+8]&0xff);
         short z2=(short)datum;
         if (z2>2047)
             z2+=61440;
 
         // convert to 'g'
-        double gx1=x1/accelerationScale;
-        double gy1=y1/accelerationScale;
-        double gz1=z1/accelerationScale;
+        pair[0]=x1/accelerationScale;
+        pair[1]=y1/accelerationScale;
+        pair[2]=z1/accelerationScale;
 
-        double gx2=x2/accelerationScale;
-        double gy2=y2/accelerationScale;
-        double gz2=z2/accelerationScale;
-
-        return new double[] {gx1, gy1, gz1, gx2, gy2, gz2};
+        pair[3]=x2/accelerationScale;
+        pair[4]=y2/accelerationScale;
+        pair[5]=z2/accelerationScale;
     }
 
 
     /**
-     * check checksum with payload and header info
+     * check checksum with payload and header info, of the packet at
+     * packet[pos...]
      */
     private static void checkChecksum(
-            int i,
-            int separator,
-            int type,
-            int size,
-            long date,
-            int checkSum,
-            int target_value) {
-
-        checkSum ^= (byte)separator;
-        checkSum ^= (byte)type;
-        checkSum ^= (byte)(size & 0xFF);
-        checkSum ^= (byte)((size >> 8) & 0xFF);
-        checkSum ^= (byte)(date & 0xFF);
-        checkSum ^= (byte)((date >> 8) & 0xFF);
-        checkSum ^= (byte)((date >> 16) & 0xFF);
-        checkSum ^= (byte)((date >> 24) & 0xFF);
-
-        // to convert to one's complement as the checksum is one's complement
-        checkSum = (byte)~checkSum;
-        if (checkSum != target_value) {
-            logger.log(Level.SEVERE, "Packet parsing failed at byte "+ i + "\nChecksum does not match!"
+            long initIndex,
+            byte[] packet,
+            int pos) {
+
+        if (!checksumMatches(packet, pos)) {
+            int target_value = packet[pos + GT3_HEADER_SIZE + getPacketSize(packet, pos)];
+            int checkSum = (byte)~xorBytes(packet, pos, GT3_HEADER_SIZE + getPacketSize(packet, pos));
+            logger.log(Level.SEVERE, "Packet parsing failed at byte "+ initIndex + "\nChecksum does not match!"
                     + String.format("\nExpected 0x%08X", target_value) +String.format("\nObtained 0x%08X", checkSum));
             System.exit(-1);
-        } else {
+        } else if (logger.isLoggable(Level.FINER)) {
             logger.log(Level.FINER, "Verification succeeds");
         }
     }
 
 
+    private static boolean checksumMatches(byte[] packet, int pos) {
+        int length = GT3_HEADER_SIZE + getPacketSize(packet, pos);
+        // to convert to one's complement as the checksum is one's complement
+        return (byte)~xorBytes(packet, pos, length) == packet[pos + length];
+    }
+
+
+    private static int xorBytes(byte[] buf, int pos, int length) {
+        int checkSum = 0;
+        for (int k = pos; k < pos + length; k++) {
+            checkSum ^= buf[k];
+        }
+        return checkSum;
+    }
+
+
     private static double setAccelerationScale(String serialNumber) {
         double ACCELERATION_SCALE_FACTOR_NEO_CLE = 341.0; // == 2046 (range of data) / 6 (range of G's)
         double ACCELERATION_SCALE_FACTOR_MOS = 256.0; // == 2048/8?
@@ -692,9 +798,9 @@ public class ActigraphReader extends DeviceReader {
     }
 
 
-    private static boolean isAccelScale(byte[] keyPairs) {
-        int addressSpace = keyPairs[0];
-        int identifier = keyPairs[2];
+    private static boolean isAccelScale(byte[] keyPairs, int pos) {
+        int addressSpace = keyPairs[pos];
+        int identifier = keyPairs[pos + 2];
         if (addressSpace == 0 && identifier == 55) return true;
         else return false;
     }
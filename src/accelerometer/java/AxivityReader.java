@@ -2,15 +2,17 @@
 import java.io.FileInputStream;
 import java.nio.ByteOrder;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
-import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.zip.GZIPInputStream;
 
 
@@ -19,6 +21,16 @@ import java.util.zip.GZIPInputStream;
  */
 public class AxivityReader extends DeviceReader {
 
+    private static final int CWA_PAGE_SIZE = 512;
+    private static final long NO_TIME = Long.MIN_VALUE; // no previous block time
+    // most samples a single data block can hold (3*10-bit packed)
+    private static final int CWA_MAX_SAMPLES = 120;
+    // number of pages decoded by each task in readCwaEpochsParallel()
+    private static final int PAGES_PER_TASK = 1024;
+    // size of each memory-mapped window, must be a multiple of CWA_PAGE_SIZE
+    private static final long MMAP_WINDOW_SIZE = 256L * 1024 * 1024;
+
+
     /**
      * Read and process Axivity CWA file. Setup file reading infrastructure
      * and then call readCwaBuffer() method
@@ -35,14 +47,13 @@ public class AxivityReader extends DeviceReader {
         int[] errCounter = new int[] { 0 }; // store val if updated in other
                                             // method
         // Inter-block timstamp tracking
-        LocalDateTime[] lastBlockTime = { null };
+        long[] lastBlockTime = { NO_TIME };
         int[] lastBlockTimeIndex = { 0 };
+        SampleBatch samples = new SampleBatch(CWA_MAX_SAMPLES);
 
-        // data block support variables
-        String header = "";
-
-        int bufSize = 512;
+        int bufSize = CWA_PAGE_SIZE;
         ByteBuffer buf = ByteBuffer.allocate(bufSize);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
         try ( FileInputStream accStream = new FileInputStream(accFile); ) {
             FileChannel rawAccReader = accStream.getChannel();
 
@@ -54,9 +65,10 @@ public class AxivityReader extends DeviceReader {
                                                 // interpolates timestamp
                                                 // between blocks.
             while (rawAccReader.read(buf) != -1) {
-                readCwaBuffer(buf,
-                    USE_PRECISE_TIME, lastBlockTime, lastBlockTimeIndex, header,
-                    errCounter, epochWriter);
+                buf.flip();
+                readCwaBuffer(buf, 0,
+                    USE_PRECISE_TIME, lastBlockTime, lastBlockTimeIndex,
+                    errCounter, epochWriter, samples);
                 buf.clear();
                 // option to provide status update to user...
                 pageCount++;
@@ -73,6 +85,329 @@ public class AxivityReader extends DeviceReader {
     }
 
 
+    /**
+     * Read and process Axivity CWA file by memory-mapping it in large windows
+     * (so files > 2GB are supported), then call readCwaBuffer() on each page
+     * directly from the mapped buffer. This avoids a read() call and a buffer
+     * copy for every 512-byte page.
+    **/
+    public static void readCwaEpochsMapped(
+        String accFile,
+        String timeZone,
+        int timeShift,
+        EpochWriter epochWriter,
+        Boolean verbose) {
+
+        setTimeSettings(timeZone, timeShift);
+
+        int[] errCounter = new int[] { 0 }; // store val if updated in other
+                                            // method
+        // Inter-block timstamp tracking
+        long[] lastBlockTime = { NO_TIME };
+        int[] lastBlockTimeIndex = { 0 };
+        SampleBatch samples = new SampleBatch(CWA_MAX_SAMPLES);
+
+        try ( FileInputStream accStream = new FileInputStream(accFile); ) {
+            FileChannel rawAccReader = accStream.getChannel();
+
+            // now read every page in CWA file
+            int pageCount = 0;
+            long fileSize = rawAccReader.size();
+            long memSizePages = fileSize / CWA_PAGE_SIZE;
+            boolean USE_PRECISE_TIME = true; // true uses block fractional time
+                                                // and
+                                                // interpolates timestamp
+                                                // between blocks.
+            for (long windowStart = 0; windowStart < fileSize; windowStart += MMAP_WINDOW_SIZE) {
+                long windowSize = Math.min(MMAP_WINDOW_SIZE, fileSize - windowStart);
+                MappedByteBuffer window = rawAccReader.map(
+                    FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+                window.order(ByteOrder.LITTLE_ENDIAN);
+
+                int numPages = (int) (windowSize / CWA_PAGE_SIZE);
+                for (int page = 0; page < numPages; page++) {
+                    readCwaBuffer(window, page * CWA_PAGE_SIZE,
+                        USE_PRECISE_TIME, lastBlockTime, lastBlockTimeIndex,
+                        errCounter, epochWriter, samples);
+                    // option to provide status update to user...
+                    pageCount++;
+                    if (verbose && pageCount % 10000 == 0) {
+                        System.out.print((pageCount * 100 / memSizePages) + "%\t");
+                    }
+                }
+
+                // a truncated last page is copied out so that reads past its
+                // end fail the same way as with readCwaEpochs()
+                int remainder = (int) (windowSize % CWA_PAGE_SIZE);
+                if (remainder > 0) {
+                    ByteBuffer buf = ByteBuffer.allocate(CWA_PAGE_SIZE);
+                    buf.order(ByteOrder.LITTLE_ENDIAN);
+                    for (int i = 0; i < remainder; i++) {
+                        buf.put(window.get(numPages * CWA_PAGE_SIZE + i));
+                    }
+                    buf.flip();
+                    readCwaBuffer(buf, 0,
+                        USE_PRECISE_TIME, lastBlockTime, lastBlockTimeIndex,
+                        errCounter, epochWriter, samples);
+                }
+            }
+            rawAccReader.close();
+        } catch (Exception excep) {
+            excep.printStackTrace(System.err);
+            System.err.println("error reading/writing file " + accFile + ": " + excep.toString());
+            System.exit(-2);
+        }
+    }
+
+
+    /**
+     * Read and process Axivity CWA file using numThreads decoding threads.
+     * The file is memory-mapped and split into runs of PAGES_PER_TASK pages,
+     * which are decoded in parallel into SampleBatch objects and then passed
+     * to the epochWriter in file order.
+     * Each block's sample times depend on the previous data block, so each
+     * run starts decoding without that state and the samples of its first
+     * data block are re-timed once the previous run has been consumed. The
+     * output is the same as readCwaEpochs().
+    **/
+    public static void readCwaEpochsParallel(
+        String accFile,
+        String timeZone,
+        int timeShift,
+        EpochWriter epochWriter,
+        int numThreads,
+        Boolean verbose) {
+
+        setTimeSettings(timeZone, timeShift);
+
+        int[] errCounter = new int[] { 0 }; // store val if updated in other
+                                            // method
+        // Inter-block timstamp tracking
+        long[] lastBlockTime = { NO_TIME };
+        int[] lastBlockTimeIndex = { 0 };
+        SampleBatch samples = new SampleBatch(CWA_MAX_SAMPLES);
+
+        try ( FileInputStream accStream = new FileInputStream(accFile); ) {
+            FileChannel rawAccReader = accStream.getChannel();
+
+            long fileSize = rawAccReader.size();
+            long memSizePages = fileSize / CWA_PAGE_SIZE;
+            boolean USE_PRECISE_TIME = true; // true uses block fractional time
+                                                // and
+                                                // interpolates timestamp
+                                                // between blocks.
+
+            // split file into runs of pages, which never cross a window
+            List<CwaPageRun> runs = new ArrayList<CwaPageRun>();
+            for (long windowStart = 0; windowStart < fileSize; windowStart += MMAP_WINDOW_SIZE) {
+                long windowSize = Math.min(MMAP_WINDOW_SIZE, fileSize - windowStart);
+                MappedByteBuffer window = rawAccReader.map(
+                    FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+
+                int numPages = (int) (windowSize / CWA_PAGE_SIZE);
+                for (int page = 0; page < numPages; page += PAGES_PER_TASK) {
+                    runs.add(new CwaPageRun(window, page,
+                        Math.min(PAGES_PER_TASK, numPages - page)));
+                }
+
+                // a truncated last page is copied out so that reads past its
+                // end fail the same way as with readCwaEpochs()
+                int remainder = (int) (windowSize % CWA_PAGE_SIZE);
+                if (remainder > 0) {
+                    ByteBuffer buf = ByteBuffer.allocate(CWA_PAGE_SIZE);
+                    for (int i = 0; i < remainder; i++) {
+                        buf.put(window.get(numPages * CWA_PAGE_SIZE + i));
+                    }
+                    buf.flip();
+                    runs.add(new CwaPageRun(buf, 0, 1));
+                }
+            }
+
+            long[] pagesDone = { 0 };
+            int runIndex = readCwaSessionStart(runs, USE_PRECISE_TIME,
+                lastBlockTime, lastBlockTimeIndex, errCounter, epochWriter,
+                samples, pagesDone);
+            readCwaRunsInOrder(runs.subList(runIndex, runs.size()), numThreads,
+                USE_PRECISE_TIME, lastBlockTime, lastBlockTimeIndex, errCounter,
+                epochWriter, pagesDone, memSizePages, verbose);
+            rawAccReader.close();
+        } catch (Exception excep) {
+            excep.printStackTrace(System.err);
+            System.err.println("error reading/writing file " + accFile + ": " + excep.toString());
+            System.exit(-2);
+        }
+    }
+
+
+    /**
+     * Decode pages sequentially until the session start is known, as all
+     * later timestamps are DST-corrected relative to it. Returns the index of
+     * the first run with pages left to decode.
+    **/
+    private static int readCwaSessionStart(List<CwaPageRun> runs,
+        boolean USE_PRECISE_TIME,
+        long[] lastBlockTime, int[] lastBlockTimeIndex,
+        int[] errCounter, EpochWriter epochWriter, SampleBatch samples,
+        long[] pagesDone) throws Exception
+    {
+        int runIndex = 0;
+        while (sessionStart == null && runIndex < runs.size()) {
+            CwaPageRun run = runs.get(runIndex);
+            ByteBuffer buf = run.pages();
+            while (sessionStart == null && run.numPages > 0) {
+                readCwaBuffer(buf, run.firstPage * CWA_PAGE_SIZE,
+                    USE_PRECISE_TIME, lastBlockTime, lastBlockTimeIndex,
+                    errCounter, epochWriter, samples);
+                run.firstPage++;
+                run.numPages--;
+                pagesDone[0]++;
+            }
+            if (run.numPages == 0) {
+                runIndex++;
+            }
+        }
+        return runIndex;
+    }
+
+
+    /**
+     * Decode runs of pages on numThreads threads, then re-time the first block
+     * of each run and pass its samples to the epochWriter, in file order.
+    **/
+    private static void readCwaRunsInOrder(List<CwaPageRun> runs, int numThreads,
+        boolean USE_PRECISE_TIME,
+        long[] lastBlockTime, int[] lastBlockTimeIndex,
+        int[] errCounter, EpochWriter epochWriter,
+        long[] pagesDone, long memSizePages, boolean verbose) throws Exception
+    {
+        Iterator<CwaPageRun> remaining = runs.iterator();
+        decodeInOrder(numThreads,
+            new Iterator<Callable<CwaPageRun>>() {
+                public boolean hasNext() {
+                    return remaining.hasNext();
+                }
+                public Callable<CwaPageRun> next() {
+                    CwaPageRun run = remaining.next();
+                    return () -> run.decode(USE_PRECISE_TIME);
+                }
+            },
+            run -> {
+                run.reportBlockErrors(lastBlockTime[0]);
+                if (USE_PRECISE_TIME) {
+                    run.retimeFirstBlock(lastBlockTime[0], lastBlockTimeIndex[0]);
+                }
+                run.samples.writeTo(epochWriter, errCounter);
+                if (run.lastBlockTime != NO_TIME) {
+                    lastBlockTime[0] = run.lastBlockTime;
+                    lastBlockTimeIndex[0] = run.lastBlockTimeIndex;
+                }
+                run.samples = null; // allow run's memory to be reclaimed
+                // option to provide status update to user...
+                long prevPageCount = pagesDone[0];
+                pagesDone[0] += run.numPages;
+                if (verbose && pagesDone[0] / 10000 != prevPageCount / 10000) {
+                    System.out.print((pagesDone[0] * 100 / memSizePages) + "%\t");
+                }
+            });
+    }
+
+
+    /**
+     * A run of consecutive CWA pages, and the samples decoded from them by
+     * readCwaRunsInOrder()
+    **/
+    private static class CwaPageRun {
+        ByteBuffer buf;
+        // if not null, produces buf when the run is first decoded
+        Callable<ByteBuffer> source;
+        int firstPage;
+        int numPages;
+
+        SampleBatch samples;
+        // header of the first data block, which was timed without knowing
+        // the previous block, and the range of samples decoded from it
+        CwaBlock firstBlock;
+        int firstBlockStart;
+        int firstBlockEnd;
+        // inter-block timestamp state after the last data block of this run
+        long lastBlockTime;
+        int lastBlockTimeIndex;
+        // errors before the run's first block time was known (see
+        // reportBlockErrors())
+        List<Exception> blockErrors = new ArrayList<Exception>();
+
+        CwaPageRun(ByteBuffer buf, int firstPage, int numPages) {
+            this.buf = buf;
+            this.firstPage = firstPage;
+            this.numPages = numPages;
+        }
+
+        CwaPageRun(Callable<ByteBuffer> source, int numPages) {
+            this.source = source;
+            this.firstPage = 0;
+            this.numPages = numPages;
+        }
+
+        // a private view of the pages, so threads don't share buffer state
+        ByteBuffer pages() throws Exception {
+            if (buf == null) {
+                buf = source.call();
+            }
+            ByteBuffer pages = buf.duplicate();
+            pages.order(ByteOrder.LITTLE_ENDIAN);
+            return pages;
+        }
+
+        CwaPageRun decode(boolean USE_PRECISE_TIME) throws Exception {
+            ByteBuffer pages = pages();
+            long[] blockTime = { NO_TIME };
+            int[] blockTimeIndex = { 0 };
+            samples = new SampleBatch(numPages * CWA_MAX_SAMPLES);
+            for (int page = firstPage; page < firstPage + numPages; page++) {
+                int offset = page * CWA_PAGE_SIZE;
+                int start = samples.size();
+                readCwaBuffer(pages, offset, USE_PRECISE_TIME,
+                    blockTime, blockTimeIndex, samples, blockErrors);
+                if (firstBlock == null && blockTime[0] != NO_TIME) {
+                    firstBlock = readCwaBlockHeader(pages, offset, USE_PRECISE_TIME);
+                    firstBlockStart = start;
+                    firstBlockEnd = samples.size();
+                }
+            }
+            lastBlockTime = blockTime[0];
+            lastBlockTimeIndex = blockTimeIndex[0];
+            if (source != null) {
+                buf = null; // decoded pages are no longer needed
+            }
+            return this;
+        }
+
+        // report the errors in blocks before the run's first block time, given
+        // the time of the block before the run (as readCwaBuffer() would if
+        // the pages were decoded in turn)
+        void reportBlockErrors(long prevBlockTime) {
+            for (Exception excep : blockErrors) {
+                reportBlockError(excep, prevBlockTime);
+            }
+            blockErrors = null;
+        }
+
+        // recalculate first data block's sample times given the previous block
+        void retimeFirstBlock(long prevBlockTime, int prevBlockTimeIndex) {
+            if (firstBlock == null || prevBlockTime == NO_TIME) {
+                return;
+            }
+            long[] sampleSpan = getCwaSampleSpan(firstBlock, true,
+                prevBlockTime, prevBlockTimeIndex);
+            long spanNanos = sampleSpan[1] - sampleSpan[0];
+            for (int i = firstBlockStart; i < firstBlockEnd; i++) {
+                samples.time[i] = getCwaSampleTime(sampleSpan[0], spanNanos,
+                    i - firstBlockStart, firstBlock.sampleCount);
+            }
+        }
+    }
+
+
     /**
      * Read and process Axivity CWA.gz gzipped file. Setup file reading
      * infrastructure and then call readCwaBuffer() method
@@ -89,36 +424,154 @@ public class AxivityReader extends DeviceReader {
         int[] errCounter = new int[] { 0 }; // store val if updated in other
                                             // method
         // Inter-block timstamp tracking
-        LocalDateTime[] lastBlockTime = { null };
+        long[] lastBlockTime = { NO_TIME };
         int[] lastBlockTimeIndex = { 0 };
+        SampleBatch samples = new SampleBatch(CWA_MAX_SAMPLES);
 
-        // data block support variables
-        String header = "";
-
-        int bufSize = 512;
-        ByteBuffer buf = ByteBuffer.allocate(bufSize);
-        try ( FileInputStream accStream = new FileInputStream(accFile); ) {
-            GZIPInputStream in = new GZIPInputStream(accStream);
-            ReadableByteChannel rawAccReader = Channels.newChannel(in);
+        // inflate on a separate thread, and parse many pages per read
+        byte[] chunk = new byte[ReadAheadInputStream.DEFAULT_BUFFER_SIZE];
+        ByteBuffer buf = ByteBuffer.wrap(chunk);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        try ( FileInputStream accStream = new FileInputStream(accFile);
+              ReadAheadInputStream rawAccReader = new ReadAheadInputStream(
+                new GZIPInputStream(accStream, 64 * 1024)); ) {
 
             // now read every page in CWA file
             int pageCount = 0;
-            long memSizePages = getUncompressedSizeofGzipFile(accFile) / bufSize;
+            long memSizePages = getUncompressedSizeofGzipFile(accFile) / CWA_PAGE_SIZE;
             boolean USE_PRECISE_TIME = true; // true uses block fractional time
                                                 // and
                                                 // interpolates timestamp
                                                 // between blocks.
-            while (rawAccReader.read(buf) != -1) {
-                readCwaBuffer(buf,
-                    USE_PRECISE_TIME, lastBlockTime, lastBlockTimeIndex, header,
-                    errCounter, epochWriter);
-                buf.clear();
-                // option to provide status update to user...
-                pageCount++;
-                if (verbose && pageCount % 10000 == 0) {
-                    System.out.print((pageCount * 100 / memSizePages) + "%\t");
+            int len;
+            while ((len = rawAccReader.readFully(chunk, 0, chunk.length)) != -1) {
+                int numPages = len / CWA_PAGE_SIZE;
+                for (int page = 0; page < numPages; page++) {
+                    readCwaBuffer(buf, page * CWA_PAGE_SIZE,
+                        USE_PRECISE_TIME, lastBlockTime, lastBlockTimeIndex,
+                        errCounter, epochWriter, samples);
+                    // option to provide status update to user...
+                    pageCount++;
+                    if (verbose && pageCount % 10000 == 0) {
+                        System.out.print((pageCount * 100 / memSizePages) + "%\t");
+                    }
+                }
+
+                // a truncated last page is copied out so that reads past its
+                // end fail the same way as with readCwaEpochs()
+                int remainder = len % CWA_PAGE_SIZE;
+                if (remainder > 0) {
+                    ByteBuffer lastPage = ByteBuffer.allocate(CWA_PAGE_SIZE);
+                    lastPage.order(ByteOrder.LITTLE_ENDIAN);
+                    lastPage.put(chunk, numPages * CWA_PAGE_SIZE, remainder);
+                    lastPage.flip();
+                    readCwaBuffer(lastPage, 0,
+                        USE_PRECISE_TIME, lastBlockTime, lastBlockTimeIndex,
+                        errCounter, epochWriter, samples);
+                }
+            }
+        } catch (Exception excep) {
+            excep.printStackTrace(System.err);
+            System.err.println("error reading/writing file " + accFile + ": " + excep.toString());
+            System.exit(-2);
+        }
+    }
+
+
+    /**
+     * Read and process Axivity CWA.gz gzipped file using a GzipIndex of
+     * access points (built and saved next to the file on first use).
+     * Each run of pages between two access points is inflated and decoded
+     * independently on one of numThreads threads, and if startTime is set
+     * (i.e. not -1), runs that end before startTime are skipped without
+     * being inflated. Output is the same as readCwaGzEpochs().
+    **/
+    public static void readCwaGzEpochsIndexed(
+        String accFile,
+        String timeZone,
+        int timeShift,
+        EpochWriter epochWriter,
+        int numThreads,
+        long startTime,
+        Boolean verbose) {
+
+        setTimeSettings(timeZone, timeShift);
+
+        int[] errCounter = new int[] { 0 }; // store val if updated in other
+                                            // method
+        // Inter-block timstamp tracking
+        long[] lastBlockTime = { NO_TIME };
+        int[] lastBlockTimeIndex = { 0 };
+        SampleBatch samples = new SampleBatch(CWA_MAX_SAMPLES);
+
+        try ( FileInputStream accStream = new FileInputStream(accFile); ) {
+            FileChannel rawAccReader = accStream.getChannel();
+            GzipIndex index = GzipIndex.loadOrBuild(accFile, verbose);
+
+            long fileSize = index.uncompressedSize();
+            long memSizePages = fileSize / CWA_PAGE_SIZE;
+            long totalPages = (fileSize + CWA_PAGE_SIZE - 1) / CWA_PAGE_SIZE;
+            boolean USE_PRECISE_TIME = true; // true uses block fractional time
+                                                // and
+                                                // interpolates timestamp
+                                                // between blocks.
+
+            // one run of whole pages per access point
+            List<CwaPageRun> runs = new ArrayList<CwaPageRun>();
+            List<Long> runStarts = new ArrayList<Long>();
+            for (int i = 0; i < index.numAccessPoints(); i++) {
+                long firstPage = (index.accessPoint(i) + CWA_PAGE_SIZE - 1) / CWA_PAGE_SIZE;
+                long endPage = totalPages;
+                if (i + 1 < index.numAccessPoints()) {
+                    endPage = (index.accessPoint(i + 1) + CWA_PAGE_SIZE - 1) / CWA_PAGE_SIZE;
+                }
+                if (endPage <= firstPage) {
+                    continue;
                 }
+                long start = firstPage * CWA_PAGE_SIZE;
+                int len = (int) (Math.min(endPage * CWA_PAGE_SIZE, fileSize) - start);
+                runs.add(new CwaPageRun(() -> {
+                    ByteBuffer buf = ByteBuffer.wrap(index.read(rawAccReader, start, len));
+                    buf.order(ByteOrder.LITTLE_ENDIAN);
+                    return buf;
+                }, (int) (endPage - firstPage)));
+                runStarts.add(start);
             }
+
+            long[] pagesDone = { 0 };
+            int runIndex = readCwaSessionStart(runs, USE_PRECISE_TIME,
+                lastBlockTime, lastBlockTimeIndex, errCounter, epochWriter,
+                samples, pagesDone);
+
+            if (startTime != -1 && runIndex < runs.size()) {
+                // binary search for last run starting before startTime...
+                int lo = runIndex;
+                int hi = runs.size() - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi + 1) >>> 1;
+                    long blockMillis = cwaFirstBlockMillis(index, rawAccReader,
+                        runStarts.get(mid), USE_PRECISE_TIME);
+                    if (blockMillis == -1 || blockMillis <= startTime) {
+                        lo = mid;
+                    } else {
+                        hi = mid - 1;
+                    }
+                }
+                // ...then start one run earlier, so that samples from
+                // startTime onwards are timed relative to their previous block
+                int seekRun = Math.max(runIndex, lo - 1);
+                for (int i = runIndex; i < seekRun; i++) {
+                    pagesDone[0] += runs.get(i).numPages;
+                }
+                if (verbose && seekRun > runIndex) {
+                    System.out.println("skipped " + pagesDone[0] + " pages before startTime");
+                }
+                runIndex = seekRun;
+            }
+
+            readCwaRunsInOrder(runs.subList(runIndex, runs.size()), numThreads,
+                USE_PRECISE_TIME, lastBlockTime, lastBlockTimeIndex, errCounter,
+                epochWriter, pagesDone, memSizePages, verbose);
             rawAccReader.close();
         } catch (Exception excep) {
             excep.printStackTrace(System.err);
@@ -128,6 +581,27 @@ public class AxivityReader extends DeviceReader {
     }
 
 
+    // Unix time (millis) of the first readable data block found in the 16
+    // pages from 'start', or -1 if there isn't one
+    private static long cwaFirstBlockMillis(GzipIndex index, FileChannel channel,
+        long start, boolean USE_PRECISE_TIME) throws Exception
+    {
+        ByteBuffer buf = ByteBuffer.wrap(index.read(channel, start, 16 * CWA_PAGE_SIZE));
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = 0; offset + CWA_PAGE_SIZE <= buf.limit(); offset += CWA_PAGE_SIZE) {
+            if (buf.get(offset) == 'A' && buf.get(offset + 1) == 'X') {
+                try {
+                    CwaBlock block = readCwaBlockHeader(buf, offset, USE_PRECISE_TIME);
+                    return localNanosToEpochNanos(block.blockTime) / NANOS_PER_MILLI;
+                } catch (Exception excep) {
+                    // try next page
+                }
+            }
+        }
+        return -1;
+    }
+
+
     /**
      * Read Axivity CWA file, then call method to write epochs from raw data.
      * Epochs will be written to epochFileWriter.
@@ -135,135 +609,85 @@ public class AxivityReader extends DeviceReader {
      * if an epoch of data has been collected or not. Finally, write each epoch
      * to epochFileWriter. CWA format is described at:
      * https://github.com/digitalinteraction/openmovement/blob/master/Downloads/AX3/AX3-CWA-Format.txt
+     * The page is read in place, starting at byte 'offset' of the
+     * (little-endian) buffer.
     **/
-    private static void readCwaBuffer(ByteBuffer buf,
+    private static void readCwaBuffer(ByteBuffer buf, int offset,
         boolean USE_PRECISE_TIME,
-        LocalDateTime[] lastBlockTime, int[] lastBlockTimeIndex, String header,
-        int[] errCounter, EpochWriter epochWriter)
+        long[] lastBlockTime, int[] lastBlockTimeIndex,
+        int[] errCounter, EpochWriter epochWriter, SampleBatch samples)
     {
-        buf.flip();
-        buf.order(ByteOrder.LITTLE_ENDIAN);
-        header = (char) buf.get() + "";
-        header += (char) buf.get() + "";
-        if (header.equals("MD")) {
+        readCwaBuffer(buf, offset, USE_PRECISE_TIME, lastBlockTime,
+            lastBlockTimeIndex, samples);
+        samples.writeTo(epochWriter, errCounter);
+        samples.clear();
+    }
+
+
+    /**
+     * Decode a single CWA page, appending its samples to 'samples'.
+     * lastBlockTime and lastBlockTimeIndex carry the inter-block timestamp
+     * state from the previous data block, and are updated for the next one.
+    **/
+    private static void readCwaBuffer(ByteBuffer buf, int offset,
+        boolean USE_PRECISE_TIME,
+        long[] lastBlockTime, int[] lastBlockTimeIndex,
+        SampleBatch samples)
+    {
+        readCwaBuffer(buf, offset, USE_PRECISE_TIME, lastBlockTime,
+            lastBlockTimeIndex, samples, null);
+    }
+
+
+    /**
+     * As above, but if blockErrors is not null, errors in blocks before
+     * lastBlockTime is known (i.e. at the start of a run of pages decoded
+     * apart from the pages before it) are added to it, to be reported with
+     * reportBlockError() once the previous block's time is known.
+    **/
+    private static void readCwaBuffer(ByteBuffer buf, int offset,
+        boolean USE_PRECISE_TIME,
+        long[] lastBlockTime, int[] lastBlockTimeIndex,
+        SampleBatch samples, List<Exception> blockErrors)
+    {
+        byte header0 = buf.get(offset);
+        byte header1 = buf.get(offset + 1);
+        if (header0 == 'M' && header1 == 'D') {
             // Read first page (& data-block) to get time, temp,
             // measurement frequency, and start of epoch values
             try {
-                LocalDateTime blockTime = cwaHeaderLoggingStartTime(buf);
+                LocalDateTime blockTime = cwaHeaderLoggingStartTime(buf, offset);
                 setSessionStart(blockTime);
                 System.out.println("Device was programmed with delayed start time");
                 System.out.println("Session start: " + sessionStart);
             } catch (Exception e) {
             }
-        } else if (header.equals("AX")) {
+        } else if (header0 == 'A' && header1 == 'X') {
             // read each individual page block, and process epochs...
             try {
-                // read block header items
-                long blockTimestamp = getUnsignedInt(buf, 14);
-                int light = getUnsignedShort(buf, 18);
-                double temperature = (getUnsignedShort(buf, 20) * 150.0 - 20500) / 1000;
-                short rateCode = (short) (buf.get(24) & 0xff);
-                short numAxesBPS = (short) (buf.get(25) & 0xff);
-                int sampleCount = getUnsignedShort(buf, 28);
-                short timestampOffset = 0;
-                double sampleFreq = 0;
-                int fractional = 0; // 1/65536th of a second fractions
-
-                // check not very old file as pos 26=freq rather than
-                // timestamp offset
-                if (rateCode != 0) {
-                    timestampOffset = buf.getShort(26); // timestamp
-                                                        // offset ok
-                    // if fractional offset, then timestamp offset was
-                    // artificially
-                    // modified for backwards-compatibility ...
-                    // therefore undo this...
-                    int oldDeviceId = getUnsignedShort(buf, 4);
-                    if ((oldDeviceId & 0x8000) != 0) {
-                        sampleFreq = 3200.0 / (1 << (15 - (rateCode & 15)));
-                        if (USE_PRECISE_TIME) {
-                            // Need to undo backwards-compatible shim:
-                            // Take into account how many whole samples
-                            // the fractional part of timestamp
-                            // accounts for:
-                            // relativeOffset = fifoLength -
-                            // (short)(((unsigned long)timeFractional *
-                            // AccelFrequency()) >> 16);
-                            // nearest whole sample
-                            // whole-sec | /fifo-pos@time
-                            // | |/
-                            // [0][1][2][3][4][5][6][7][8][9]
-                            // use 15-bits as 16-bit fractional time
-                            fractional = ((oldDeviceId & 0x7fff) << 1);
-                            // frequency is truncated to int in firmware
-                            timestampOffset += ((fractional * (int) sampleFreq) >> 16);
-                        }
-                    }
-                } else {
-                    sampleFreq = buf.getShort(26);
-                    // very old format, where pos26 = freq
-                }
-
-                // calculate num bytes per sample...
-                byte bytesPerSample = 4;
-                int NUM_AXES_PER_SAMPLE = 3;
-                if ((numAxesBPS & 0x0f) == 2) {
-                    bytesPerSample = 6; // 3*16-bit
-                } else if ((numAxesBPS & 0x0f) == 0) {
-                    bytesPerSample = 4; // 3*10-bit + 2
-                }
-
-                // Limit values
-                int maxSamples = 480 / bytesPerSample; //80 or 120 samples/block
-                if (sampleCount > maxSamples) {
-                    sampleCount = maxSamples;
-                }
-                if (sampleFreq <= 0) {
-                    sampleFreq = 1;
-                }
-
-                // determine time for indexed sample within block
-                LocalDateTime blockTime = getCwaTimestamp((int) blockTimestamp,
-                                                    fractional);
+                CwaBlock block = readCwaBlockHeader(buf, offset, USE_PRECISE_TIME);
 
                 // if sessionStart not set yet, this is the first block
                 if (sessionStart == null) {
-                    setSessionStart(blockTime);
+                    setSessionStart(localNanosToDateTime(block.blockTime));
                     System.out.println("Session start: " + sessionStart);
                 }
 
                 // first & last sample. Actually, last = first sample in next block
-                LocalDateTime firstSampleTime, lastSampleTime;
-                // if no interval between times (or interval too large)
-                long spanToSample = 0;
-                if (lastBlockTime[0] != null) {
-                    spanToSample = Duration.between(lastBlockTime[0], blockTime).toNanos();
-                }
-                if (!USE_PRECISE_TIME ||
-                        lastBlockTime[0] == null ||
-                        timestampOffset <= lastBlockTimeIndex[0] ||
-                        spanToSample <= 0 ||
-                        spanToSample > 1000000000.0 * 2 * maxSamples / sampleFreq
-                    ) {
-                    float offsetStart = (float) -timestampOffset / (float) sampleFreq;
-                    firstSampleTime = blockTime.plusNanos(secs2Nanos(offsetStart));
-                    lastSampleTime = firstSampleTime.plusNanos(secs2Nanos(sampleCount / sampleFreq));
-                } else {
-                    double gap = (double) spanToSample / (-lastBlockTimeIndex[0] + timestampOffset);
-                    firstSampleTime = lastBlockTime[0].plusNanos((long) (-lastBlockTimeIndex[0] * gap));
-                    lastSampleTime = lastBlockTime[0]
-                            .plusNanos((long) ((-lastBlockTimeIndex[0] + sampleCount) * gap));
-                }
+                long[] sampleSpan = getCwaSampleSpan(block,
+                    USE_PRECISE_TIME, lastBlockTime[0], lastBlockTimeIndex[0]);
+                long firstSampleTime = sampleSpan[0];
+                long lastSampleTime = sampleSpan[1];
 
                 // Last block time
-                lastBlockTime[0] = blockTime;
+                lastBlockTime[0] = block.blockTime;
                 // Advance last block time index for next block
-                lastBlockTimeIndex[0] = timestampOffset - sampleCount;
+                lastBlockTimeIndex[0] = block.timestampOffset - block.sampleCount;
                 // Overall span of block
-                long spanNanos = Duration.between(firstSampleTime, lastSampleTime).toNanos();
+                long spanNanos = lastSampleTime - firstSampleTime;
 
                 // raw reading values
-                long t = 0;  // Unix time in millis
+                long t = 0;  // Unix time in nanos
                 long value = 0; // x/y/z vals
                 short xRaw = 0;
                 short yRaw = 0;
@@ -271,6 +695,9 @@ public class AxivityReader extends DeviceReader {
                 double x = 0.0;
                 double y = 0.0;
                 double z = 0.0;
+                long blockTime = block.blockTime;
+                int sampleCount = block.sampleCount;
+                int NUM_AXES_PER_SAMPLE = 3;
 
                 // loop through each line in data block and check if it is last
                 // in epoch, then write epoch summary to file.
@@ -279,18 +706,21 @@ public class AxivityReader extends DeviceReader {
                     if (USE_PRECISE_TIME) {
                         // Calculate each sample's time, not successively adding
                         // so that we don't accumulate any errors
-                        blockTime = firstSampleTime.plusNanos((long) (i * (double) spanNanos / sampleCount));
-                    } else if (i == 0) {
-                            blockTime = firstSampleTime; // emulate original behaviour
+                        t = getCwaSampleTime(firstSampleTime, spanNanos, i, sampleCount);
                     } else {
-                            blockTime = blockTime.plusNanos(secs2Nanos(1.0 / sampleFreq));
+                        if (i == 0) {
+                            blockTime = firstSampleTime; // emulate original behaviour
+                        } else {
+                            blockTime += secs2Nanos(1.0 / block.sampleFreq);
+                        }
+                        t = localNanosToEpochNanos(blockTime);
                     }
 
-                    if (bytesPerSample == 4) {
+                    if (block.bytesPerSample == 4) {
                         try {
-                            value = getUnsignedInt(buf, 30 + 4 * i);
+                            value = getUnsignedInt(buf, offset + 30 + 4 * i);
                         } catch (Exception excep) {
-                            errCounter[0] += 1;
+                            samples.addError();
                             System.err.println("xyz reading err: " + excep.toString());
                             break; // rest of block/page may be corrupted
                         }
@@ -298,13 +728,13 @@ public class AxivityReader extends DeviceReader {
                         xRaw = (short) ((short) (0xffffffc0 & (value << 6)) >> (6 - ((value >> 30) & 0x03)));
                         yRaw = (short) ((short) (0xffffffc0 & (value >> 4)) >> (6 - ((value >> 30) & 0x03)));
                         zRaw = (short) ((short) (0xffffffc0 & (value >> 14)) >> (6 - ((value >> 30) & 0x03)));
-                    } else if (bytesPerSample == 6) {
+                    } else if (block.bytesPerSample == 6) {
                         try {
-                            xRaw = buf.getShort(30 + 2 * NUM_AXES_PER_SAMPLE * i + 0);
-                            yRaw = buf.getShort(30 + 2 * NUM_AXES_PER_SAMPLE * i + 2);
-                            zRaw = buf.getShort(30 + 2 * NUM_AXES_PER_SAMPLE * i + 4);
+                            xRaw = buf.getShort(offset + 30 + 2 * NUM_AXES_PER_SAMPLE * i + 0);
+                            yRaw = buf.getShort(offset + 30 + 2 * NUM_AXES_PER_SAMPLE * i + 2);
+                            zRaw = buf.getShort(offset + 30 + 2 * NUM_AXES_PER_SAMPLE * i + 4);
                         } catch (Exception excep) {
-                            errCounter[0] += 1;
+                            samples.addError();
                             System.err.println("xyz read err: " + excep.toString());
                             break; // rest of block/page may be corrupted
                         }
@@ -316,18 +746,163 @@ public class AxivityReader extends DeviceReader {
                     x = xRaw / 256.0;
                     y = yRaw / 256.0;
                     z = zRaw / 256.0;
-                    t = zonedWithDSTCorrection(blockTime).toInstant().toEpochMilli();
 
-                    epochWriter.newValues(t, x, y, z, temperature, errCounter);
+                    samples.add(t, x, y, z, block.temperature);
 
                 }
             } catch (Exception excep) {
-                excep.printStackTrace(System.err);
-                System.err.println(
-                    "block err @ " + zonedWithDSTCorrection(lastBlockTime[0]).toString() + ": " + excep.toString()
-                );
+                if (blockErrors != null && lastBlockTime[0] == NO_TIME) {
+                    blockErrors.add(excep);
+                } else {
+                    reportBlockError(excep, lastBlockTime[0]);
+                }
+            }
+        }
+    }
+
+
+    // report an error in the data block after the one at lastBlockTime
+    private static void reportBlockError(Exception excep, long lastBlockTime) {
+        excep.printStackTrace(System.err);
+        System.err.println(
+            "block err @ " + (lastBlockTime == NO_TIME ? "start of block range"
+                : zonedWithDSTCorrection(localNanosToDateTime(lastBlockTime)).toString())
+            + ": " + excep.toString()
+        );
+    }
+
+
+    /**
+     * Header fields of a CWA "AX" data block
+    **/
+    private static class CwaBlock {
+        long blockTime; // local time, in nanoseconds (see localNanosToEpochNanos())
+        double temperature;
+        short timestampOffset;
+        double sampleFreq;
+        int sampleCount;
+        int maxSamples;
+        byte bytesPerSample;
+    }
+
+
+    private static CwaBlock readCwaBlockHeader(ByteBuffer buf, int offset,
+        boolean USE_PRECISE_TIME)
+    {
+        CwaBlock block = new CwaBlock();
+        // read block header items
+        long blockTimestamp = getUnsignedInt(buf, offset + 14);
+        int light = getUnsignedShort(buf, offset + 18);
+        block.temperature = (getUnsignedShort(buf, offset + 20) * 150.0 - 20500) / 1000;
+        short rateCode = (short) (buf.get(offset + 24) & 0xff);
+        short numAxesBPS = (short) (buf.get(offset + 25) & 0xff);
+        int sampleCount = getUnsignedShort(buf, offset + 28);
+        short timestampOffset = 0;
+        double sampleFreq = 0;
+        int fractional = 0; // 1/65536th of a second fractions
+
+        // check not very old file as pos 26=freq rather than
+        // timestamp offset
+        if (rateCode != 0) {
+            timestampOffset = buf.getShort(offset + 26); // timestamp
+                                                // offset ok
+            // if fractional offset, then timestamp offset was
+            // artificially
+            // modified for backwards-compatibility ...
+            // therefore undo this...
+            int oldDeviceId = getUnsignedShort(buf, offset + 4);
+            if ((oldDeviceId & 0x8000) != 0) {
+                sampleFreq = 3200.0 / (1 << (15 - (rateCode & 15)));
+                if (USE_PRECISE_TIME) {
+                    // Need to undo backwards-compatible shim:
+                    // Take into account how many whole samples
+                    // the fractional part of timestamp
+                    // accounts for:
+                    // relativeOffset = fifoLength -
+                    // (short)(((unsigned long)timeFractional *
+                    // AccelFrequency()) >> 16);
+                    // nearest whole sample
+                    // whole-sec | /fifo-pos@time
+                    // | |/
+                    // [0][1][2][3][4][5][6][7][8][9]
+                    // use 15-bits as 16-bit fractional time
+                    fractional = ((oldDeviceId & 0x7fff) << 1);
+                    // frequency is truncated to int in firmware
+                    timestampOffset += ((fractional * (int) sampleFreq) >> 16);
+                }
             }
+        } else {
+            sampleFreq = buf.getShort(offset + 26);
+            // very old format, where pos26 = freq
         }
+
+        // calculate num bytes per sample...
+        byte bytesPerSample = 4;
+        if ((numAxesBPS & 0x0f) == 2) {
+            bytesPerSample = 6; // 3*16-bit
+        } else if ((numAxesBPS & 0x0f) == 0) {
+            bytesPerSample = 4; // 3*10-bit + 2
+        }
+
+        // Limit values
+        int maxSamples = 480 / bytesPerSample; //80 or 120 samples/block
+        if (sampleCount > maxSamples) {
+            sampleCount = maxSamples;
+        }
+        if (sampleFreq <= 0) {
+            sampleFreq = 1;
+        }
+
+        // determine time for indexed sample within block
+        block.blockTime = getCwaTimestampNanos((int) blockTimestamp, fractional);
+        block.timestampOffset = timestampOffset;
+        block.sampleFreq = sampleFreq;
+        block.sampleCount = sampleCount;
+        block.maxSamples = maxSamples;
+        block.bytesPerSample = bytesPerSample;
+        return block;
+    }
+
+
+    /**
+     * Returns the time of the first sample of a block, and of the first
+     * sample of the next block, from the state left by the previous block.
+    **/
+    private static long[] getCwaSampleSpan(CwaBlock block,
+        boolean USE_PRECISE_TIME,
+        long lastBlockTime, int lastBlockTimeIndex)
+    {
+        long firstSampleTime, lastSampleTime;
+        // if no interval between times (or interval too large)
+        long spanToSample = 0;
+        if (lastBlockTime != NO_TIME) {
+            spanToSample = block.blockTime - lastBlockTime;
+        }
+        if (!USE_PRECISE_TIME ||
+                lastBlockTime == NO_TIME ||
+                block.timestampOffset <= lastBlockTimeIndex ||
+                spanToSample <= 0 ||
+                spanToSample > 1000000000.0 * 2 * block.maxSamples / block.sampleFreq
+            ) {
+            float offsetStart = (float) -block.timestampOffset / (float) block.sampleFreq;
+            firstSampleTime = block.blockTime + secs2Nanos(offsetStart);
+            lastSampleTime = firstSampleTime + secs2Nanos(block.sampleCount / block.sampleFreq);
+        } else {
+            double gap = (double) spanToSample / (-lastBlockTimeIndex + block.timestampOffset);
+            firstSampleTime = lastBlockTime + (long) (-lastBlockTimeIndex * gap);
+            lastSampleTime = lastBlockTime
+                    + (long) ((-lastBlockTimeIndex + block.sampleCount) * gap);
+        }
+        return new long[] { firstSampleTime, lastSampleTime };
+    }
+
+
+    // Unix time (nanos) of the i-th of sampleCount samples spread over spanNanos
+    private static long getCwaSampleTime(long firstSampleTime,
+        long spanNanos, int i, int sampleCount)
+    {
+        long sampleTime = firstSampleTime + (long) (i * (double) spanNanos / sampleCount);
+        return localNanosToEpochNanos(sampleTime);
     }
 
 
@@ -349,8 +924,30 @@ public class AxivityReader extends DeviceReader {
     }
 
 
-    private static LocalDateTime cwaHeaderLoggingStartTime(ByteBuffer buf) {
-        long delayedLoggingStartTime = getUnsignedInt(buf, 13);
+    // As getCwaTimestamp(), but as local time in nanoseconds, without
+    // allocating a LocalDateTime
+    private static long getCwaTimestampNanos(int cwaTimestamp, int fractional) {
+        int year = ((cwaTimestamp >> 26) & 0x3f) + 2000;
+        int month = (cwaTimestamp >> 22) & 0x0f;
+        int day = (cwaTimestamp >> 17) & 0x1f;
+        int hours = (cwaTimestamp >> 12) & 0x1f;
+        int mins = (cwaTimestamp >> 6) & 0x3f;
+        int secs = cwaTimestamp & 0x3f;
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hours > 23 || mins > 59 || secs > 59) {
+            // let LocalDateTime report the invalid field
+            return dateTimeToLocalNanos(getCwaTimestamp(cwaTimestamp, fractional));
+        }
+        long epochDay = epochDay(year, month, day);
+        long localSecs = ((epochDay * 24 + hours) * 60 + mins) * 60 + secs
+            + timeShift * 60L;
+        // add 1/65536th fractions of a second
+        return localSecs * NANOS_PER_SECOND + secs2Nanos(fractional / 65536.0);
+    }
+
+
+    private static LocalDateTime cwaHeaderLoggingStartTime(ByteBuffer buf, int offset) {
+        long delayedLoggingStartTime = getUnsignedInt(buf, offset + 13);
         return getCwaTimestamp((int) delayedLoggingStartTime, 0);
     }
 
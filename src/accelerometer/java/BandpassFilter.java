@@ -7,15 +7,24 @@ public class BandpassFilter extends Filter {
 
 	// Constructs 4th order Butterworth bandpass filter between Fc1 and Fc2 at rate Fs.
 	public BandpassFilter(double Fc1, double Fc2, double Fs, Boolean verbose)
+	{
+		this(Fc1, Fc2, Fs, false, verbose);
+	}
+
+
+	// As above, but if useSos, filter() applies the filter as four cascaded
+	// second-order sections rather than as B/A directly
+	public BandpassFilter(double Fc1, double Fc2, double Fs, boolean useSos, Boolean verbose)
 	{
 		// Calculate normalised cut-offs
 		double W1 = Fc1 / (Fs / 2);
 		double W2 = Fc2 / (Fs / 2);
 	
 		// Create coefficients
-		BUTTERWORTH4_NUM_COEFFICIENTS = (BUTTERWORTH4_ORDER * 2 + 1);
-		B = new double[BUTTERWORTH4_NUM_COEFFICIENTS];
-		A = new double[BUTTERWORTH4_NUM_COEFFICIENTS];
+		numCoefficients = (BUTTERWORTH4_ORDER * 2 + 1);
+		B = new double[numCoefficients];
+		A = new double[numCoefficients];
+		this.useSos = useSos;
 		
 		// Calculate coefficients
 		CoefficientsButterworth4BP(W1, W2, B, A);
@@ -27,7 +36,7 @@ public class BandpassFilter extends Filter {
 		}
 		
 		// Create final/initial condition tracker
-		z = new double[BUTTERWORTH4_NUM_COEFFICIENTS];
+		z = new double[numCoefficients];
 		reset();
 	}
 
@@ -117,6 +126,26 @@ public class BandpassFilter extends Filter {
 			}
 		}
 
+		// Second-order sections: trinomial i is (1 + beta z^-1 + gamma z^-2),
+		// with poles (-beta +/- sqrt(beta^2 - 4 gamma)) / 2, and trinomials
+		// i and ORDER-1-i have complex conjugate poles
+		double poles[] = new double[2 * BUTTERWORTH4_ORDER];
+		for (i = 0; i < BUTTERWORTH4_ORDER / 2; i++)
+		{
+			double betaRe = b[2 * i], betaIm = b[2 * i + 1];
+			double dRe = betaRe * betaRe - betaIm * betaIm - 4 * c[2 * i];
+			double dIm = 2 * betaRe * betaIm - 4 * c[2 * i + 1];
+			// complex square root of d
+			double r = Math.hypot(dRe, dIm);
+			double sqrtRe = Math.sqrt((r + dRe) / 2);
+			double sqrtIm = Math.copySign(Math.sqrt((r - dRe) / 2), dIm);
+			poles[4 * i] = (-betaRe + sqrtRe) / 2;
+			poles[4 * i + 1] = (-betaIm + sqrtIm) / 2;
+			poles[4 * i + 2] = (-betaRe - sqrtRe) / 2;
+			poles[4 * i + 3] = (-betaIm - sqrtIm) / 2;
+		}
+		setSecondOrderSections(poles, 0, -1);
+
 		// Read out results as A coefficients
 		A[1] = a[0];
 		A[0] = 1.0;
@@ -1,13 +1,13 @@
-
-import java.io.BufferedReader;
 import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.Reader;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.time.format.DateTimeFormatter;
 import java.time.LocalDateTime;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -16,6 +16,11 @@ import java.util.zip.GZIPInputStream;
 public class CsvReader extends DeviceReader {
 
     private static int NO_TEMPERATURE = -99;
+    private static final long NO_START_TIME = Long.MIN_VALUE;
+    // bytes of the file per chunk of rows parsed by one task
+    private static final long CSV_CHUNK_SIZE = 4 * 1024 * 1024;
+    // rows passed to the EpochWriter at a time
+    private static final int CSV_BATCH_ROWS = 4096;
 
     public static void readCSVEpochs(
             String accFile,
@@ -24,64 +29,173 @@ public class CsvReader extends DeviceReader {
             List<Integer> csvTimeXYZTempColsIndex,
             DateTimeFormatter csvTimeFormat,
             Boolean verbose) {
+        readCSVEpochs(accFile, epochWriter, csvStartRow, csvTimeXYZTempColsIndex,
+            csvTimeFormat, null, 0, 1, verbose);
+    }
 
-        BufferedReader accReader;
-        try {
+
+    /**
+     * Read a .csv(.gz) file, parsing .csv files on numThreads threads if
+     * numThreads > 1 (see readCSVEpochsParallel()).
+     * If csvStartTime is not null, rows have no timestamp to parse: row i
+     * (from csvStartRow) is at csvStartTime + i/csvSampleRate, and the time
+     * column of csvTimeXYZTempColsIndex is ignored.
+     */
+    public static void readCSVEpochs(
+            String accFile,
+            EpochWriter epochWriter,
+            int csvStartRow,
+            List<Integer> csvTimeXYZTempColsIndex,
+            DateTimeFormatter csvTimeFormat,
+            LocalDateTime csvStartTime,
+            double csvSampleRate,
+            int numThreads,
+            Boolean verbose) {
+
+        // csv times are taken as UTC, so local time = Unix time
+        long csvStartNanos = csvStartTime == null ? NO_START_TIME
+            : dateTimeToLocalNanos(csvStartTime);
+        if (numThreads > 1 && !accFile.toLowerCase().endsWith(".csv.gz")) {
+            readCSVEpochsParallel(accFile, epochWriter, csvStartRow, csvTimeXYZTempColsIndex,
+                csvTimeFormat, csvStartNanos, csvSampleRate, numThreads);
+            return;
+        }
+
+        try ( FileInputStream accStream = new FileInputStream(accFile); ) {
             // check if .csv or .csv.gz, then setup reader apprioriately
+            LineReader accReader;
             if (accFile.toLowerCase().endsWith(".csv.gz")){
-                FileInputStream accStream = new FileInputStream(accFile);
-                GZIPInputStream gzipStream = new GZIPInputStream(accStream);
-                Reader decoder = new InputStreamReader(gzipStream);
-                accReader = new BufferedReader(decoder);
+                GZIPInputStream gzipStream = new GZIPInputStream(accStream, 64 * 1024);
+                // inflate on a separate thread, overlapping with parsing
+                accReader = new StreamLineReader(new ReadAheadInputStream(gzipStream));
             } else{ // i.e. endsWith(".csv")
-                accReader = new BufferedReader(new FileReader(accFile));
+                accReader = new MappedLineReader(accStream.getChannel());
             }
 
-            String line = "";
+            CsvRowParser row = new CsvRowParser(csvTimeXYZTempColsIndex, csvTimeFormat,
+                csvStartNanos == NO_START_TIME);
+            int[] errCounter = new int[] { 0 };
+            SampleBatch rows = new SampleBatch(CSV_BATCH_ROWS);
             int lineNumber = 0;
-            String csvSplitBy = ",";
-            int timeCol = csvTimeXYZTempColsIndex.get(0);
-            int xCol = csvTimeXYZTempColsIndex.get(1);
-            int yCol = csvTimeXYZTempColsIndex.get(2);
-            int zCol = csvTimeXYZTempColsIndex.get(3);
-            int temperatureCol = NO_TEMPERATURE;
-            if (csvTimeXYZTempColsIndex.size() == 5){
-                temperatureCol = csvTimeXYZTempColsIndex.get(4);
+            long rowIndex = 0;
+            try {
+                while (accReader.next()) {
+                    // skip unto we reach appropriate start line number
+                    if (lineNumber < csvStartRow){
+                        lineNumber++;
+                        continue;
+                    }
+
+                    // read csv line
+                    row.parse(accReader.buffer(), accReader.start(), accReader.end());
+                    if (csvStartNanos != NO_START_TIME) {
+                        row.time = rowTime(csvStartNanos, csvSampleRate, rowIndex++);
+                    }
+                    rows.add(row.time, row.x, row.y, row.z, row.temperature);
+                    if (rows.size() == CSV_BATCH_ROWS) {
+                        rows.writeTo(epochWriter, errCounter);
+                        rows.clear();
+                    }
+                }
+            } catch (Exception excep) {
+                // write the rows before the one that couldn't be parsed
+                rows.writeTo(epochWriter, errCounter);
+                throw excep;
             }
+            rows.writeTo(epochWriter, errCounter);
 
-            String[] cols;
-            long time = Long.MIN_VALUE;
-            double x;
-            double y;
-            double z;
-            double temperature = 0;
-            while (true) {
-                line = accReader.readLine();
+        } catch (Exception excep) {
+            excep.printStackTrace(System.err);
+            System.err.println("error reading/writing file " + accFile + ": "
+                 + excep.toString());
+            System.exit(-2);
+        }
+    }
 
-                // skip unto we reach appropriate start line number
-                if (lineNumber < csvStartRow){
-                    lineNumber++;
-                    continue;
-                }
-                if (line==null) {
-                    accReader.close();
-                    break;
-                }
 
-                // read csv line
-                cols = line.split(csvSplitBy);
-                time = getEpochMillis(LocalDateTime.parse(cols[timeCol],
-                        csvTimeFormat));
-                x = Double.parseDouble(cols[xCol]);
-                y = Double.parseDouble(cols[yCol]);
-                z = Double.parseDouble(cols[zCol]);
-                if (temperatureCol != NO_TEMPERATURE){
-                    temperature = Double.parseDouble(cols[temperatureCol]);
-                }
-                epochWriter.newValues(time, x, y, z, temperature, new int[] {0});
+    /**
+     * Whether csvStartTime and csvSampleRate are either both given, with a
+     * rate > 0 (for a file without timestamps), or neither is (null and -1)
+    **/
+    public static boolean isValidRowTiming(LocalDateTime csvStartTime, double csvSampleRate) {
+        return csvStartTime == null ? csvSampleRate == -1 : csvSampleRate > 0;
+    }
+
+
+    // time of row i (from csvStartRow) of a csv file without timestamps
+    private static long rowTime(long csvStartNanos, double csvSampleRate, long i) {
+        return csvStartNanos + Math.round((1e9 * i) / csvSampleRate);
+    }
+
+
+    /**
+     * Read a .csv file as readCSVEpochs() does, but parse it on numThreads
+     * threads: the rows after csvStartRow are split into chunks of about
+     * CSV_CHUNK_SIZE bytes at line boundaries, parsed concurrently, and passed
+     * to epochWriter in file order. (A .csv.gz file can't be split like this.)
+     */
+    private static void readCSVEpochsParallel(
+            String accFile,
+            EpochWriter epochWriter,
+            int csvStartRow,
+            List<Integer> csvTimeXYZTempColsIndex,
+            DateTimeFormatter csvTimeFormat,
+            long csvStartNanos,
+            double csvSampleRate,
+            int numThreads) {
+
+        try ( FileInputStream accStream = new FileInputStream(accFile); ) {
+            FileChannel channel = accStream.getChannel();
+            MappedLineReader accReader = new MappedLineReader(channel);
+            // skip unto we reach appropriate start line number
+            for (int lineNumber = 0; lineNumber < csvStartRow; lineNumber++) {
+                accReader.next();
+            }
+            if (!accReader.next()) {
+                return; // no rows
+            }
+
+            long dataStart = accReader.position();
+            long fileSize = channel.size();
+            List<CsvChunk> chunks = new ArrayList<CsvChunk>();
+            for (long start = dataStart; start < fileSize; start += CSV_CHUNK_SIZE) {
+                chunks.add(new CsvChunk(channel, start, Math.min(start + CSV_CHUNK_SIZE, fileSize),
+                    start == dataStart));
             }
 
+            int[] errCounter = new int[] { 0 };
+            long[] rowIndex = { 0 };
+            Iterator<CsvChunk> remaining = chunks.iterator();
+            decodeInOrder(numThreads,
+                new Iterator<Callable<CsvChunk>>() {
+                    public boolean hasNext() {
+                        return remaining.hasNext();
+                    }
+                    public Callable<CsvChunk> next() {
+                        CsvChunk chunk = remaining.next();
+                        return () -> chunk.parse(new CsvRowParser(csvTimeXYZTempColsIndex,
+                            csvTimeFormat, csvStartNanos == NO_START_TIME));
+                    }
+                },
+                chunk -> {
+                    SampleBatch rows = chunk.rows;
+                    if (csvStartNanos != NO_START_TIME) {
+                        for (int i = 0; i < rows.size; i++) {
+                            rows.time[i] = rowTime(csvStartNanos, csvSampleRate, rowIndex[0]++);
+                        }
+                    }
+                    rows.writeTo(epochWriter, errCounter);
+                    chunk.rows = null; // allow chunk's memory to be reclaimed
+                    if (chunk.error != null) {
+                        throw new CsvChunkException(chunk.error);
+                    }
+                });
+
         } catch (Exception excep) {
+            // report the row's own exception, as readCSVEpochs() does
+            if (excep instanceof CsvChunkException) {
+                excep = (Exception) excep.getCause();
+            }
             excep.printStackTrace(System.err);
             System.err.println("error reading/writing file " + accFile + ": "
                  + excep.toString());
@@ -90,4 +204,285 @@ public class CsvReader extends DeviceReader {
     }
 
 
+    /**
+     * The rows of a .csv file that start in [start, end), and their values
+     * once parsed
+    **/
+    private static class CsvChunk {
+        final FileChannel channel;
+        final long start;
+        final long end;
+        final boolean firstChunk; // start is that of the first row
+
+        SampleBatch rows;
+        Exception error = null; // from the row after the last one parsed
+
+        CsvChunk(FileChannel channel, long start, long end, boolean firstChunk) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.firstChunk = firstChunk;
+        }
+
+        CsvChunk parse(CsvRowParser row) throws IOException {
+            rows = new SampleBatch((int) ((end - start) / 64));
+            MappedLineReader reader;
+            if (firstChunk) {
+                reader = new MappedLineReader(channel, start, 2 * CSV_CHUNK_SIZE);
+            } else {
+                // skip to the first line starting at or after start
+                reader = new MappedLineReader(channel, start - 1, 2 * CSV_CHUNK_SIZE);
+                reader.next();
+            }
+            while (reader.next() && reader.position() < end) {
+                try {
+                    row.parse(reader.buffer(), reader.start(), reader.end());
+                } catch (Exception excep) {
+                    error = excep;
+                    break;
+                }
+                rows.add(row.time, row.x, row.y, row.z, row.temperature);
+            }
+            return this;
+        }
+    }
+
+
+    // carries a row's exception out of the (non-throwing) chunk consumer
+    private static class CsvChunkException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        CsvChunkException(Exception cause) {
+            super(cause);
+        }
+    }
+
+
+    /**
+     * Parses the time, x, y, z (and temperature) columns of a CSV row from
+     * its bytes. Rows the byte-level parser doesn't handle (e.g. missing or
+     * empty columns) are parsed with String.split() etc., so they are read
+     * (or rejected) exactly as before. Not thread safe.
+    **/
+    static class CsvRowParser {
+        final int timeCol;
+        final int xCol;
+        final int yCol;
+        final int zCol;
+        final int temperatureCol;
+        final boolean readTime; // else timeCol is ignored
+        final int numCols; // columns up to the last one used
+        final CsvTimeParser timeParser;
+        final DateTimeFormatter csvTimeFormat;
+        final int[] colStart;
+        final int[] colEnd;
+
+        // values of the last row parsed
+        long time = Long.MIN_VALUE; // csv times are taken as UTC, so local time = Unix time
+        double x;
+        double y;
+        double z;
+        double temperature = 0;
+
+        CsvRowParser(List<Integer> csvTimeXYZTempColsIndex, DateTimeFormatter csvTimeFormat,
+                boolean readTime) {
+            timeCol = csvTimeXYZTempColsIndex.get(0);
+            xCol = csvTimeXYZTempColsIndex.get(1);
+            yCol = csvTimeXYZTempColsIndex.get(2);
+            zCol = csvTimeXYZTempColsIndex.get(3);
+            if (csvTimeXYZTempColsIndex.size() == 5){
+                temperatureCol = csvTimeXYZTempColsIndex.get(4);
+            } else {
+                temperatureCol = NO_TEMPERATURE;
+            }
+            this.readTime = readTime;
+            int lastCol = readTime ? timeCol : 0;
+            lastCol = Math.max(lastCol, Math.max(xCol, Math.max(yCol, zCol)));
+            numCols = Math.max(lastCol, temperatureCol) + 1;
+            colStart = new int[numCols];
+            colEnd = new int[numCols];
+            this.csvTimeFormat = csvTimeFormat;
+            timeParser = new CsvTimeParser(csvTimeFormat);
+        }
+
+        void parse(ByteBuffer buf, int start, int end) throws Exception {
+            // find the columns used
+            int col = 0;
+            colStart[0] = start;
+            for (int i = start; i < end && col < numCols; i++) {
+                if (buf.get(i) == ',') {
+                    colEnd[col] = i;
+                    if (++col < numCols) {
+                        colStart[col] = i + 1;
+                    }
+                }
+            }
+            if (col < numCols) {
+                colEnd[col] = end;
+                col++;
+            }
+            // an empty column may be dropped by split(), or fail to parse
+            boolean usable = col == numCols
+                && colEnd[xCol] > colStart[xCol]
+                && colEnd[yCol] > colStart[yCol]
+                && colEnd[zCol] > colStart[zCol]
+                && (!readTime || colEnd[timeCol] > colStart[timeCol])
+                && (temperatureCol == NO_TEMPERATURE
+                    || colEnd[temperatureCol] > colStart[temperatureCol]);
+            if (!usable) {
+                parse(MappedLineReader.toString(buf, start, end));
+                return;
+            }
+
+            if (readTime) {
+                time = timeParser.parse(buf, colStart[timeCol], colEnd[timeCol]);
+            }
+            x = parseDouble(buf, colStart[xCol], colEnd[xCol]);
+            y = parseDouble(buf, colStart[yCol], colEnd[yCol]);
+            z = parseDouble(buf, colStart[zCol], colEnd[zCol]);
+            if (temperatureCol != NO_TEMPERATURE){
+                temperature = parseDouble(buf, colStart[temperatureCol], colEnd[temperatureCol]);
+            }
+        }
+
+        void parse(String line) {
+            String[] cols = line.split(",");
+            if (readTime) {
+                time = dateTimeToLocalNanos(LocalDateTime.parse(cols[timeCol],
+                        csvTimeFormat));
+            }
+            x = Double.parseDouble(cols[xCol]);
+            y = Double.parseDouble(cols[yCol]);
+            z = Double.parseDouble(cols[zCol]);
+            if (temperatureCol != NO_TEMPERATURE){
+                temperature = Double.parseDouble(cols[temperatureCol]);
+            }
+        }
+    }
+
+
+    /**
+     * Parses CSV timestamps as LocalDateTime.parse(text, csvTimeFormat) does
+     * (returning nanoseconds), reading only the time of day if the rest of the
+     * text is the same as that of the previous timestamp parsed in full.
+     * This fast path is used if csvTimeFormat starts with
+     * "yyyy-MM-dd HH:mm:ss" (or 'T' as separator), optionally followed by
+     * '.' and fraction digits ("S"); anything after that may vary (e.g. the
+     * zone) but must match the previous timestamp.
+    **/
+    static class CsvTimeParser {
+        private static final int DATE_LENGTH = 11; // "yyyy-MM-dd "
+        private static final int TIME_LENGTH = 8; // "HH:mm:ss"
+
+        final DateTimeFormatter csvTimeFormat;
+        int fractionDigits = -1; // in pattern, or -1 if no fast path
+        long fractionScale;
+        // date and suffix (after time of day) text of the last timestamp
+        // parsed in full, and its date
+        byte[] date = new byte[DATE_LENGTH];
+        byte[] suffix = new byte[32];
+        int suffixLength = -1; // -1 if none parsed yet
+        long dateNanos;
+
+        CsvTimeParser(DateTimeFormatter csvTimeFormat) {
+            this.csvTimeFormat = csvTimeFormat;
+            // compare formatter descriptions, as the pattern isn't available
+            String format = csvTimeFormat.toString();
+            for (int n = 9; n >= 0 && fractionDigits < 0; n--) {
+                for (String sep : new String[] { " ", "'T'" }) {
+                    String pattern = "yyyy-MM-dd" + sep + "HH:mm:ss"
+                        + (n > 0 ? ".SSSSSSSSS".substring(0, n + 1) : "");
+                    if (format.startsWith(DateTimeFormatter.ofPattern(pattern).toString())) {
+                        fractionDigits = n;
+                    }
+                }
+            }
+            fractionScale = 1;
+            for (int i = Math.max(fractionDigits, 0); i < 9; i++) {
+                fractionScale *= 10;
+            }
+        }
+
+        long parse(ByteBuffer buf, int start, int end) {
+            int timeStart = start + DATE_LENGTH;
+            int suffixStart = timeStart + TIME_LENGTH
+                + (fractionDigits > 0 ? 1 + fractionDigits : 0);
+            if (suffixLength >= 0 && end - suffixStart == suffixLength
+                    && matches(buf, start, date, DATE_LENGTH)
+                    && matches(buf, suffixStart, suffix, suffixLength)) {
+                long timeOfDay = parseTimeOfDay(buf, timeStart);
+                if (timeOfDay >= 0) {
+                    return dateNanos + timeOfDay;
+                }
+            }
+
+            String text = MappedLineReader.toString(buf, start, end);
+            long time = dateTimeToLocalNanos(LocalDateTime.parse(text, csvTimeFormat));
+            if (fractionDigits >= 0 && end >= suffixStart
+                    && end - suffixStart <= suffix.length) {
+                long timeOfDay = parseTimeOfDay(buf, timeStart);
+                if (timeOfDay >= 0) {
+                    for (int i = 0; i < DATE_LENGTH; i++) {
+                        date[i] = buf.get(start + i);
+                    }
+                    suffixLength = end - suffixStart;
+                    for (int i = 0; i < suffixLength; i++) {
+                        suffix[i] = buf.get(suffixStart + i);
+                    }
+                    dateNanos = time - timeOfDay;
+                    if (Math.floorMod(dateNanos, NANOS_PER_SECOND * 86400) != 0) {
+                        // not the layout expected, so never use the fast path
+                        fractionDigits = -1;
+                        suffixLength = -1;
+                    }
+                }
+            }
+            return time;
+        }
+
+        // nanoseconds since midnight of "HH:mm:ss[.S...]" at pos, or -1 if invalid
+        private long parseTimeOfDay(ByteBuffer buf, int pos) {
+            if (buf.get(pos + 2) != ':' || buf.get(pos + 5) != ':'
+                    || (fractionDigits > 0 && buf.get(pos + 8) != '.')) {
+                return -1;
+            }
+            int hour = twoDigits(buf, pos);
+            int minute = twoDigits(buf, pos + 3);
+            int second = twoDigits(buf, pos + 6);
+            if (hour < 0 || hour > 23 || minute < 0 || minute > 59
+                    || second < 0 || second > 59) {
+                return -1;
+            }
+            long fraction = 0;
+            for (int i = pos + 9; i < pos + 9 + fractionDigits; i++) {
+                int digit = buf.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                fraction = fraction * 10 + digit;
+            }
+            return ((hour * 60L + minute) * 60 + second) * NANOS_PER_SECOND
+                + fraction * fractionScale;
+        }
+
+        private static int twoDigits(ByteBuffer buf, int pos) {
+            int d0 = buf.get(pos) - '0';
+            int d1 = buf.get(pos + 1) - '0';
+            if (d0 < 0 || d0 > 9 || d1 < 0 || d1 > 9) {
+                return -1;
+            }
+            return d0 * 10 + d1;
+        }
+
+        private static boolean matches(ByteBuffer buf, int pos, byte[] bytes, int length) {
+            for (int i = 0; i < length; i++) {
+                if (buf.get(pos + i) != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+
 }
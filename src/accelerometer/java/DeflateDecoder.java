@@ -0,0 +1,479 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+
+
+/**
+ * Decoder for the deflate (RFC 1951) data in a gzip (RFC 1952) file.
+ * Unlike java.util.zip.Inflater it can report the bit offset of every
+ * deflate block boundary, and resume decoding from such an offset given
+ * the preceding 32KB of output. GzipIndex uses this to build and use
+ * random access points, in the same way as zlib's zran.c example.
+ * All file reads are positional, so several decoders can share a channel.
+ */
+public class DeflateDecoder {
+
+    public static final int WINDOW_SIZE = 32768;
+    private static final int WINDOW_MASK = 2 * WINDOW_SIZE - 1;
+    private static final int MAX_BITS = 15;
+    private static final int FAST_BITS = 10; // bits resolved by table lookup
+
+    // length and distance code bases and extra bits
+    private static final short[] LENGTH_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+    private static final short[] LENGTH_EXTRA = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+    private static final short[] DIST_BASE = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+        8193, 12289, 16385, 24577 };
+    private static final short[] DIST_EXTRA = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+        7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+    // order of code length code lengths in a dynamic block header
+    private static final short[] CODE_LENGTH_ORDER = {
+        16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+    private static final Huffman FIXED_LENGTH_CODE;
+    private static final Huffman FIXED_DIST_CODE;
+    static {
+        short[] lengths = new short[288];
+        for (int i = 0; i < 288; i++) {
+            lengths[i] = (short) (i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8);
+        }
+        FIXED_LENGTH_CODE = new Huffman(288);
+        FIXED_DIST_CODE = new Huffman(30);
+        try {
+            FIXED_LENGTH_CODE.build(lengths, 0, 288);
+            java.util.Arrays.fill(lengths, 0, 30, (short) 5);
+            FIXED_DIST_CODE.build(lengths, 0, 30);
+        } catch (DataFormatException excep) {
+            throw new IllegalStateException(excep);
+        }
+    }
+
+
+    /**
+     * Called at the start of each deflate block (see run())
+    **/
+    public interface BlockListener {
+        void blockStart(DeflateDecoder decoder);
+    }
+
+
+    // input
+    private final FileChannel channel;
+    private final long fileSize;
+    private final ByteBuffer inBuf = ByteBuffer.allocate(64 * 1024);
+    private long inBufStart = 0; // file position of inBuf[0]
+    private int padBytes = 0; // zero bytes supplied past end of file
+    private long bitBuf = 0;
+    private int bitCount = 0;
+
+    // output
+    private final byte[] window = new byte[WINDOW_MASK + 1];
+    private long outCount = 0; // total bytes decoded from start of file
+    private long windowStart = 0; // oldest output position held in window
+    private byte[] dest = null;
+    private long destStart = 0;
+    private int destLen = 0;
+    private long stopAt = Long.MAX_VALUE;
+
+    private boolean atMemberStart = true;
+    private final Huffman lengthCode = new Huffman(288);
+    private final Huffman distCode = new Huffman(30);
+    private final short[] lengths = new short[288 + 32];
+
+
+    /**
+     * Decoder for a gzip file, starting at the beginning of the file
+    **/
+    public DeflateDecoder(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        inBuf.limit(0);
+    }
+
+
+    /**
+     * Position the decoder at a deflate block boundary previously reported to
+     * a BlockListener, given the (up to 32KB) output that preceded it.
+    **/
+    public void resume(long bitPosition, long outPosition, byte[] prevOutput) throws IOException {
+        inBufStart = bitPosition >>> 3;
+        inBuf.limit(0);
+        padBytes = 0;
+        bitBuf = 0;
+        bitCount = 0;
+        dropBits((int) (bitPosition & 7));
+        outCount = outPosition;
+        windowStart = outPosition - prevOutput.length;
+        for (int i = 0; i < prevOutput.length; i++) {
+            window[(int) (windowStart + i) & WINDOW_MASK] = prevOutput[i];
+        }
+        atMemberStart = false;
+    }
+
+
+    /**
+     * Decode until the end of the file, calling listener (if not null) at
+     * the start of every deflate block.
+    **/
+    public void run(BlockListener listener) throws IOException, DataFormatException {
+        dest = null;
+        stopAt = Long.MAX_VALUE;
+        decode(listener);
+    }
+
+
+    /**
+     * Decode the output bytes [start, start+len) into dest, returning the
+     * number of bytes copied (less than len only at the end of the file).
+     * Decoding must currently be positioned at or before 'start', and as it
+     * may stop part way through a block, the decoder can't be used again.
+    **/
+    public int read(long start, byte[] dest, int len) throws IOException, DataFormatException {
+        if (start < outCount) {
+            throw new IllegalArgumentException("cannot read backwards");
+        }
+        this.dest = dest;
+        this.destStart = start;
+        this.destLen = len;
+        this.stopAt = start + len;
+        decode(null);
+        this.dest = null;
+        return (int) Math.max(0, Math.min(len, outCount - start));
+    }
+
+
+    // bit offset in the file of the next unread bit
+    public long bitPosition() {
+        return (inBufStart + inBuf.position() + padBytes) * 8 - bitCount;
+    }
+
+
+    // number of bytes decoded from the start of the file
+    public long outPosition() {
+        return outCount;
+    }
+
+
+    // copy of the most recent (up to 32KB) output bytes
+    public byte[] window() {
+        int len = (int) Math.min(WINDOW_SIZE, outCount - windowStart);
+        byte[] copy = new byte[len];
+        for (int i = 0; i < len; i++) {
+            copy[i] = window[(int) (outCount - len + i) & WINDOW_MASK];
+        }
+        return copy;
+    }
+
+
+    private void decode(BlockListener listener) throws IOException, DataFormatException {
+        while (outCount < stopAt) {
+            if (atMemberStart) {
+                if (!readGzipHeader()) {
+                    return; // end of file
+                }
+                atMemberStart = false;
+                windowStart = outCount;
+            }
+            if (listener != null) {
+                listener.blockStart(this);
+            }
+            boolean last = bits(1) == 1;
+            int type = bits(2);
+            if (type == 0) {
+                storedBlock();
+            } else if (type == 1) {
+                codes(FIXED_LENGTH_CODE, FIXED_DIST_CODE);
+            } else if (type == 2) {
+                dynamicTables();
+                codes(lengthCode, distCode);
+            } else {
+                throw new DataFormatException("invalid block type");
+            }
+            if (outCount >= stopAt) {
+                return; // may be part way through a block
+            }
+            if (bitPosition() > fileSize * 8) {
+                throw new EOFException("unexpected end of gzip file");
+            }
+            if (last) {
+                dropBits(bitCount & 7);
+                bits(16); bits(16); // CRC32 (not checked)
+                bits(16); bits(16); // ISIZE
+                if (bitPosition() > fileSize * 8) {
+                    throw new EOFException("unexpected end of gzip file");
+                }
+                atMemberStart = true;
+            }
+        }
+    }
+
+
+    // returns false at end of file (trailing garbage is ignored, as GZIPInputStream does)
+    private boolean readGzipHeader() throws IOException, DataFormatException {
+        if (bitPosition() + 18 * 8 > fileSize * 8) {
+            return false;
+        }
+        if (bits(8) != 0x1f || bits(8) != 0x8b) {
+            return false;
+        }
+        if (bits(8) != 8) {
+            throw new DataFormatException("unsupported compression method");
+        }
+        int flags = bits(8);
+        bits(16); bits(16); // MTIME
+        bits(8); // XFL
+        bits(8); // OS
+        if ((flags & 4) != 0) { // FEXTRA
+            int xlen = bits(16);
+            for (int i = 0; i < xlen; i++) {
+                bits(8);
+            }
+        }
+        if ((flags & 8) != 0) { // FNAME
+            while (bits(8) != 0) { }
+        }
+        if ((flags & 16) != 0) { // FCOMMENT
+            while (bits(8) != 0) { }
+        }
+        if ((flags & 2) != 0) { // FHCRC
+            bits(16);
+        }
+        return true;
+    }
+
+
+    private void storedBlock() throws IOException, DataFormatException {
+        dropBits(bitCount & 7);
+        int len = bits(16);
+        int nlen = bits(16);
+        if (len != (~nlen & 0xffff)) {
+            throw new DataFormatException("invalid stored block length");
+        }
+        for (int i = 0; i < len && outCount < stopAt; i++) {
+            put((byte) bits(8));
+        }
+    }
+
+
+    private void dynamicTables() throws IOException, DataFormatException {
+        int nlen = bits(5) + 257;
+        int ndist = bits(5) + 1;
+        int ncode = bits(4) + 4;
+        if (nlen > 286 || ndist > 30) {
+            throw new DataFormatException("too many length or distance codes");
+        }
+        java.util.Arrays.fill(lengths, 0, 19, (short) 0);
+        for (int i = 0; i < ncode; i++) {
+            lengths[CODE_LENGTH_ORDER[i]] = (short) bits(3);
+        }
+        Huffman codeLengthCode = new Huffman(19);
+        codeLengthCode.build(lengths, 0, 19);
+
+        int index = 0;
+        while (index < nlen + ndist) {
+            int symbol = decodeSymbol(codeLengthCode);
+            if (symbol < 16) {
+                lengths[index++] = (short) symbol;
+            } else {
+                short len = 0;
+                int repeat;
+                if (symbol == 16) {
+                    if (index == 0) {
+                        throw new DataFormatException("repeat with no first length");
+                    }
+                    len = lengths[index - 1];
+                    repeat = 3 + bits(2);
+                } else if (symbol == 17) {
+                    repeat = 3 + bits(3);
+                } else {
+                    repeat = 11 + bits(7);
+                }
+                if (index + repeat > nlen + ndist) {
+                    throw new DataFormatException("too many lengths");
+                }
+                while (repeat-- > 0) {
+                    lengths[index++] = len;
+                }
+            }
+        }
+        if (lengths[256] == 0) {
+            throw new DataFormatException("no end-of-block code");
+        }
+        lengthCode.build(lengths, 0, nlen);
+        distCode.build(lengths, nlen, ndist);
+    }
+
+
+    private void codes(Huffman lencode, Huffman distcode) throws IOException, DataFormatException {
+        while (outCount < stopAt) {
+            int symbol = decodeSymbol(lencode);
+            if (symbol < 256) {
+                put((byte) symbol);
+            } else if (symbol == 256) {
+                return;
+            } else {
+                symbol -= 257;
+                if (symbol >= 29) {
+                    throw new DataFormatException("invalid length symbol");
+                }
+                int len = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+                symbol = decodeSymbol(distcode);
+                if (symbol >= 30) {
+                    throw new DataFormatException("invalid distance symbol");
+                }
+                int dist = DIST_BASE[symbol] + bits(DIST_EXTRA[symbol]);
+                if (dist > outCount - windowStart) {
+                    throw new DataFormatException("distance too far back");
+                }
+                for (int i = 0; i < len; i++) {
+                    put(window[(int) (outCount - dist) & WINDOW_MASK]);
+                }
+            }
+        }
+    }
+
+
+    private void put(byte b) {
+        window[(int) outCount & WINDOW_MASK] = b;
+        if (dest != null) {
+            long i = outCount - destStart;
+            if (i >= 0 && i < destLen) {
+                dest[(int) i] = b;
+            }
+        }
+        outCount++;
+        if (outCount - windowStart > WINDOW_SIZE) {
+            windowStart = outCount - WINDOW_SIZE;
+        }
+    }
+
+
+    private int decodeSymbol(Huffman h) throws IOException, DataFormatException {
+        need(MAX_BITS);
+        int entry = h.fast[(int) bitBuf & ((1 << FAST_BITS) - 1)];
+        if (entry != 0) {
+            dropBits(entry & 15);
+            return entry >>> 4;
+        }
+        // codes longer than FAST_BITS: canonical decode, one bit at a time
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for (int len = 1; len <= MAX_BITS; len++) {
+            code |= (int) (bitBuf >>> (len - 1)) & 1;
+            int count = h.count[len];
+            if (code - count < first) {
+                dropBits(len);
+                return h.symbol[index + (code - first)];
+            }
+            index += count;
+            first += count;
+            first <<= 1;
+            code <<= 1;
+        }
+        throw new DataFormatException("invalid Huffman code");
+    }
+
+
+    private int bits(int n) throws IOException {
+        need(n);
+        int value = (int) (bitBuf & ((1L << n) - 1));
+        dropBits(n);
+        return value;
+    }
+
+
+    private void dropBits(int n) throws IOException {
+        need(n);
+        bitBuf >>>= n;
+        bitCount -= n;
+    }
+
+
+    private void need(int n) throws IOException {
+        while (bitCount < n) {
+            if (!inBuf.hasRemaining()) {
+                inBufStart += inBuf.limit();
+                inBuf.clear();
+                int len = inBufStart < fileSize ? channel.read(inBuf, inBufStart) : -1;
+                inBuf.flip();
+                if (len <= 0) {
+                    // past end of file: supply zeros, so peeking ahead works,
+                    // and let the caller check bitPosition()
+                    if (padBytes > 8) {
+                        throw new EOFException("unexpected end of gzip file");
+                    }
+                    padBytes++;
+                    bitCount += 8;
+                    continue;
+                }
+            }
+            bitBuf |= (long) (inBuf.get() & 0xff) << bitCount;
+            bitCount += 8;
+        }
+    }
+
+
+    /**
+     * Canonical Huffman code, with a lookup table for codes up to FAST_BITS
+    **/
+    private static class Huffman {
+        final short[] count = new short[MAX_BITS + 1];
+        final short[] symbol;
+        // (symbol << 4 | length) indexed by the next FAST_BITS input bits, 0 if longer
+        final int[] fast = new int[1 << FAST_BITS];
+        private final short[] offsets = new short[MAX_BITS + 2];
+
+        Huffman(int maxSymbols) {
+            symbol = new short[maxSymbols];
+        }
+
+        void build(short[] lengths, int off, int n) throws DataFormatException {
+            java.util.Arrays.fill(count, (short) 0);
+            for (int s = 0; s < n; s++) {
+                count[lengths[off + s]]++;
+            }
+            int left = 1;
+            for (int len = 1; len <= MAX_BITS; len++) {
+                left <<= 1;
+                left -= count[len];
+                if (left < 0) {
+                    throw new DataFormatException("over-subscribed Huffman code");
+                }
+            }
+            offsets[1] = 0;
+            for (int len = 1; len < MAX_BITS; len++) {
+                offsets[len + 1] = (short) (offsets[len] + count[len]);
+            }
+            for (int s = 0; s < n; s++) {
+                if (lengths[off + s] != 0) {
+                    symbol[offsets[lengths[off + s]]++] = (short) s;
+                }
+            }
+
+            java.util.Arrays.fill(fast, 0);
+            int code = 0;
+            int index = 0;
+            for (int len = 1; len <= FAST_BITS; len++) {
+                for (int i = 0; i < count[len]; i++) {
+                    int reversed = Integer.reverse(code) >>> (32 - len);
+                    int entry = (symbol[index++] << 4) | len;
+                    for (int j = reversed; j < (1 << FAST_BITS); j += 1 << len) {
+                        fast[j] = entry;
+                    }
+                    code++;
+                }
+                code <<= 1;
+            }
+        }
+    }
+
+}
@@ -11,12 +11,24 @@ import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.time.format.DateTimeFormatter;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
 import java.time.zone.ZoneRules;
 import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -33,18 +45,36 @@ public class DeviceReader {
 
     protected static int timeShift = 0;
 
+    protected static final long NANOS_PER_SECOND = 1000000000L;
+    protected static final long NANOS_PER_MILLI = 1000000L;
+    private static final long NANOS_PER_HOUR = 3600 * NANOS_PER_SECOND;
+    private static final long NANOS_PER_DAY = 24 * NANOS_PER_HOUR;
+    private static final int[] DAYS_IN_MONTH = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+    // Local times (see dateTimeToLocalNanos) where the DST-corrected UTC
+    // offset may change, and the offset (nanos) to subtract from local times
+    // from there until the next entry, or UNKNOWN_SHIFT if it isn't constant.
+    // Covers the year before to years after the session start.
+    private static volatile long[] dstTableStart = null;
+    private static long[] dstTableShift = null;
+    private static final long UNKNOWN_SHIFT = Long.MIN_VALUE;
+    private static final int DST_TABLE_YEARS = 10;
+
 
     public static EpochWriter setupEpochWriter(
         String outputFile,
         boolean useFilter,
+        boolean sosFilter,
         boolean rawOutput,
         String rawFile,
         boolean npyOutput,
         String npyFile,
-        boolean getFeatures,
+        FeatureSet features,
+        int epochThreads,
         DateTimeFormatter timeFormat,
         String timeZone,
         int epochPeriod,
+        int epochHop,
         int sampleRate,
         String resampleMethod,
         int range,
@@ -72,7 +102,7 @@ public class DeviceReader {
         }
         LowpassFilter filter = null;
         if (useFilter) {
-            filter = new LowpassFilter(20, sampleRate, verbose);
+            filter = new LowpassFilter(20, sampleRate, sosFilter, verbose);
         }
         if (rawOutput) {
             if (rawFile.trim().length() == 0) {
@@ -97,6 +127,7 @@ public class DeviceReader {
                   timeFormat,
                   timeZone,
                   epochPeriod,
+                  epochHop,
                   sampleRate,
                   resampleMethod,
                   range,
@@ -108,7 +139,8 @@ public class DeviceReader {
                   filter,
                   startTime,
                   endTime,
-                  getFeatures);
+                  features,
+                  epochThreads);
         } catch (IOException excep) {
             excep.printStackTrace(System.err);
             System.err.println("error closing file writer: " + excep.toString());
@@ -146,6 +178,63 @@ public class DeviceReader {
     }
 
 
+    // powers of ten that are exactly representable as doubles
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+
+    /**
+     * Same as Double.parseDouble() of the ASCII text buf[start, end), but
+     * without creating a String for plain decimals (e.g. "-0.0123") of up to
+     * 15 significant digits. These are exact, as both the digits and the
+     * power of ten are exactly representable, and their quotient is
+     * correctly rounded. Anything else is passed to Double.parseDouble().
+    **/
+    protected static double parseDouble(ByteBuffer buf, int start, int end) {
+        int i = start;
+        int last = end;
+        while (i < last && buf.get(i) <= ' ') {
+            i++;
+        }
+        while (last > i && buf.get(last - 1) <= ' ') {
+            last--;
+        }
+        boolean negative = false;
+        if (i < last && (buf.get(i) == '-' || buf.get(i) == '+')) {
+            negative = buf.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int sigDigits = 0;
+        int fractionDigits = 0;
+        boolean anyDigits = false;
+        boolean seenPoint = false;
+        for (; i < last; i++) {
+            byte c = buf.get(i);
+            if (c >= '0' && c <= '9') {
+                anyDigits = true;
+                if (mantissa != 0 || c != '0') {
+                    sigDigits++;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (seenPoint) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (i < last || !anyDigits || sigDigits > 15 || fractionDigits >= POW10.length) {
+            return Double.parseDouble(MappedLineReader.toString(buf, start, end));
+        }
+        double value = fractionDigits == 0 ? mantissa : mantissa / POW10[fractionDigits];
+        return negative ? -value : value;
+    }
+
+
     // credit for next 2 methods goes to:
     // http://stackoverflow.com/questions/9883472/is-it-possiable-to-have-an-unsigned-bytebuffer-in-java
     protected static long getUnsignedInt(ByteBuffer bb, int position) {
@@ -175,12 +264,14 @@ public class DeviceReader {
         DeviceReader.zoneId = ZoneId.of(timeZone);
         DeviceReader.rules = zoneId.getRules();
         DeviceReader.timeShift = timeShift;
+        DeviceReader.dstTableStart = null;
     }
 
 
     protected static void setSessionStart(LocalDateTime ldt) {
         DeviceReader.sessionStart = ldt.atZone(zoneId);
         DeviceReader.sessionStartDST = rules.isDaylightSavings(sessionStart.toInstant());
+        buildDstTable();
     }
 
 
@@ -194,4 +285,158 @@ public class DeviceReader {
     }
 
 
+    /**
+     * Unix time (nanos) of a local time given in nanos by
+     * dateTimeToLocalNanos(), with the same DST correction as
+     * zonedWithDSTCorrection(), but without allocating any objects for times
+     * covered by the session's DST table.
+    **/
+    protected static long localNanosToEpochNanos(long localNanos) {
+        long[] tableStart = dstTableStart;
+        if (tableStart != null) {
+            int i = Arrays.binarySearch(tableStart, localNanos);
+            if (i < 0) {
+                i = -i - 2;
+            }
+            // last entry marks the end of the table
+            if (i >= 0 && i < tableStart.length - 1 && dstTableShift[i] != UNKNOWN_SHIFT) {
+                return localNanos - dstTableShift[i];
+            }
+        }
+        return zonedNanos(localNanos);
+    }
+
+
+    // local date time as nanoseconds since 1970-01-01T00:00 (no time zone)
+    protected static long dateTimeToLocalNanos(LocalDateTime ldt) {
+        return ldt.toEpochSecond(ZoneOffset.UTC) * NANOS_PER_SECOND + ldt.getNano();
+    }
+
+
+    protected static LocalDateTime localNanosToDateTime(long localNanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(localNanos, NANOS_PER_SECOND),
+            (int) Math.floorMod(localNanos, NANOS_PER_SECOND), ZoneOffset.UTC);
+    }
+
+
+    protected static long instantToNanos(Instant instant) {
+        return instant.getEpochSecond() * NANOS_PER_SECOND + instant.getNano();
+    }
+
+
+    // days since 1970-01-01 of a (valid) date, see
+    // http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+    protected static long epochDay(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+
+    protected static int daysInMonth(int year, int month) {
+        if (month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))) {
+            return 29;
+        }
+        return DAYS_IN_MONTH[month - 1];
+    }
+
+
+    /**
+     * Tabulate the offset zonedWithDSTCorrection() applies to local times.
+     * The offset can only change where the zone offset (of the local time,
+     * or of the local time + 1 hour) or the DST flag changes, i.e. at each
+     * transition's local times before/after, and one hour before those.
+     * Each interval is checked at both ends (and middle) against
+     * zonedWithDSTCorrection(), and marked UNKNOWN_SHIFT if they differ.
+    **/
+    private static void buildDstTable() {
+        long sessionLocal = dateTimeToLocalNanos(sessionStart.toLocalDateTime());
+        long from = sessionLocal - 366 * NANOS_PER_DAY;
+        long to = sessionLocal + DST_TABLE_YEARS * 366 * NANOS_PER_DAY;
+
+        TreeSet<Long> breaks = new TreeSet<Long>();
+        breaks.add(from);
+        breaks.add(to);
+        Instant instant = sessionStart.toInstant().minusSeconds(367 * 24 * 3600L);
+        ZoneOffsetTransition transition;
+        while ((transition = rules.nextTransition(instant)) != null) {
+            long before = dateTimeToLocalNanos(transition.getDateTimeBefore());
+            long after = dateTimeToLocalNanos(transition.getDateTimeAfter());
+            if (Math.min(before, after) - NANOS_PER_HOUR > to) {
+                break;
+            }
+            for (long local : new long[] { before, after,
+                    before - NANOS_PER_HOUR, after - NANOS_PER_HOUR }) {
+                if (local > from && local < to) {
+                    breaks.add(local);
+                }
+            }
+            instant = transition.getInstant();
+        }
+
+        long[] tableStart = new long[breaks.size()];
+        long[] tableShift = new long[breaks.size()];
+        int n = 0;
+        for (long local : breaks) {
+            tableStart[n++] = local;
+        }
+        for (int i = 0; i < n - 1; i++) {
+            long start = tableStart[i];
+            long end = tableStart[i + 1] - 1;
+            long shift = start - zonedNanos(start);
+            if (shift != end - zonedNanos(end)
+                    || shift != (start + end) / 2 - zonedNanos((start + end) / 2)) {
+                shift = UNKNOWN_SHIFT;
+            }
+            tableShift[i] = shift;
+        }
+        tableShift[n - 1] = UNKNOWN_SHIFT;
+        dstTableShift = tableShift;
+        dstTableStart = tableStart;
+    }
+
+
+    private static long zonedNanos(long localNanos) {
+        return instantToNanos(zonedWithDSTCorrection(localNanosToDateTime(localNanos)).toInstant());
+    }
+
+
+    /**
+     * Run tasks on a pool of numThreads worker threads, passing each result
+     * to the consumer (on the calling thread) in the order the tasks were
+     * supplied. At most 2*numThreads tasks are in flight at once, so the
+     * number of decoded-but-unconsumed results stays bounded.
+    **/
+    protected static <T> void decodeInOrder(
+        int numThreads,
+        Iterator<Callable<T>> tasks,
+        Consumer<T> consumer) throws Exception {
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<T>> pending = new ArrayDeque<Future<T>>();
+        try {
+            while (tasks.hasNext() || !pending.isEmpty()) {
+                while (tasks.hasNext() && pending.size() < 2 * numThreads) {
+                    pending.add(pool.submit(tasks.next()));
+                }
+                try {
+                    consumer.accept(pending.poll().get());
+                } catch (ExecutionException excep) {
+                    Throwable cause = excep.getCause();
+                    throw (cause instanceof Exception) ? (Exception) cause : excep;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
 }
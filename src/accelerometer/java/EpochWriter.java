@@ -11,36 +11,60 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.time.zone.ZoneRulesProvider;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 public class EpochWriter {
 
-	private static final DecimalFormatSymbols decimalFormatSymbol = new DecimalFormatSymbols(Locale.ENGLISH);
-	private static DecimalFormat DF6 = new DecimalFormat("0.000000", decimalFormatSymbol);
-	private static DecimalFormat DF3 = new DecimalFormat("0.000", decimalFormatSymbol);
-	private static DecimalFormat DF2 = new DecimalFormat("0.00", decimalFormatSymbol);
+	// (DecimalFormat isn't thread-safe, so each thread has its own)
+	private static final ThreadLocal<DecimalFormat> DF6 = ThreadLocal.withInitial(
+		() -> newDecimalFormat("0.000000", RoundingMode.CEILING));
+	private static final ThreadLocal<DecimalFormat> DF3 = ThreadLocal.withInitial(
+		() -> newDecimalFormat("0.000", RoundingMode.HALF_UP)); // To match mHealth Gt3x implementation
+	private static final ThreadLocal<DecimalFormat> DF2 = ThreadLocal.withInitial(
+		() -> newDecimalFormat("0.00", RoundingMode.CEILING));
 	private final long UNUSED_DATE = -1;
 
 	// Storage variables setup:
 	// store x/y/z values to pass into epochWriter
-	private List<Long> timeVals = new ArrayList<Long>(); // offset into the epoch in milliseconds
-	private List<Double> xVals = new ArrayList<Double>();
-	private List<Double> yVals = new ArrayList<Double>();
-	private List<Double> zVals = new ArrayList<Double>();
-	private List<Double> temperatureVals = new ArrayList<Double>();
+	// (reused for every epoch, and grown as needed)
+	private long[] timeVals = new long[1024]; // offset into the epoch in nanoseconds
+	private double[] xVals = new double[1024];
+	private double[] yVals = new double[1024];
+	private double[] zVals = new double[1024];
+	private double[] temperatureVals = new double[1024];
+	private int numVals = 0; // values stored for the current epoch
 	private final int minSamplesForEpoch = 10;
 
 	private long prevTimeVal = -1;
-	private double[] prevXYZT = { -1, -1, -1, -1 }; // x/y/z/temp at prevTimeVal
+	// x/y/z/temp at prevTimeVal
+	private double prevX = -1;
+	private double prevY = -1;
+	private double prevZ = -1;
+	private double prevTemperature = -1;
 	private boolean edgeInterpolation = true;
 
 	// parameters to be initialised
-	private long epochStartTime = UNUSED_DATE; // start point of current epoch (in milliseconds from 1970 epoch)
+	private long epochStartTime = UNUSED_DATE; // start point of current epoch (in nanoseconds from 1970 epoch)
 	private int epochPeriod; // duration of epoch (seconds)
+	private long epochPeriodNanos;
+	// time between the starts of successive epochs (seconds), which overlap
+	// if less than epochPeriod. Values are collected, resampled and written
+	// to rawOutput in runs of this length (so the current "epoch" while
+	// collecting values is really the current run)
+	private int epochHop;
+	private long epochHopNanos;
     private DateTimeFormatter timeFormat;
     private String timeZone;
 	private boolean getStationaryBouts;
@@ -52,9 +76,46 @@ public class EpochWriter {
     private String resampleMethod;
 	private int range;
 	private Filter filter;
-	private long startTime; // milliseconds since epoch
+	private long startTime; // nanoseconds since epoch
 	private long endTime;
-	private boolean getFeatures;
+	private FeatureSet features; // feature columns to output, or null for none
+	// resampled epoch (reused for every epoch)
+	private long[] timeResampled; // offset into the epoch in nanoseconds
+	private double[] xResampled;
+	private double[] yResampled;
+	private double[] zResampled;
+
+	// the epoch summarised on the reader's thread (if epochPool is null)
+	private final Epoch serialEpoch = new Epoch();
+	// the last epochPeriod/epochHop runs, oldest (firstHopRun) first, if
+	// epochs overlap (else null)
+	private HopRun[] hopRuns = null;
+	private int firstHopRun = 0;
+	private int numHopRuns = 0;
+	// the resampled values of the current overlapping epoch, i.e. of its
+	// runs one after the other, and their rolling medians (if needed for
+	// the features)
+	private double[] hopX, hopY, hopZ, hopEnmoTrunc;
+	private double[][] hopRollingMedians;
+	// threads that summarise epochs in parallel (null if epochThreads <= 1),
+	// and the epochs they are working on, in time order, to be written
+	private int epochThreads;
+	private ExecutorService epochPool = null;
+	private ArrayDeque<CompletableFuture<Epoch>> pendingEpochs = new ArrayDeque<>();
+	// the last epoch submitted, once it has been through the filter
+	private CompletableFuture<Epoch> lastFiltered = CompletableFuture.completedFuture(null);
+
+	// other writers (e.g. with other epoch settings) that are given the same
+	// values as this one, each with its own errCounter, and the threads that
+	// give them blocks of values
+	private List<EpochWriter> siblings = new ArrayList<>();
+	private List<int[]> siblingErrCounters = new ArrayList<>();
+	private ExecutorService siblingPool = null;
+	private List<Future<?>> siblingTasks = new ArrayList<>();
+	// errCounter after the last values were passed on to the siblings
+	private int errCountPassed = 0;
+	private boolean isSibling = false;
+	private boolean reachedEndTime = false;
 
 	// file read/write objects
 	private BufferedWriter epochFileWriter;
@@ -71,6 +132,7 @@ public class EpochWriter {
               DateTimeFormatter timeFormat,
               String timeZone,
 		      int epochPeriod,
+		      int epochHop,
 		      int intendedSampleRate,
               String resampleMethod,
 		      int range,
@@ -82,13 +144,17 @@ public class EpochWriter {
 		      Filter filter,
 		      long startTime,
 		      long endTime,
-		      boolean getFeatures)
+		      FeatureSet features,
+		      int epochThreads)
     {
 		this.epochFileWriter = epochFileWriter;
 		this.rawWriter = rawWriter;
 		this.npyWriter = npyWriter;
 		this.timeFormat = timeFormat;
 		this.epochPeriod = epochPeriod;
+		this.epochPeriodNanos = TimeUnit.SECONDS.toNanos(epochPeriod);
+		this.epochHop = (epochHop > 0) ? epochHop : epochPeriod;
+		this.epochHopNanos = TimeUnit.SECONDS.toNanos(this.epochHop);
 		this.intendedSampleRate = intendedSampleRate;
         this.resampleMethod = resampleMethod;
 		this.range = range;
@@ -98,25 +164,37 @@ public class EpochWriter {
 		this.getStationaryBouts = getStationaryBouts;
 		this.stationaryStd = stationaryStd;
 		this.filter = filter;
-		this.startTime = startTime;
-		this.endTime = endTime;
-		this.getFeatures = getFeatures;
-
-        this.zoneId = ZoneId.of(timeZone);
+		// startTime and endTime are given in milliseconds
+		this.startTime = startTime == UNUSED_DATE ? UNUSED_DATE : TimeUnit.MILLISECONDS.toNanos(startTime);
+		this.endTime = endTime == UNUSED_DATE ? UNUSED_DATE : TimeUnit.MILLISECONDS.toNanos(endTime);
+		this.features = features;
+		this.epochThreads = epochThreads;
+		if (this.epochHop != epochPeriod) {
+			hopRuns = new HopRun[epochPeriod / this.epochHop];
+		}
+		if (epochThreads > 1) {
+			epochPool = Executors.newFixedThreadPool(epochThreads, r -> {
+				Thread thread = new Thread(r, "epoch");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
 
-		// NaN's and infinity normally display as non-ASCII characters
-		decimalFormatSymbol.setNaN("NaN");
-		decimalFormatSymbol.setInfinity("inf");
-		DF6.setDecimalFormatSymbols(decimalFormatSymbol);
-		DF3.setDecimalFormatSymbols(decimalFormatSymbol);
-		DF2.setDecimalFormatSymbols(decimalFormatSymbol);
+		// resample values to epochSec (or epochHop) * (intended) sampleRate
+		timeResampled = new long[this.epochHop * (int) intendedSampleRate];
+		xResampled = new double[timeResampled.length];
+		yResampled = new double[timeResampled.length];
+		zResampled = new double[timeResampled.length];
+		for (int i = 0; i < timeResampled.length; i++) {
+			// resampled times stay on a millisecond grid (as written to rawOutput)
+			timeResampled[i] = TimeUnit.MILLISECONDS.toNanos(
+				Math.round((this.epochHop * 1000d * i) / timeResampled.length));
+		}
 
-		DF6.setRoundingMode(RoundingMode.CEILING);
-		DF3.setRoundingMode(RoundingMode.HALF_UP); // To match mHealth Gt3x implementation
-        DF2.setRoundingMode(RoundingMode.CEILING);
+        this.zoneId = ZoneId.of(timeZone);
 
 		String epochHeader = "time";
-		epochHeader += "," + AccStats.getStatsHeader(getFeatures);
+		epochHeader += "," + AccStats.getStatsHeader(features);
     	epochHeader += ",temp,samples";
 		epochHeader += ",dataErrors,clipsBeforeCalibr,clipsAfterCalibr,rawSamples";
 
@@ -131,13 +209,123 @@ public class EpochWriter {
 	// Method which accepts raw values and writes them to an epoch (when enough values collected)
 	// Returns true to continue processing, or false if endTime has been reached
 	public boolean newValues(
-			long time, // Unix time (milliseconds)
+			long time, // Unix time (nanoseconds)
 			double x,
 			double y,
 			double z,
 			double temperature,
 			int[] errCounter) {
 
+		if (siblings.isEmpty()) {
+			return writeValue(time, x, y, z, temperature, errCounter);
+		}
+		// siblings first, so that they have all the values if this writer
+		// reaches endTime
+		passErrorsToSiblings(errCounter);
+		for (int k = 0; k < siblings.size(); k++) {
+			siblings.get(k).writeValue(time, x, y, z, temperature, siblingErrCounters.get(k));
+		}
+		boolean more = writeValue(time, x, y, z, temperature, errCounter);
+		errCountPassed = errCounter[0];
+		return more;
+	}
+
+
+	// Method which accepts a block of raw values (samples from..to-1 of the
+	// arrays), with the same result as passing each to newValues() above.
+	// The siblings are given the block in parallel with this writer.
+	public boolean newValues(
+			long[] time, // Unix time (nanoseconds)
+			double[] x,
+			double[] y,
+			double[] z,
+			double[] temperature,
+			int from,
+			int to,
+			int[] errCounter) {
+
+		if (siblings.isEmpty()) {
+			writeValues(time, x, y, z, temperature, from, to, errCounter);
+			return true;
+		}
+		passErrorsToSiblings(errCounter);
+		if (siblingPool == null) {
+			siblingPool = Executors.newFixedThreadPool(siblings.size(), r -> {
+				Thread thread = new Thread(r, "epoch-writer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		for (int k = 0; k < siblings.size(); k++) {
+			EpochWriter sibling = siblings.get(k);
+			int[] siblingErrCounter = siblingErrCounters.get(k);
+			siblingTasks.add(siblingPool.submit(() -> sibling.writeValues(
+				time, x, y, z, temperature, from, to, siblingErrCounter)));
+		}
+		writeValues(time, x, y, z, temperature, from, to, errCounter);
+		errCountPassed = errCounter[0];
+		waitForSiblings();
+		return true;
+	}
+
+
+	/**
+	 * Give all values passed to this writer to another one as well, e.g. to
+	 * write epochs of another length from the same file, which is only read
+	 * once. The sibling is closed by this writer's closeWriters(), and stops
+	 * at endTime for this writer to end processing.
+	 */
+	public void addSibling(EpochWriter sibling) {
+		sibling.isSibling = true;
+		siblings.add(sibling);
+		siblingErrCounters.add(new int[] { 0 });
+	}
+
+
+	// add the errors counted since the last values to the siblings' counts
+	private void passErrorsToSiblings(int[] errCounter) {
+		int newErrors = errCounter[0] - errCountPassed;
+		for (int[] siblingErrCounter : siblingErrCounters) {
+			siblingErrCounter[0] += newErrors;
+		}
+	}
+
+
+	// wait for the siblings to finish the block of values they were given
+	private void waitForSiblings() {
+		try {
+			for (Future<?> task : siblingTasks) {
+				task.get();
+			}
+		} catch (ExecutionException excep) {
+			Throwable cause = excep.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		} catch (InterruptedException excep) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(excep);
+		} finally {
+			siblingTasks.clear();
+		}
+	}
+
+
+	private boolean writeValue(
+			long time, // Unix time (nanoseconds)
+			double x,
+			double y,
+			double z,
+			double temperature,
+			int[] errCounter) {
+
+		if (reachedEndTime) {
+			return false;
+		}
 		if (startTime!=UNUSED_DATE && time<startTime) {
 			return true;
 		}
@@ -149,13 +337,13 @@ public class EpochWriter {
 				// if -startTime option is set, ensure that the first epoch would start at that time
 				epochStartTime = startTime;
 				int numSkipped = 0;
-				while(epochStartTime + epochPeriod * 1000 < time) {
-					epochStartTime += epochPeriod * 1000;
+				while(epochStartTime + epochHopNanos < time) {
+					epochStartTime += epochHopNanos;
 					numSkipped++;
 				}
 				System.out.println("first epochtime set to startTime" +
 				 	(numSkipped>0 ? " + " + numSkipped + " epochs" : "") +
-				 	" at " + millisToZonedDateTime(epochStartTime));
+				 	" at " + nanosToZonedDateTime(epochStartTime));
 			}
 		}
 
@@ -164,66 +352,60 @@ public class EpochWriter {
 			return true;
 		}
 		// check for large discontinuities in time intervals
-		if (time-prevTimeVal >= epochPeriod * 2 * 1000 && prevTimeVal != UNUSED_DATE) {
+		if (time-prevTimeVal >= epochPeriodNanos * 2 && prevTimeVal != UNUSED_DATE) {
 			System.err.println(
-                "Interrupt of length: " + (time-prevTimeVal)/1000.0 + "s, at epoch "
-                + millisToZonedDateTime(epochStartTime) + " \n from: "
-                + millisToZonedDateTime(prevTimeVal) + "\n to  : "
-                + millisToZonedDateTime(time)
+                "Interrupt of length: " + (time-prevTimeVal)/1e9 + "s, at epoch "
+                + nanosToZonedDateTime(epochStartTime) + " \n from: "
+                + nanosToZonedDateTime(prevTimeVal) + "\n to  : "
+                + nanosToZonedDateTime(time)
             );
 			// log that an error occurred, and write epoch with previous values
 			errCounter[0] += 1;
-			if (timeVals.size()>minSamplesForEpoch) {
-				writeEpochSummary(millisToZonedDateTime(epochStartTime), timeVals,
-				// writeEpochSummary(millisToInstant(epochStartTime), timeVals,
-					xVals, yVals, zVals, temperatureVals, errCounter);
+			if (numVals>minSamplesForEpoch) {
+				writeEpochSummary(nanosToZonedDateTime(epochStartTime), errCounter);
 			} else {
 				System.err.println("not enough samples for an epoch.. discarding " +
-					timeVals.size()+" samples");
-				timeVals.clear();
-				xVals.clear();
-				yVals.clear();
-				zVals.clear();
-				temperatureVals.clear();
+					numVals+" samples");
+				numVals = 0;
 				errCounter[0] = 0;
 			}
 			// epoch times must be at regular (epochPeriod) intervals, so move forward
-			while (epochStartTime<time-epochPeriod*1000) {
-				epochStartTime += epochPeriod * 1000;
+			while (epochStartTime<time-epochHopNanos) {
+				epochStartTime += epochHopNanos;
 			}
 
         }
 
 		// check to see if we have collected enough values to form an epoch
-		if (time-epochStartTime >= epochPeriod * 1000 && xVals.size() > minSamplesForEpoch) {
+		if (time-epochStartTime >= epochHopNanos && numVals > minSamplesForEpoch) {
 			if (edgeInterpolation) {
 				// this code adds the last sample of the next epoch so we can
 				//correctly interpolate to the edges
-				timeVals.add(time - epochStartTime);
-				xVals.add(x);
-				yVals.add(y);
-				zVals.add(z);
-				temperatureVals.add(temperature);
+				addValue(time - epochStartTime, x, y, z, temperature);
 			}
-			writeEpochSummary(millisToZonedDateTime(epochStartTime), timeVals,
-			// writeEpochSummary(millisToInstant(epochStartTime), timeVals,
-				xVals, yVals, zVals, temperatureVals, errCounter);
+			writeEpochSummary(nanosToZonedDateTime(epochStartTime), errCounter);
 
-			epochStartTime = epochStartTime + epochPeriod * 1000;
+			epochStartTime = epochStartTime + epochHopNanos;
 
 			if (edgeInterpolation) {
 				// this code adds the first sample of the previous epoch so we
 				//can correctly interpolate to the edges
-				timeVals.add(prevTimeVal - epochStartTime);
-				xVals.add(prevXYZT[0]);
-				yVals.add(prevXYZT[1]);
-				zVals.add(prevXYZT[2]);
-				temperatureVals.add(prevXYZT[3]);
+				addValue(prevTimeVal - epochStartTime, prevX, prevY, prevZ, prevTemperature);
 			}
 		}
 		if (endTime!=UNUSED_DATE && time>endTime) {
+			if (isSibling) {
+				// the writer this is a sibling of ends processing
+				reachedEndTime = true;
+				return false;
+			}
 			System.out.println("reached endTime at sample:" +
-                millisToZonedDateTime(time));
+                nanosToZonedDateTime(time));
+			finishEpochs();
+			waitForSiblings();
+			for (EpochWriter sibling : siblings) {
+				sibling.closeWriters();
+			}
 			try {
 				if (epochFileWriter!=null) epochFileWriter.close();
 				if (rawWriter!=null) rawWriter.close();
@@ -234,161 +416,719 @@ public class EpochWriter {
 			System.exit(0); // end processing
 		}
 		// store axes + vector magnitude vals for every reading
-		timeVals.add(time - epochStartTime);
-		xVals.add(x);
-		yVals.add(y);
-		zVals.add(z);
-		temperatureVals.add(temperature);
+		addValue(time - epochStartTime, x, y, z, temperature);
 		prevTimeVal = time;
-		prevXYZT = new double[]{x, y, z, temperature};
+		prevX = x;
+		prevY = y;
+		prevZ = z;
+		prevTemperature = temperature;
 		return true;
 	}
 
 
+	// Block version of writeValue(): runs of samples that are in time order,
+	// without an interrupt, and before the end of the current epoch (and
+	// endTime) are simply added to the epoch; only the sample after each such
+	// run goes through writeValue().
+	private void writeValues(
+			long[] time, // Unix time (nanoseconds)
+			double[] x,
+			double[] y,
+			double[] z,
+			double[] temperature,
+			int from,
+			int to,
+			int[] errCounter) {
+
+		if (reachedEndTime) {
+			return;
+		}
+		int i = from;
+		while (i < to) {
+			if (epochStartTime==UNUSED_DATE || prevTimeVal==UNUSED_DATE) {
+				writeValue(time[i], x[i], y[i], z[i], temperature[i], errCounter);
+				i++;
+				continue;
+			}
+			// last time that can be added without checks
+			long lastTime = epochStartTime + epochHopNanos - 1;
+			if (endTime!=UNUSED_DATE && endTime<lastTime) {
+				lastTime = endTime;
+			}
+			long maxInterval = epochPeriodNanos * 2;
+			long prev = prevTimeVal;
+			int end = i;
+			while (end < to) {
+				long t = time[end];
+				if (t<prev || t>lastTime || t-prev>=maxInterval) {
+					break;
+				}
+				prev = t;
+				end++;
+			}
+			if (end > i) {
+				int count = end - i;
+				ensureCapacity(numVals + count);
+				for (int j = i; j < end; j++) {
+					timeVals[numVals + j - i] = time[j] - epochStartTime;
+				}
+				System.arraycopy(x, i, xVals, numVals, count);
+				System.arraycopy(y, i, yVals, numVals, count);
+				System.arraycopy(z, i, zVals, numVals, count);
+				System.arraycopy(temperature, i, temperatureVals, numVals, count);
+				numVals += count;
+				int last = end - 1;
+				prevTimeVal = time[last];
+				prevX = x[last];
+				prevY = y[last];
+				prevZ = z[last];
+				prevTemperature = temperature[last];
+			}
+			if (end < to) {
+				writeValue(time[end], x[end], y[end], z[end], temperature[end], errCounter);
+				end++;
+			}
+			i = end;
+		}
+	}
+
+
+	private void addValue(long time, double x, double y, double z, double temperature) {
+		if (numVals == timeVals.length) {
+			ensureCapacity(numVals + 1);
+		}
+		timeVals[numVals] = time;
+		xVals[numVals] = x;
+		yVals[numVals] = y;
+		zVals[numVals] = z;
+		temperatureVals[numVals] = temperature;
+		numVals++;
+	}
+
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > timeVals.length) {
+			capacity = Math.max(capacity, 2 * timeVals.length);
+			timeVals = Arrays.copyOf(timeVals, capacity);
+			xVals = Arrays.copyOf(xVals, capacity);
+			yVals = Arrays.copyOf(yVals, capacity);
+			zVals = Arrays.copyOf(zVals, capacity);
+			temperatureVals = Arrays.copyOf(temperatureVals, capacity);
+		}
+	}
+
+
 	/**
 	 * Method used by all different file-types, to write a single line to the epochWriter.
 	 * The method:
-	 *  -resamples all data (x/y/z/time/temperatureVals) to the intendedSampleRate
+	 *  -resamples all stored values (timeVals, xVals, ...) to the intendedSampleRate
 	 *  -uses the calibration parameters and temperature to adjust the x/y/z values
 	 *  -increments the errCounter (array length 1) for 'stuck values'
 	 *  -writes the raw resampled data to the global rawWriter (unless null)
 	 *  [the above does not apply if getSanDiegoFeatures is enabled]
+	 * If epochThreads > 1, a copy of the epoch is summarised by the epochPool
+	 * instead, and written (in time order) once it and those before it are done.
 	 */
 	private void writeEpochSummary(
 			ZonedDateTime epochStartTime,
 			// Instant epochStartTime,
-			List<Long> timeVals /* milliseconds since start of epochStartTime */,
-			List<Double> xVals,
-			List<Double> yVals,
-			List<Double> zVals,
-			List<Double> temperatureVals,
 			int[] errCounter) {
 
-		int[] clipsCounter = new int[] { 0, 0 }; // before, after (calibration)
-		double x;
-		double y;
-		double z;
-        double temp;
-		for (int i = 0; i < xVals.size(); i++) {
-			Boolean isClipped = false;
-			x = xVals.get(i);
-			y = yVals.get(i);
-			z = zVals.get(i);
-			temp = temperatureVals.get(i);
-																// temp
-			// check if any pre-calibration clipping present
-			//use >= range as it's clipped here
-			if (Math.abs(x) >= range || Math.abs(y) >= range || Math.abs(z) >= range) {
-				clipsCounter[0] += 1;
-				isClipped = true;
-			}
-
-			// update values to software calibrated values
-			x = xyzIntercept[0] + x * xyzSlope[0] + temp * xyzSlopeT[0];
-			y = xyzIntercept[1] + y * xyzSlope[1] + temp * xyzSlopeT[1];
-			z = xyzIntercept[2] + z * xyzSlope[2] + temp * xyzSlopeT[2];
-
-			// check if any new post-calibration clipping has happened
-			// find crossing of range threshold so use > rather than >=
-			if (Math.abs(x) > range || Math.abs(y) > range || Math.abs(z) > range) {
-				if (!isClipped) {
-					clipsCounter[1] += 1;
-				}
-				// drag post calibration clipped values back to range limit
-				if (x < -range || (isClipped && x < 0)) {
-					x = -range;
-				} else if (x > range || (isClipped && x > 0)) {
-					x = range;
-				}
-				if (y < -range || (isClipped && y < 0)) {
-					y = -range;
-				} else if (y > range || (isClipped && y > 0)) {
-					y = range;
-				}
-				if (z < -range || (isClipped && z < 0)) {
-					z = -range;
-				} else if (z > range || (isClipped && z > 0)) {
-					z = range;
-				}
+		if (hopRuns != null) {
+			addHopRun(epochStartTime, errCounter[0]);
+		} else if (epochPool == null) {
+			// summarise the epoch here, in place in this writer's buffers
+			Epoch epoch = serialEpoch;
+			epoch.setValues(epochStartTime, errCounter[0], numVals,
+				timeVals, xVals, yVals, zVals, temperatureVals,
+				xResampled, yResampled, zResampled);
+			epoch.calibrate();
+			epoch.resample();
+			epoch.summarise(filter);
+			writeEpoch(epoch);
+		} else {
+			Epoch epoch = new Epoch();
+			epoch.setValues(epochStartTime, errCounter[0], numVals,
+				Arrays.copyOf(timeVals, numVals),
+				Arrays.copyOf(xVals, numVals),
+				Arrays.copyOf(yVals, numVals),
+				Arrays.copyOf(zVals, numVals),
+				Arrays.copyOf(temperatureVals, numVals),
+				new double[timeResampled.length],
+				new double[timeResampled.length],
+				new double[timeResampled.length]);
+			submitEpoch(epoch);
+		}
+
+		numVals = 0;
+		errCounter[0] = 0;
+    }
+
+
+	// Resample the values of a run (of epochHop seconds), and write the epoch
+	// that ends with it once there are enough runs in a row for one
+	private void addHopRun(ZonedDateTime runStartTime, int errors) {
+		if (numHopRuns > 0) {
+			HopRun last = hopRuns[(firstHopRun + numHopRuns - 1) % hopRuns.length];
+			if (last.startTime + epochHopNanos != epochStartTime) {
+				// after an interrupt, start the next epoch from this run
+				firstHopRun = 0;
+				numHopRuns = 0;
+			}
+		}
+		HopRun run;
+		if (numHopRuns == hopRuns.length) {
+			// replace the oldest run
+			run = hopRuns[firstHopRun];
+			firstHopRun = (firstHopRun + 1) % hopRuns.length;
+		} else {
+			int slot = (firstHopRun + numHopRuns) % hopRuns.length;
+			if (hopRuns[slot] == null) {
+				hopRuns[slot] = new HopRun(timeResampled.length);
 			}
+			run = hopRuns[slot];
+			numHopRuns++;
+		}
 
-			xVals.set(i, x);
-			yVals.set(i, y);
-			zVals.set(i, z);
+		// resample, and write the raw values, of this run only
+		Epoch epoch = serialEpoch;
+		epoch.setValues(runStartTime, errors, numVals,
+			timeVals, xVals, yVals, zVals, temperatureVals,
+			run.x, run.y, run.z);
+		epoch.calibrate();
+		epoch.resample();
+		epoch.formatRaw();
+		epoch.summary = null;
+		writeEpoch(epoch);
+
+		// the filter is applied to each run once, in order
+		AccStats.getENMO(run.x, run.y, run.z, run.enmo);
+		if (filter != null) {
+			filter.filter(run.enmo);
+		}
+		run.stats = new AccStats.RunningStats(run.x, run.y, run.z, run.enmo);
+		run.startTime = epochStartTime;
+		run.startDateTime = runStartTime;
+		run.errors = errors;
+		run.clipsBefore = epoch.clipsCounter[0];
+		run.clipsAfter = epoch.clipsCounter[1];
+		run.leadingVals = 0;
+		run.trailingVals = 0;
+		for (int i = 0; i < numVals; i++) {
+			if (timeVals[i] < 0) {
+				run.leadingVals++;
+			} else if (timeVals[i] >= epochHopNanos) {
+				run.trailingVals++;
+			}
 		}
+		run.numVals = numVals - run.leadingVals - run.trailingVals;
+		if (run.temperatureVals.length < numVals) {
+			run.temperatureVals = new double[numVals];
+		}
+		System.arraycopy(temperatureVals, 0, run.temperatureVals, 0, numVals);
+		run.numMedians = 0;
 
-		// resample values to epochSec * (intended) sampleRate
-		long[] timeResampled = new long[epochPeriod * (int) intendedSampleRate];
-		double[] xResampled = new double[timeResampled.length];
-		double[] yResampled = new double[timeResampled.length];
-		double[] zResampled = new double[timeResampled.length];
-		for (int i = 0; i < timeResampled.length; i++) {
-			timeResampled[i] = Math.round((epochPeriod * 1000d * i) / timeResampled.length);
-		}
-        if (resampleMethod.equalsIgnoreCase("linear")) {
-            Resample.interpLinear(timeVals, xVals, yVals, zVals,
-                timeResampled, xResampled, yResampled, zResampled);
-        } else if (resampleMethod.equalsIgnoreCase("nearest")) {
-            Resample.interpNearest(timeVals, xVals, yVals, zVals,
-                timeResampled, xResampled, yResampled, zResampled);
-        } else {
-			System.err.println("Unknown resample method: " + resampleMethod);
-			System.exit(-1);
-        }
+		if (numHopRuns == hopRuns.length) {
+			writeHopEpoch();
+		}
+	}
 
-		//write out raw values ...
-		if (rawWriter != null) {
-			for (int i = 0; i < xResampled.length; i++) {
-				writeLine(
-                    rawWriter,
-                    timeFormat.format(epochStartTime.plus(timeResampled[i], ChronoUnit.MILLIS))
-                    + "," + DF3.format(xResampled[i])
-                    + "," + DF3.format(yResampled[i])
-                    + "," + DF3.format(zResampled[i]));
+
+	// Write the epoch made of the current hopRuns, merging their basic stats
+	// rather than recomputing them (the features are computed from the runs'
+	// resampled values, with the epochPool if there is one)
+	private void writeHopEpoch() {
+		HopRun first = hopRuns[firstHopRun];
+		HopRun last = hopRuns[(firstHopRun + hopRuns.length - 1) % hopRuns.length];
+		HopEpoch epoch = new HopEpoch();
+		epoch.startTime = first.startDateTime;
+		AccStats.RunningStats epochStats = new AccStats.RunningStats();
+		// the values of the runs, and those of the epoch's edges only, i.e.
+		// the values a tumbling epoch at the same time would have (and its
+		// temperatures summed in the same order, so the same mean)
+		epoch.numVals = first.leadingVals + last.trailingVals;
+		double temperatureSum = 0;
+		for (int i = 0; i < first.leadingVals; i++) {
+			temperatureSum += first.temperatureVals[i];
+		}
+		for (int k = 0; k < hopRuns.length; k++) {
+			HopRun run = hopRuns[(firstHopRun + k) % hopRuns.length];
+			epochStats.merge(run.stats);
+			epoch.errors += run.errors;
+			epoch.clipsBefore += run.clipsBefore;
+			epoch.clipsAfter += run.clipsAfter;
+			epoch.numVals += run.numVals;
+			for (int i = run.leadingVals; i < run.leadingVals + run.numVals; i++) {
+				temperatureSum += run.temperatureVals[i];
 			}
-        }
-		if (npyWriter!=null) {
-			for (int i = 0; i < xResampled.length; i++) {
-                // Note: For .npy format, we store time in Unix nanoseconds
-                long time = toNanos(epochStartTime.plus(timeResampled[i], ChronoUnit.MILLIS));
-                writeNpyLine(npyWriter, time, xResampled[i], yResampled[i], zResampled[i]);
-            }
+		}
+		int trailingStart = last.leadingVals + last.numVals;
+		for (int i = trailingStart; i < trailingStart + last.trailingVals; i++) {
+			temperatureSum += last.temperatureVals[i];
+		}
+		epoch.stats = epochStats.getBasicStats();
+		epoch.temperatureMean = temperatureSum / epoch.numVals;
+
+		if (features != null) {
+			int runLength = timeResampled.length;
+			int numSamples = hopRuns.length * runLength;
+			if (hopX == null) {
+				hopX = new double[numSamples];
+				hopY = new double[numSamples];
+				hopZ = new double[numSamples];
+				hopEnmoTrunc = new double[numSamples];
+			}
+			for (int k = 0; k < hopRuns.length; k++) {
+				HopRun run = hopRuns[(firstHopRun + k) % hopRuns.length];
+				System.arraycopy(run.x, 0, hopX, k * runLength, runLength);
+				System.arraycopy(run.y, 0, hopY, k * runLength, runLength);
+				System.arraycopy(run.z, 0, hopZ, k * runLength, runLength);
+				System.arraycopy(run.enmo, 0, hopEnmoTrunc, k * runLength, runLength);
+			}
+			for (int i = 0; i < numSamples; i++) {
+				if (hopEnmoTrunc[i] < 0) {
+					hopEnmoTrunc[i] = 0;
+				}
+			}
+			epoch.still = features.isStill(epoch.stats);
+			if (features.needs(FeatureSet.Intermediate.ROLLING_MEDIANS) && !epoch.still
+					&& epochPeriod >= Features.ROLLING_MEDIAN_SECONDS) {
+				updateHopRollingMedians();
+				epoch.rollingMedians = hopRollingMedians;
+			}
+			epoch.x = hopX;
+			epoch.y = hopY;
+			epoch.z = hopZ;
+			epoch.enmoTrunc = hopEnmoTrunc;
+		}
 
+		if (epochPool == null) {
+			String summary = epoch.summarise();
+			if (summary != null) {
+				writeLine(epochFileWriter, summary);
+			}
+			return;
 		}
+		// summarise a copy of the epoch's values with the epochPool
+		if (features != null) {
+			epoch.x = epoch.x.clone();
+			epoch.y = epoch.y.clone();
+			epoch.z = epoch.z.clone();
+			epoch.enmoTrunc = epoch.enmoTrunc.clone();
+			if (epoch.rollingMedians != null) {
+				epoch.rollingMedians = new double[][] {
+					epoch.rollingMedians[0].clone(),
+					epoch.rollingMedians[1].clone(),
+					epoch.rollingMedians[2].clone()};
+			}
+		}
+		pendingEpochs.add(CompletableFuture.supplyAsync(() -> {
+			Epoch summarised = new Epoch();
+			summarised.summary = epoch.summarise();
+			return summarised;
+		}, epochPool));
+		writeDoneEpochs();
+	}
+
 
-		// extract necessary features for this epoch
-		double[] stats = AccStats.getAccStats(xResampled, yResampled, zResampled, filter, getFeatures, intendedSampleRate);
+	/**
+	 * Set hopRollingMedians to the rolling medians of the current
+	 * overlapping epoch (hopX/Y/Z). Each window is in the same runs in every
+	 * epoch it is part of, so the medians of the windows that start in a run
+	 * are kept with the run, and only those of windows that no earlier epoch
+	 * had (all of them) are worked out.
+	 */
+	private void updateHopRollingMedians() {
+		int runLength = timeResampled.length;
+		int k = Features.ROLLING_MEDIAN_SECONDS * intendedSampleRate;
+		int numMedians = hopX.length - k + 1;
+		if (hopRollingMedians == null) {
+			hopRollingMedians = new double[3][numMedians];
+		}
+		for (int r = 0; r < hopRuns.length; r++) {
+			HopRun run = hopRuns[(firstHopRun + r) % hopRuns.length];
+			int start = r * runLength;
+			int needed = Math.min(runLength, numMedians - start);
+			if (needed <= 0) {
+				break;
+			}
+			if (run.medians == null) {
+				run.medians = new double[3][runLength];
+			}
+			if (run.numMedians < needed) {
+				double[][] values = {hopX, hopY, hopZ};
+				for (int axis = 0; axis < 3; axis++) {
+					double[] medians = SlidingMedian.medians(values[axis],
+						start + run.numMedians, start + needed - 1 + k, k);
+					System.arraycopy(medians, 0, run.medians[axis], run.numMedians, medians.length);
+				}
+				run.numMedians = needed;
+			}
+			for (int axis = 0; axis < 3; axis++) {
+				System.arraycopy(run.medians[axis], 0, hopRollingMedians[axis], start, needed);
+			}
+		}
+	}
 
-		// check if the values have likely been stuck during this epoch
-		errCounter[0] += AccStats.countStuckVals(xResampled, yResampled, zResampled);
 
+	/**
+	 * The epoch file line of an epoch's stats and housekeeping values, or
+	 * null if it isn't to be written (if only getting stationary bouts)
+	 */
+	private String formatSummary(
+			ZonedDateTime epochStartTime,
+			double[] stats,
+			double temperatureMean,
+			int numSamples,
+			int errors,
+			int clipsBefore,
+			int clipsAfter,
+			int numVals) {
 		// write summary values to file
-        String epochSummary = timeFormat.format(epochStartTime);
+		DecimalFormat df6 = DF6.get();
+		String epochSummary = timeFormat.format(epochStartTime);
 		for(int i=0; i<stats.length; i++){
-			epochSummary += "," + DF6.format(stats[i]);
+			epochSummary += "," + df6.format(stats[i]);
 		}
 
 		// write housekeeping stats
-		epochSummary += "," + DF2.format(AccStats.mean(temperatureVals));
-		epochSummary += "," + xResampled.length + "," + errCounter[0];
-		epochSummary += "," + clipsCounter[0] + "," + clipsCounter[1];
-		epochSummary += "," + timeVals.size();
+		epochSummary += "," + DF2.get().format(temperatureMean);
+		epochSummary += "," + numSamples + "," + errors;
+		epochSummary += "," + clipsBefore + "," + clipsAfter;
+		epochSummary += "," + numVals;
 
 		//write line to file...
 		double xStd = stats[8]; //needed to identify stationary episodes
 		double yStd = stats[9]; //if running first step of calibration process
 		double zStd = stats[10];
 		if (!getStationaryBouts || (xStd < stationaryStd && yStd < stationaryStd && zStd < stationaryStd)) {
-			writeLine(epochFileWriter, epochSummary);
+			return epochSummary;
+		}
+		return null;
+	}
+
+
+	// Summarise an epoch with the epochPool, then write any epochs that are
+	// done
+	private void submitEpoch(Epoch epoch) {
+		CompletableFuture<Epoch> resampled = CompletableFuture.supplyAsync(() -> {
+			epoch.calibrate();
+			epoch.resample();
+			if (filter != null) {
+				epoch.enmo = new double[epoch.xResampled.length];
+				AccStats.getENMO(epoch.xResampled, epoch.yResampled, epoch.zResampled, epoch.enmo);
+			}
+			return epoch;
+		}, epochPool);
+		if (filter != null) {
+			// the filter carries its state from one epoch to the next, so it
+			// is applied to the epochs one at a time, in order
+			resampled = resampled.thenCombine(lastFiltered, (e, previous) -> {
+				filter.filter(e.enmo);
+				return e;
+			});
+			lastFiltered = resampled;
 		}
+		pendingEpochs.add(resampled.thenApplyAsync(e -> {
+			e.summarise(null);
+			return e;
+		}, epochPool));
+
+		writeDoneEpochs();
+	}
+
+
+	// Write the pending epochs that are done (in order), waiting for the
+	// oldest if too many are pending
+	private void writeDoneEpochs() {
+		while (!pendingEpochs.isEmpty() && (pendingEpochs.peek().isDone()
+				|| pendingEpochs.size() > 2 * epochThreads)) {
+			writeEpoch(joinEpoch(pendingEpochs.poll()));
+		}
+	}
+
+
+	// Wait for and write all the epochs still being summarised
+	private void finishEpochs() {
+		while (!pendingEpochs.isEmpty()) {
+			writeEpoch(joinEpoch(pendingEpochs.poll()));
+		}
+		if (epochPool != null) {
+			epochPool.shutdown();
+			epochPool = null;
+		}
+	}
+
+
+	private static Epoch joinEpoch(CompletableFuture<Epoch> future) {
+		try {
+			return future.join();
+		} catch (CompletionException excep) {
+			Throwable cause = excep.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw excep;
+		}
+	}
+
+
+	// Write a summarised epoch to the epoch, raw and npy files (only the
+	// epoch file if it has no values of its own, as an overlapping epoch)
+	private void writeEpoch(Epoch epoch) {
+		if (epoch.xResampled == null) {
+			if (epoch.summary != null) {
+				writeLine(epochFileWriter, epoch.summary);
+			}
+			return;
+		}
+		if (rawWriter != null) {
+			try {
+				rawWriter.write(epoch.rawLines);
+			} catch (Exception excep) {
+				System.err.println("line write error: " + excep.toString());
+			}
+		}
+		if (npyWriter!=null) {
+			for (int i = 0; i < epoch.xResampled.length; i++) {
+                // Note: For .npy format, we store time in Unix nanoseconds
+                long time = toNanos(epoch.startTime.plus(timeResampled[i], ChronoUnit.NANOS));
+                writeNpyLine(npyWriter, time, epoch.xResampled[i], epoch.yResampled[i], epoch.zResampled[i]);
+            }
+		}
+		if (epoch.summary != null) {
+			writeLine(epochFileWriter, epoch.summary);
+		}
+	}
+
+
+	// One run of epochHop seconds of an overlapping epoch
+	private static class HopRun {
+		long startTime; // nanoseconds since epoch
+		ZonedDateTime startDateTime;
+		double[] x; // resampled values
+		double[] y;
+		double[] z;
+		double[] enmo; // (filtered) ENMO of the resampled values
+		AccStats.RunningStats stats;
+		int errors;
+		int clipsBefore;
+		int clipsAfter;
+		int numVals; // values in the run, before resampling
+		// and those before and after it, added only for edge interpolation
+		int leadingVals;
+		int trailingVals;
+		// temperatures of the leading, then the run's, then the trailing values
+		double[] temperatureVals = new double[0];
+		// rolling medians of x/y/z of the windows that start in the run, of
+		// the first numMedians of them (those that the epochs so far needed)
+		double[][] medians;
+		int numMedians;
+
+		HopRun(int length) {
+			x = new double[length];
+			y = new double[length];
+			z = new double[length];
+			enmo = new double[length];
+		}
+	}
+
+
+	// An overlapping epoch, made of hop runs, to be summarised
+	private class HopEpoch {
+		ZonedDateTime startTime;
+		double[] stats; // basic stats, merged from those of the runs
+		int errors;
+		int clipsBefore;
+		int clipsAfter;
+		int numVals;
+		double temperatureMean;
+		// the resampled values, their (filtered) ENMO truncated at 0, and their
+		// rolling medians if needed, for the features (if any)
+		double[] x;
+		double[] y;
+		double[] z;
+		double[] enmoTrunc;
+		double[][] rollingMedians;
+		boolean still;
+
+		// the epoch file line, or null if it isn't to be written
+		String summarise() {
+			double[] allStats = stats;
+			if (features != null) {
+				double[] featureVals = Features.getFeatures(x, y, z, enmoTrunc,
+					intendedSampleRate, features, still, rollingMedians);
+				allStats = AccStats.combineArrays(stats, featureVals);
+			}
+			int numSamples = hopRuns.length * timeResampled.length;
+			// check if the values have likely been stuck during this epoch
+			int errCount = errors + AccStats.countStuckVals(allStats, numSamples);
+			return formatSummary(startTime, allStats, temperatureMean, numSamples,
+				errCount, clipsBefore, clipsAfter, numVals);
+		}
+	}
 
-		timeVals.clear();
-		xVals.clear();
-		yVals.clear();
-		zVals.clear();
-		temperatureVals.clear();
-		errCounter[0] = 0;
-    }
+
+	/**
+	 * The stored values of one epoch, and its summary once worked out by
+	 * calibrate(), resample() and summarise() in turn
+	 */
+	private class Epoch {
+		ZonedDateTime startTime;
+		int errors; // errCounter at the end of the epoch, before stuck values
+		int numVals;
+		long[] timeVals; // offset into the epoch in nanoseconds
+		double[] xVals;
+		double[] yVals;
+		double[] zVals;
+		double[] temperatureVals;
+		double[] xResampled;
+		double[] yResampled;
+		double[] zResampled;
+		// ENMO of the resampled values, if already computed (and filtered)
+		double[] enmo;
+		int[] clipsCounter = new int[] { 0, 0 }; // before, after (calibration)
+		String rawLines; // raw resampled values, if there is a rawWriter
+		String summary; // epoch file line, or null if not to be written
+
+		void setValues(
+				ZonedDateTime startTime,
+				int errors,
+				int numVals,
+				long[] timeVals,
+				double[] xVals,
+				double[] yVals,
+				double[] zVals,
+				double[] temperatureVals,
+				double[] xResampled,
+				double[] yResampled,
+				double[] zResampled) {
+			this.startTime = startTime;
+			this.errors = errors;
+			this.numVals = numVals;
+			this.timeVals = timeVals;
+			this.xVals = xVals;
+			this.yVals = yVals;
+			this.zVals = zVals;
+			this.temperatureVals = temperatureVals;
+			this.xResampled = xResampled;
+			this.yResampled = yResampled;
+			this.zResampled = zResampled;
+			this.enmo = null;
+			clipsCounter[0] = 0;
+			clipsCounter[1] = 0;
+		}
+
+		// software calibrate the stored values, counting clipped values
+		void calibrate() {
+			double x;
+			double y;
+			double z;
+			double temp;
+			for (int i = 0; i < numVals; i++) {
+				Boolean isClipped = false;
+				x = xVals[i];
+				y = yVals[i];
+				z = zVals[i];
+				temp = temperatureVals[i];
+																	// temp
+				// check if any pre-calibration clipping present
+				//use >= range as it's clipped here
+				if (Math.abs(x) >= range || Math.abs(y) >= range || Math.abs(z) >= range) {
+					clipsCounter[0] += 1;
+					isClipped = true;
+				}
+
+				// update values to software calibrated values
+				x = xyzIntercept[0] + x * xyzSlope[0] + temp * xyzSlopeT[0];
+				y = xyzIntercept[1] + y * xyzSlope[1] + temp * xyzSlopeT[1];
+				z = xyzIntercept[2] + z * xyzSlope[2] + temp * xyzSlopeT[2];
+
+				// check if any new post-calibration clipping has happened
+				// find crossing of range threshold so use > rather than >=
+				if (Math.abs(x) > range || Math.abs(y) > range || Math.abs(z) > range) {
+					if (!isClipped) {
+						clipsCounter[1] += 1;
+					}
+					// drag post calibration clipped values back to range limit
+					if (x < -range || (isClipped && x < 0)) {
+						x = -range;
+					} else if (x > range || (isClipped && x > 0)) {
+						x = range;
+					}
+					if (y < -range || (isClipped && y < 0)) {
+						y = -range;
+					} else if (y > range || (isClipped && y > 0)) {
+						y = range;
+					}
+					if (z < -range || (isClipped && z < 0)) {
+						z = -range;
+					} else if (z > range || (isClipped && z > 0)) {
+						z = range;
+					}
+				}
+
+				xVals[i] = x;
+				yVals[i] = y;
+				zVals[i] = z;
+			}
+		}
+
+		// resample values to epochSec * (intended) sampleRate
+		void resample() {
+			if (resampleMethod.equalsIgnoreCase("linear")) {
+				Resample.interpLinear(timeVals, xVals, yVals, zVals, numVals,
+					timeResampled, xResampled, yResampled, zResampled);
+			} else if (resampleMethod.equalsIgnoreCase("nearest")) {
+				Resample.interpNearest(timeVals, xVals, yVals, zVals, numVals,
+					timeResampled, xResampled, yResampled, zResampled);
+			} else {
+				System.err.println("Unknown resample method: " + resampleMethod);
+				System.exit(-1);
+			}
+		}
+
+		// format the raw values and the epoch summary (filtering the ENMO
+		// values with filter, unless they have already been computed)
+		void summarise(Filter filter) {
+			formatRaw();
+
+			// extract necessary features for this epoch
+			double[] stats;
+			if (enmo != null) {
+				stats = AccStats.getAccStatsWithENMO(xResampled, yResampled, zResampled, enmo, features, intendedSampleRate);
+			} else {
+				stats = AccStats.getAccStats(xResampled, yResampled, zResampled, filter, features, intendedSampleRate);
+			}
+
+			// check if the values have likely been stuck during this epoch
+			int errCount = errors + AccStats.countStuckVals(stats, xResampled.length);
+
+			summary = formatSummary(startTime, stats,
+				AccStats.mean(temperatureVals, numVals), xResampled.length,
+				errCount, clipsCounter[0], clipsCounter[1], numVals);
+		}
+
+		// the raw resampled values, as lines for the rawWriter
+		void formatRaw() {
+			//write out raw values ...
+			if (rawWriter != null) {
+				DecimalFormat df3 = DF3.get();
+				StringBuilder raw = new StringBuilder();
+				for (int i = 0; i < xResampled.length; i++) {
+					raw.append(timeFormat.format(startTime.plus(timeResampled[i], ChronoUnit.NANOS)))
+						.append(',').append(df3.format(xResampled[i]))
+						.append(',').append(df3.format(yResampled[i]))
+						.append(',').append(df3.format(zResampled[i]))
+						.append('\n');
+				}
+				rawLines = raw.toString();
+			}
+		}
+	}
 
 
 	private static void writeLine(BufferedWriter fileWriter, String line) {
@@ -413,7 +1153,26 @@ public class EpochWriter {
     }
 
 
+	private static DecimalFormat newDecimalFormat(String pattern, RoundingMode roundingMode) {
+		DecimalFormatSymbols symbols = new DecimalFormatSymbols(Locale.ENGLISH);
+		// NaN's and infinity normally display as non-ASCII characters
+		symbols.setNaN("NaN");
+		symbols.setInfinity("inf");
+		DecimalFormat format = new DecimalFormat(pattern, symbols);
+		format.setRoundingMode(roundingMode);
+		return format;
+	}
+
+
 	public void closeWriters(){
+		try {
+			finishEpochs();
+			waitForSiblings();
+		} catch (RuntimeException excep) {
+			excep.printStackTrace(System.err);
+			System.err.println("error summarising epoch: " + excep.toString());
+			System.exit(-2);
+		}
 		try{
 			epochFileWriter.close();
 			if (rawWriter != null) rawWriter.close();
@@ -423,6 +1182,16 @@ public class EpochWriter {
 			System.err.println("error closing file writer: " + excep.toString());
 			System.exit(-2);
 		}
+		if (features != null && features.skipsStillEpochs()) {
+			System.out.println("features not computed (still) for " +
+				features.getStillEpochs() + " epochs");
+		}
+		for (EpochWriter sibling : siblings) {
+			sibling.closeWriters();
+		}
+		if (siblingPool != null) {
+			siblingPool.shutdown();
+		}
 	}
 
 
@@ -438,13 +1207,13 @@ public class EpochWriter {
     }
 
 
-    private static Instant millisToInstant(long t) {
-        return Instant.ofEpochMilli(t);
+    private static Instant nanosToInstant(long t) {
+        return Instant.ofEpochSecond(Math.floorDiv(t, 1000000000L), Math.floorMod(t, 1000000000L));
     }
 
 
-    private ZonedDateTime millisToZonedDateTime(long t) {
-        return millisToInstant(t).atZone(this.zoneId);
+    private ZonedDateTime nanosToZonedDateTime(long t) {
+        return nanosToInstant(t).atZone(this.zoneId);
     }
 
 
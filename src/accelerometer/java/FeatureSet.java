@@ -0,0 +1,218 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The feature columns that Features.getFeatures() can compute, in header
+ * order, and a selection of them (e.g. from the "features:" parameter).
+ * Columns are grouped by the computation that produces them, and each group
+ * declares the intermediate values it needs, so that only the groups (and
+ * intermediates) of the selected columns are computed.
+ * Optionally, the dynamic groups are not computed for "still" epochs (whose
+ * x/y/z standard deviations are all below stillStd), and their columns are
+ * NaN for those epochs.
+ */
+public class FeatureSet {
+
+    /** Values shared by several groups of features, computed once per epoch */
+    public enum Intermediate {
+        GRAVITY, // estimated gravity vector (mean of a moving average of x/y/z)
+        GRAVITY_REMOVED, // x/y/z minus gravity, and their vector magnitude
+        UNFILTERED_VM, // vector magnitude minus one (unfiltered)
+        ROLLING_MEDIANS; // 5-sec rolling medians of x/y/z
+
+        // intermediates needed to compute this one
+        EnumSet<Intermediate> requires() {
+            return this == GRAVITY_REMOVED ? EnumSet.of(GRAVITY) : EnumSet.noneOf(Intermediate.class);
+        }
+    }
+
+    /** Groups of columns that are computed together */
+    public enum Group {
+        VM_MOMENTS("sanDiego", false, EnumSet.of(Intermediate.GRAVITY_REMOVED),
+            "mean", "sd", "coefvariation"),
+        VM_QUARTILES("sanDiego", false, EnumSet.of(Intermediate.GRAVITY_REMOVED),
+            "median", "min", "max", "25thp", "75thp"),
+        AUTOCORRELATION("sanDiego", true, EnumSet.of(Intermediate.GRAVITY_REMOVED),
+            "autocorr"),
+        CORRELATIONS("sanDiego", true, EnumSet.of(Intermediate.GRAVITY_REMOVED),
+            "corrxy", "corrxz", "corryz"),
+        ANGLES("sanDiego", true, EnumSet.of(Intermediate.GRAVITY_REMOVED),
+            "avgroll", "avgpitch", "avgyaw", "sdroll", "sdpitch", "sdyaw"),
+        GRAVITY_ANGLES("sanDiego", false, EnumSet.of(Intermediate.GRAVITY),
+            "rollg", "pitchg", "yawg"),
+        VM_SPECTRUM("sanDiegoFFT", true, EnumSet.of(Intermediate.GRAVITY_REMOVED),
+            "fmax", "pmax", "fmaxband", "pmaxband", "entropy"),
+        VM_WELCH("sanDiegoFFT", true, EnumSet.of(Intermediate.GRAVITY_REMOVED),
+            "fft1", "fft2", "fft3", "fft4", "fft5", "fft6", "fft7", "fft8", "fft9", "fft10"),
+        MAD("mad", false, EnumSet.of(Intermediate.UNFILTERED_VM),
+            "MAD", "MPD", "skew", "kurt"),
+        ARM_ANGLE("arm", true, EnumSet.of(Intermediate.ROLLING_MEDIANS),
+            "avgArmAngel", "avgArmAngelAbsDiff"),
+        UNILEVER("unilever", true, EnumSet.noneOf(Intermediate.class),
+            "f1", "p1", "f2", "p2", "f625", "p625", "totalPower");
+
+        final String family; // name that selects all groups of a family
+        final boolean dynamic; // whether it is skipped (NaN) for still epochs
+        final EnumSet<Intermediate> needs;
+        final String[] columns;
+
+        Group(String family, boolean dynamic, EnumSet<Intermediate> needs, String... columns) {
+            this.family = family;
+            this.dynamic = dynamic;
+            this.needs = needs;
+            this.columns = columns;
+        }
+    }
+
+    // all columns, and the index of each group's first column among them
+    private static final String[] COLUMNS;
+    private static final int[] FIRST_COLUMN = new int[Group.values().length];
+    static {
+        List<String> columns = new ArrayList<>();
+        for (Group group : Group.values()) {
+            FIRST_COLUMN[group.ordinal()] = columns.size();
+            columns.addAll(Arrays.asList(group.columns));
+        }
+        COLUMNS = columns.toArray(new String[0]);
+    }
+
+    public static final FeatureSet ALL = parse("");
+
+    private final boolean[] selected; // by column index
+    private final int size;
+    private final EnumSet<Group> groups = EnumSet.noneOf(Group.class);
+    private final EnumSet<Intermediate> intermediates = EnumSet.noneOf(Intermediate.class);
+    private final double stillStd; // 0 if dynamic groups are always computed
+    private final AtomicLong stillEpochs = new AtomicLong(); // epochs they weren't
+
+
+    private FeatureSet(boolean[] selected, double stillStd) {
+        this.selected = selected;
+        this.stillStd = stillStd;
+        int count = 0;
+        for (Group group : Group.values()) {
+            for (int i = 0; i < group.columns.length; i++) {
+                if (selected[FIRST_COLUMN[group.ordinal()] + i]) {
+                    groups.add(group);
+                    count++;
+                }
+            }
+        }
+        size = count;
+        for (Group group : groups) {
+            for (Intermediate intermediate : group.needs) {
+                intermediates.addAll(intermediate.requires());
+                intermediates.add(intermediate);
+            }
+        }
+    }
+
+
+    /**
+     * The columns named in a comma separated list of column names (e.g.
+     * "fft1,MAD") and/or families ("sanDiego", "sanDiegoFFT", "mad", "arm",
+     * "unilever" or "all"); all columns if the list is empty.
+     * Columns are always in header order.
+     */
+    public static FeatureSet parse(String names) throws IllegalArgumentException {
+        boolean[] selected = new boolean[COLUMNS.length];
+        if (names.trim().isEmpty()) {
+            Arrays.fill(selected, true);
+            return new FeatureSet(selected, 0);
+        }
+        for (String name : names.split(",")) {
+            name = name.trim();
+            boolean found = false;
+            for (Group group : Group.values()) {
+                if (name.equals("all") || name.equals(group.family)) {
+                    int first = FIRST_COLUMN[group.ordinal()];
+                    Arrays.fill(selected, first, first + group.columns.length, true);
+                    found = true;
+                }
+            }
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (name.equals(COLUMNS[i])) {
+                    selected[i] = true;
+                    found = true;
+                }
+            }
+            if (!found) {
+                throw new IllegalArgumentException("unknown feature: " + name);
+            }
+        }
+        return new FeatureSet(selected, 0);
+    }
+
+
+    /**
+     * The same columns, but with the dynamic groups (spectra, correlations,
+     * angles, ...) not computed for epochs whose x/y/z standard deviations
+     * are all below stillStd
+     */
+    public FeatureSet skippingStillEpochs(double stillStd) {
+        return new FeatureSet(selected, stillStd);
+    }
+
+
+    // number of selected columns
+    public int size() {
+        return size;
+    }
+
+
+    public boolean contains(Group group) {
+        return groups.contains(group);
+    }
+
+
+    public boolean needs(Intermediate intermediate) {
+        return intermediates.contains(intermediate);
+    }
+
+
+    // whether the dynamic groups can be skipped for an epoch, from its
+    // AccStats.getBasicStats() values
+    public boolean isStill(double[] basicStats) {
+        return basicStats[8] < stillStd && basicStats[9] < stillStd && basicStats[10] < stillStd;
+    }
+
+
+    void countStillEpoch() {
+        stillEpochs.incrementAndGet();
+    }
+
+
+    public boolean skipsStillEpochs() {
+        return stillStd > 0;
+    }
+
+
+    // number of epochs whose dynamic groups were not computed
+    public long getStillEpochs() {
+        return stillEpochs.get();
+    }
+
+
+    // whether the i'th column of the group is selected
+    boolean isSelected(Group group, int i) {
+        return selected[FIRST_COLUMN[group.ordinal()] + i];
+    }
+
+
+    public String getHeader() {
+        StringBuilder header = new StringBuilder();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (selected[i]) {
+                if (header.length() > 0) {
+                    header.append(',');
+                }
+                header.append(COLUMNS[i]);
+            }
+        }
+        return header.toString();
+    }
+
+}
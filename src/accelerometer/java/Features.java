@@ -18,50 +18,207 @@
  *
  */
 import org.jtransforms.fft.DoubleFFT_1D;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 public class Features {
 
+    // windowMagnitudes() uses Goertzel for up to this many bins per log2(n)
+    private static final double GOERTZEL_MAX_BINS_PER_LOG2 = 2.0;
+
+    // length of the windows of the rolling medians that the arm angle is of
+    static final int ROLLING_MEDIAN_SECONDS = 5;
+
+    // FFT plans, windows and buffers of the current thread (see SpectrumCache)
+    private static final ThreadLocal<SpectrumCache> spectrumCache =
+        ThreadLocal.withInitial(SpectrumCache::new);
+
     public static double[] getFeatures(
             double[] x,
             double[] y,
             double[] z,
             double[] filteredVM,
             int sampleRate){
+        return getFeatures(x, y, z, filteredVM, sampleRate, FeatureSet.ALL, false);
+    }
 
-        // get San Diego (Ellis) features
-        double[] sanDiegoFeats = calculateSanDiegoFeatures(x, y, z, sampleRate);
+    /**
+     * Compute the selected feature columns (in header order). Only the groups
+     * of columns that are selected are computed, and only the intermediate
+     * values (gravity, rolling medians, ...) that those groups need.
+     * If the epoch is still (see FeatureSet.isStill()), the dynamic groups are
+     * not computed, and their columns are NaN.
+     */
+    public static double[] getFeatures(
+            double[] x,
+            double[] y,
+            double[] z,
+            double[] filteredVM,
+            int sampleRate,
+            FeatureSet features,
+            boolean still){
+        return getFeatures(x, y, z, filteredVM, sampleRate, features, still, null);
+    }
 
-        // get MAD features
-        double[] madFeats = calculateMADFeatures(x, y, z);
+    /**
+     * The same, given the (ROLLING_MEDIAN_SECONDS) rolling medians of x, y
+     * and z, e.g. those kept from an overlapping epoch, rather than computing
+     * them again (if rollingMedians is null, they are computed if needed)
+     */
+    public static double[] getFeatures(
+            double[] x,
+            double[] y,
+            double[] z,
+            double[] filteredVM,
+            int sampleRate,
+            FeatureSet features,
+            boolean still,
+            double[][] rollingMedians){
 
-        // get arm angel features
-        double[] armFeats = calculateArmFeatures(x, y, z, sampleRate);
+        if (still) {
+            features.countStillEpoch();
+        }
+        Intermediates intermediates = new Intermediates(x, y, z, sampleRate, features, still,
+            rollingMedians);
+        double[] output = new double[features.size()];
+        int col = 0;
+        for (FeatureSet.Group group : FeatureSet.Group.values()) {
+            if (!features.contains(group)) {
+                continue;
+            }
+            double[] groupFeats;
+            if (still && group.dynamic) {
+                groupFeats = getStillGroupFeatures(group);
+            } else {
+                groupFeats = getGroupFeatures(group, intermediates, filteredVM, sampleRate);
+            }
+            for (int i = 0; i < groupFeats.length; i++) {
+                if (features.isSelected(group, i)) {
+                    output[col++] = groupFeats[i];
+                }
+            }
+        }
+        return output;
+    }
 
-        // get Unilever (Zhang/Rowlands) features
-        double[] uniFeats = unileverFeatures(filteredVM, sampleRate);
+    public static String getFeaturesHeader() {
+        return FeatureSet.ALL.getHeader();
+    }
 
-        // construct final output array
-        // don't forget to change header method immediately below !!!
-        double[] output = AccStats.combineArrays(sanDiegoFeats, madFeats);
-        output = AccStats.combineArrays(output, armFeats);
-        output = AccStats.combineArrays(output, uniFeats);
 
-        return output;
-        // todo method to write header line order (use static class variables )
+    /**
+     * Values shared by several groups of features, computed once per epoch
+     * (and only if a selected group needs them)
+     */
+    private static class Intermediates {
+        final int n;
+        double gxMean, gyMean, gzMean; // GRAVITY
+        double[] wx, wy, wz, v; // GRAVITY_REMOVED: gravity adjusted x/y/z and their vector magnitude
+        double[] unfilteredVM; // UNFILTERED_VM
+        double[] rollingMedianX, rollingMedianY, rollingMedianZ; // ROLLING_MEDIANS (if >= 5 sec)
+
+        Intermediates(double[] x, double[] y, double[] z, int sampleRate, FeatureSet features,
+                boolean still, double[][] rollingMedians) {
+            n = x.length;
+
+            if (features.needs(FeatureSet.Intermediate.GRAVITY)) {
+                // San Diego g values
+                // the g matric contains the estimated gravity vector
+                // this is essentially a low pass filter
+                double[] gg = sanDiegoGetAvgGravity(x, y, z, sampleRate);
+                gxMean = gg[0];
+                gyMean = gg[1];
+                gzMean = gg[2];
+            }
+
+            if (features.needs(FeatureSet.Intermediate.GRAVITY_REMOVED)) {
+                // subtract column means and get vector magnitude
+                v = new double[n];
+                wx = new double[n];
+                wy = new double[n];
+                wz = new double[n];
+                for (int i = 0; i < n; i++) {
+                    wx[i] = x[i]-gxMean;
+                    wy[i] = y[i]-gyMean;
+                    wz[i] = z[i]-gzMean;
+                    v[i] = AccStats.getVectorMagnitude( wx[i], wy[i], wz[i]);
+                }
+            }
+
+            if (features.needs(FeatureSet.Intermediate.UNFILTERED_VM)) {
+                unfilteredVM = new double[n];
+                for (int i = 0; i < n; i++) {
+                    if (!Double.isNaN(x[i])) {
+                        double vm = AccStats.getVectorMagnitude(x[i], y[i], z[i]);
+                        //todo should really be on vm, not vm - 1
+                        unfilteredVM[i] = vm - 1;
+                    }
+                }
+            }
+
+            int window_len = ROLLING_MEDIAN_SECONDS; // 5-sec
+            // (only the arm angle, a dynamic group, needs them)
+            if (features.needs(FeatureSet.Intermediate.ROLLING_MEDIANS)
+                    && n / sampleRate >= window_len && !still) {
+                if (rollingMedians != null) {
+                    rollingMedianX = rollingMedians[0];
+                    rollingMedianY = rollingMedians[1];
+                    rollingMedianZ = rollingMedians[2];
+                } else {
+                    int k = window_len * sampleRate;
+                    rollingMedianX = medianSlidingWindow(x, k);
+                    rollingMedianY = medianSlidingWindow(y, k);
+                    rollingMedianZ = medianSlidingWindow(z, k);
+                }
+            }
+        }
     }
 
-    public static String getFeaturesHeader() {
-        String header = getSanDiegoFeaturesHeader();
-        header += "," + getMADFeaturesHeader();
-        header += "," + getArmFeaturesHeader();
-        header += "," + getUnileverFeaturesHeader();
-        return header;
+
+    // returns the values of all columns of a group, in header order
+    private static double[] getGroupFeatures(
+            FeatureSet.Group group,
+            Intermediates c,
+            double[] filteredVM,
+            int sampleRate) {
+        switch (group) {
+            case VM_SPECTRUM:
+                return sanDiegoSpectrum(c.v, sampleRate);
+            case VM_WELCH:
+                return sanDiegoWelch(c.v, sampleRate);
+            case MAD:
+                // get MAD features
+                return calculateMADFeatures(c.unfilteredVM);
+            case ARM_ANGLE:
+                // get arm angel features
+                return calculateArmFeatures(c.rollingMedianX, c.rollingMedianY,
+                    c.rollingMedianZ, c.n, sampleRate);
+            case UNILEVER:
+                // get Unilever (Zhang/Rowlands) features
+                return unileverFeatures(filteredVM, sampleRate);
+            default:
+                // get San Diego (Ellis) features
+                return calculateSanDiegoFeatures(group, c, sampleRate);
+        }
+    }
+
+
+    /**
+     * The columns of a dynamic group for a still epoch: NaN, to flag that they
+     * were not computed (their computed values are not invariant to noise, so
+     * there are no values that could stand in for them)
+     */
+    private static double[] getStillGroupFeatures(FeatureSet.Group group) {
+        double[] groupFeats = new double[group.columns.length];
+        Arrays.fill(groupFeats, Double.NaN);
+        return groupFeats;
     }
 
 
-    private static double[] calculateSanDiegoFeatures(double[] x, double[] y, double[] z, int sampleRate) {
+    private static double[] calculateSanDiegoFeatures(
+            FeatureSet.Group group,
+            Intermediates c,
+            int sampleRate) {
 
         /*
             This function aims to replicate the following R-code:
@@ -84,90 +241,56 @@ public class Features {
 
         */
 
-        int n = x.length;
-
-        // San Diego g values
-        // the g matric contains the estimated gravity vector
-        // this is essentially a low pass filter
-        double[] gg = sanDiegoGetAvgGravity(x, y, z, sampleRate);
-        double gxMean = gg[0];
-        double gyMean = gg[1];
-        double gzMean = gg[2];
-
-
-        // subtract column means and get vector magnitude
-        double[] v = new double[n]; // vector magnitude
-        double[] wx = new double[n]; // gravity adjusted weights
-        double[] wy = new double[n];
-        double[] wz = new double[n];
-        for (int i = 0; i < n; i++) {
-            wx[i] = x[i]-gxMean;
-            wy[i] = y[i]-gyMean;
-            wz[i] = z[i]-gzMean;
-            v[i] = AccStats.getVectorMagnitude( wx[i], wy[i], wz[i]);
-        }
-
-        // Write epoch
-        double sdMean = AccStats.mean(v);
-        double sdStd = AccStats.stdR(v, sdMean);
-        double sdCoefVariation = 0.0;
-        if (sdMean!=0) sdCoefVariation = sdStd/sdMean;
-        double[] paQuartiles = AccStats.percentiles(v, new double[] {0, 0.25, 0.5, 0.75, 1});
-
-        //correlations
-        double autoCorrelation = correlation(v, v, sampleRate);
-        double xyCorrelation = correlation(wx, wy);
-        double xzCorrelation = correlation(wx, wz);
-        double yzCorrelation = correlation(wy, wz);
-
-        // Roll, Pitch, Yaw
-        double [] angleAvgStdYZ = AccStats.angleAvgStd(wy, wz); //roll
-        double [] angleAvgStdZX = AccStats.angleAvgStd(wz, wx); //pitch
-        double [] angleAvgStdYX = AccStats.angleAvgStd(wy, wx); //yaw
-
-        // gravity component angles
-        double gxyAngle = Math.atan2(gyMean,gzMean);
-        double gzxAngle = Math.atan2(gzMean,gxMean);
-        double gyxAngle = Math.atan2(gyMean,gxMean);
-
-        // don't forget to change header method immediately below !!!
-        double[] output = new double[]{
-            sdMean,
-            sdStd,
-            sdCoefVariation,
-            paQuartiles[2], // median
-            paQuartiles[0], // min
-            paQuartiles[4], // max
-            paQuartiles[1], // 25th
-            paQuartiles[3], // 75th
-            autoCorrelation,
-            xyCorrelation,
-            xzCorrelation,
-            yzCorrelation,
-            angleAvgStdYZ[0], // mean roll
-            angleAvgStdZX[0], // mean pitch
-            angleAvgStdYX[0], // mean yaw
-            angleAvgStdYZ[1], // sd roll
-            angleAvgStdZX[1], // sd pitch
-            angleAvgStdYX[1], // sd yaw
-            gxyAngle,
-            gzxAngle,
-            gyxAngle,
-        };
-        double[] fftVals = sanDiegoFFT(v, sampleRate);
-        return AccStats.combineArrays(output, fftVals);
-
-    }
-
-    private static String getSanDiegoFeaturesHeader() {
-        String header = "mean,sd,coefvariation";
-        header += ",median,min,max,25thp,75thp";
-        header += ",autocorr,corrxy,corrxz,corryz";
-        header += ",avgroll,avgpitch,avgyaw";
-        header += ",sdroll,sdpitch,sdyaw";
-        header += ",rollg,pitchg,yawg";
-        header += "," + getSanDiegoFFTHeader();
-        return header;
+        switch (group) {
+            case VM_MOMENTS: {
+                double sdMean = AccStats.mean(c.v);
+                double sdStd = AccStats.stdR(c.v, sdMean);
+                double sdCoefVariation = 0.0;
+                if (sdMean!=0) sdCoefVariation = sdStd/sdMean;
+                return new double[] {sdMean, sdStd, sdCoefVariation};
+            }
+            case VM_QUARTILES: {
+                double[] paQuartiles = AccStats.percentiles(c.v, new double[] {0, 0.25, 0.5, 0.75, 1});
+                return new double[] {
+                    paQuartiles[2], // median
+                    paQuartiles[0], // min
+                    paQuartiles[4], // max
+                    paQuartiles[1], // 25th
+                    paQuartiles[3], // 75th
+                };
+            }
+            case AUTOCORRELATION:
+                return new double[] {correlation(c.v, c.v, sampleRate)};
+            case CORRELATIONS:
+                return new double[] {
+                    correlation(c.wx, c.wy),
+                    correlation(c.wx, c.wz),
+                    correlation(c.wy, c.wz),
+                };
+            case ANGLES: {
+                // Roll, Pitch, Yaw
+                double [] angleAvgStdYZ = AccStats.angleAvgStd(c.wy, c.wz); //roll
+                double [] angleAvgStdZX = AccStats.angleAvgStd(c.wz, c.wx); //pitch
+                double [] angleAvgStdYX = AccStats.angleAvgStd(c.wy, c.wx); //yaw
+                return new double[] {
+                    angleAvgStdYZ[0], // mean roll
+                    angleAvgStdZX[0], // mean pitch
+                    angleAvgStdYX[0], // mean yaw
+                    angleAvgStdYZ[1], // sd roll
+                    angleAvgStdZX[1], // sd pitch
+                    angleAvgStdYX[1], // sd yaw
+                };
+            }
+            case GRAVITY_ANGLES:
+                // gravity component angles
+                return new double[] {
+                    Math.atan2(c.gyMean,c.gzMean),
+                    Math.atan2(c.gzMean,c.gxMean),
+                    Math.atan2(c.gyMean,c.gxMean),
+                };
+            default:
+                throw new IllegalArgumentException("not a San Diego feature group: " + group);
+        }
     }
 
 
@@ -228,20 +351,22 @@ public class Features {
     }
 
 
-    private static double[] sanDiegoFFT(double[] v, int sampleRate)
+    // returns { fmax, pmax, fmaxband, pmaxband, entropy } of v's power spectrum
+    private static double[] sanDiegoSpectrum(double[] v, int sampleRate)
     {
         final int n = v.length;
         final double vMean = AccStats.mean(v);
+        final SpectrumCache cache = spectrumCache.get();
 
         // Initialize array to compute FFT coefs
-        double[] vFFT = new double[n];
+        double[] vFFT = cache.signal(n);
         for (int i = 0; i < n; i++){
             vFFT[i] = v[i] - vMean;  // note: we remove the 0Hz freq
         }
 
         HanningWindow(vFFT, vFFT.length);
-        new DoubleFFT_1D(vFFT.length).realForward(vFFT);  // FFT library computes coefs inplace
-        final double[] vFFTpow = getFFTpower(vFFT);  // parse FFT coefs to obtain the powers
+        cache.plan(n).realForward(vFFT);  // FFT library computes coefs inplace
+        final double[] vFFTpow = getFFTpower(vFFT, true, cache.power(n));  // parse FFT coefs to obtain the powers
 
         /*
         Compute spectral entropy
@@ -276,6 +401,22 @@ public class Features {
         p1 = Math.log(p1 + 1E-8);
         p33 = Math.log(p33 + 1E-8);
 
+        return new double[]{
+            f1,
+            p1,
+            f33,
+            p33,
+            spectralEntropy
+        };
+    }
+
+
+    // returns (log) average magnitudes of frequencies 0-9Hz in 1 sec windows
+    private static double[] sanDiegoWelch(double[] v, int sampleRate)
+    {
+        final int n = v.length;
+        final SpectrumCache cache = spectrumCache.get();
+
         /*
         Estimate powers for frequencies 0-9 using Welch's method
         See: https://en.wikipedia.org/wiki/Welch%27s_method
@@ -290,15 +431,9 @@ public class Features {
 
         final int windowOverlap = sampleRate / 2;  // 50% overlapping windows
         final int numWindows = n / windowOverlap - 1;
-        double[] windowFFT = new double[sampleRate];
-        DoubleFFT_1D windowTransformer = new DoubleFFT_1D(sampleRate);
+        double[] windowFFTmag = cache.windowMagnitude(sampleRate);
         for (int i = 0; i < numWindows; i++ ) {
-            for (int j = 0; j < windowFFT.length; j++){  // slicing
-                windowFFT[j] = v[i*windowOverlap+j];
-            }
-            HanningWindow(windowFFT, windowFFT.length);
-            windowTransformer.realForward(windowFFT);  // FFT library computes coefs inplace
-            final double[] windowFFTmag = getFFTmagnitude(windowFFT);  // parse FFT coefs to obtain magnitudes
+            windowMagnitudes(v, i*windowOverlap, sampleRate, numBins, windowFFTmag);
             // Accumulate the magnitudes
             for (int j = 0; j < binnedFFT.length; j++){
                 binnedFFT[j] += windowFFTmag[j];
@@ -309,25 +444,7 @@ public class Features {
             binnedFFT[i] = Math.log(binnedFFT[i]/numWindows + 1E-8);
         }
 
-        // don't forget to change header method immediately below !!!
-        double[] output = new double[]{
-            f1,
-            p1,
-            f33,
-            p33,
-            spectralEntropy
-        };
-        return AccStats.combineArrays(output, binnedFFT);
-
-    }
-
-    private static String getSanDiegoFFTHeader() {
-        String header = "fmax,pmax,fmaxband,pmaxband,entropy";
-        final int numBins = 10;
-        for(int i=0; i<numBins; i++){
-            header += ",fft" + (i+1);
-        }
-        return header;
+        return binnedFFT;
     }
 
 
@@ -338,19 +455,7 @@ public class Features {
      * Henri Vaha-Ypya, Tommi Vasankari, Pauliina Husu, Jaana Suni and Harri Sievanen
      * https://www.ncbi.nlm.nih.gov/pubmed/24393233
      */
-    private static double[] calculateMADFeatures(
-            double[] x,
-            double[] y,
-            double[] z) {
-
-        double[] unfilteredVM = new double[x.length];
-        for (int i = 0; i < x.length; i++) {
-            if (!Double.isNaN(x[i])) {
-                double vm = AccStats.getVectorMagnitude(x[i], y[i], z[i]);
-                //todo should really be on vm, not vm - 1
-                unfilteredVM[i] = vm - 1;
-            }
-        }
+    private static double[] calculateMADFeatures(double[] unfilteredVM) {
 
         // used in calculation
         int n = unfilteredVM.length;
@@ -380,7 +485,6 @@ public class Features {
         skew *= N / ((N-1)*(N-2));
         kurt = kurt * N*(N+1)/((N-1)*(N-2)*(N-3)*(N-4)) - 3*(N-1)*(N-1)/((N-2)*(N-3));
 
-        // don't forget to change header method immediately below !!!
         return new double[] {
             MAD,
             MPD,
@@ -389,43 +493,182 @@ public class Features {
         };
     }
 
-    private static String getMADFeaturesHeader(){
-        String header = "MAD,MPD,skew,kurt";
-        return header;
-    }
-
-
     private static double[] HanningWindow(double[] signal_in, int size)
     {
+        final double[] window = spectrumCache.get().hanning(size);
         for (int i = 0; i < size; i++)
         {
-            signal_in[i] = (double) (signal_in[i] * 0.5 * (1.0 - Math.cos(2.0 * Math.PI * i / (size-1))));
+            signal_in[i] = signal_in[i] * window[i];
         }
         return signal_in;
     }
 
 
-    private static double[] getFFTmagnitude(double[] FFT) {
-        return getFFTmagnitude(FFT, true);
+    /**
+     * Magnitudes (normalised as by getFFTmagnitude()) of the first numBins
+     * frequencies of the Hanning-windowed signal[start..start+n), into mag.
+     * Only these are computed, with the Goertzel algorithm, when that takes
+     * fewer operations (about numBins * n) than a full FFT (about
+     * n * log2(n) * GOERTZEL_MAX_BINS_PER_LOG2); otherwise, all ceil(n/2)
+     * magnitudes are computed with an FFT.
+     */
+    static void windowMagnitudes(double[] signal, int start, int n, int numBins, double[] mag) {
+        final SpectrumCache cache = spectrumCache.get();
+        if (numBins > (n + 1) / 2
+                || numBins > GOERTZEL_MAX_BINS_PER_LOG2 * Math.log(n) / Math.log(2)) {
+            double[] windowFFT = cache.window(n);
+            System.arraycopy(signal, start, windowFFT, 0, n);  // slicing
+            HanningWindow(windowFFT, windowFFT.length);
+            cache.plan(n).realForward(windowFFT);  // FFT library computes coefs inplace
+            getFFTmagnitude(windowFFT, true, mag);  // parse FFT coefs to obtain magnitudes
+            return;
+        }
+        // Goertzel: s[j] = x[j] + 2cos(2 pi k/n) s[j-1] - s[j-2] for each bin k,
+        // with |X[k]|^2 = s[n-1]^2 + s[n-2]^2 - 2cos(2 pi k/n) s[n-1] s[n-2]
+        final double[] window = cache.hanning(n);
+        final double[] coeff = cache.goertzel(n, numBins);
+        final double[] s1 = cache.goertzelState(numBins);
+        final double[] s2 = cache.goertzelState2(numBins);
+        Arrays.fill(s1, 0);
+        Arrays.fill(s2, 0);
+        for (int j = 0; j < n; j++) {
+            double x = signal[start + j] * window[j];
+            for (int k = 0; k < numBins; k++) {
+                double s = x + coeff[k] * s1[k] - s2[k];
+                s2[k] = s1[k];
+                s1[k] = s;
+            }
+        }
+        for (int k = 0; k < numBins; k++) {
+            double power = s1[k] * s1[k] + s2[k] * s2[k] - coeff[k] * s1[k] * s2[k];
+            mag[k] = Math.sqrt(Math.max(power, 0) / (n*n));
+        }
     }
 
+
+    // Hanning window coefficients for HanningWindow()
+    private static double[] hanning(int size) {
+        double[] window = new double[size];
+        for (int i = 0; i < size; i++)
+        {
+            // (the same as the signal * 0.5 * (...) previously, as
+            // multiplying by 0.5 is exact)
+            window[i] = 0.5 * (1.0 - Math.cos(2.0 * Math.PI * i / (size-1)));
+        }
+        return window;
+    }
+
+
+    /**
+     * FFT plans and Hanning windows (by length), and scratch buffers for the
+     * spectral features, so that these are set up once per thread rather than
+     * for every epoch. Each buffer is reallocated only if the length it is
+     * asked for changes, which for a given file it doesn't.
+     */
+    private static class SpectrumCache {
+        private final Map<Integer, DoubleFFT_1D> plans = new HashMap<Integer, DoubleFFT_1D>();
+        private final Map<Integer, double[]> windows = new HashMap<Integer, double[]>();
+        private double[] signal = new double[0];
+        private double[] power = new double[0];
+        private double[] window = new double[0];
+        private double[] windowMagnitude = new double[0];
+        private double[] goertzel = new double[0];
+        private int goertzelLength = 0;
+        private double[] goertzelState = new double[0];
+        private double[] goertzelState2 = new double[0];
+
+        DoubleFFT_1D plan(int n) {
+            DoubleFFT_1D plan = plans.get(n);
+            if (plan == null) {
+                plan = new DoubleFFT_1D(n);
+                plans.put(n, plan);
+            }
+            return plan;
+        }
+
+        double[] hanning(int n) {
+            double[] hanning = windows.get(n);
+            if (hanning == null) {
+                hanning = Features.hanning(n);
+                windows.put(n, hanning);
+            }
+            return hanning;
+        }
+
+        // a signal of n values, to be transformed in place
+        double[] signal(int n) {
+            if (signal.length != n) {
+                signal = new double[n];
+            }
+            return signal;
+        }
+
+        // powers of the transform of a signal of n values
+        double[] power(int n) {
+            if (power.length != (n + 1) / 2) {
+                power = new double[(n + 1) / 2];
+            }
+            return power;
+        }
+
+        // a Welch window of n values, to be transformed in place
+        double[] window(int n) {
+            if (window.length != n) {
+                window = new double[n];
+            }
+            return window;
+        }
+
+        // magnitudes of the transform of a Welch window of n values
+        double[] windowMagnitude(int n) {
+            if (windowMagnitude.length != (n + 1) / 2) {
+                windowMagnitude = new double[(n + 1) / 2];
+            }
+            return windowMagnitude;
+        }
+
+        // Goertzel coefficients 2cos(2 pi k/n) of bins k < numBins
+        double[] goertzel(int n, int numBins) {
+            if (goertzelLength != n || goertzel.length != numBins) {
+                goertzel = new double[numBins];
+                for (int k = 0; k < numBins; k++) {
+                    goertzel[k] = 2 * Math.cos(2.0 * Math.PI * k / n);
+                }
+                goertzelLength = n;
+            }
+            return goertzel;
+        }
+
+        // Goertzel s[j-1] and s[j-2] of each bin
+        double[] goertzelState(int numBins) {
+            if (goertzelState.length != numBins) {
+                goertzelState = new double[numBins];
+            }
+            return goertzelState;
+        }
+
+        double[] goertzelState2(int numBins) {
+            if (goertzelState2.length != numBins) {
+                goertzelState2 = new double[numBins];
+            }
+            return goertzelState2;
+        }
+    }
+
+
     //converts FFT library's complex output to only absolute magnitude
-    private static double[] getFFTmagnitude(double[] FFT, boolean normalize) {
+    private static double[] getFFTmagnitude(double[] FFT, boolean normalize, double[] FFTmag) {
         // Get magnitudes from FFT coefficients
-        double[] FFTmag = getFFTpower(FFT, normalize);
+        getFFTpower(FFT, normalize, FFTmag);
         for (int i=0; i<FFTmag.length; i++){
             FFTmag[i] = Math.sqrt(FFTmag[i]);
         }
         return FFTmag;
     }
 
-    private static double[] getFFTpower(double[] FFT) {
-        return getFFTpower(FFT, true);
-    }
 
-
-
-    private static double[] getFFTpower(double[] FFT, boolean normalize) {
+    // FFTpow must have length ceil(FFT.length/2)
+    private static double[] getFFTpower(double[] FFT, boolean normalize, double[] FFTpow) {
         /*
          * Get powers from FFT coefficients
 
@@ -450,7 +693,6 @@ public class Features {
         */
         final int n = FFT.length;
         final int m = (int) Math.ceil((double) n/2);
-        double[] FFTpow = new double[m];
         double Re, Im;
 
         FFTpow[0] = FFT[0] * FFT[0];
@@ -495,11 +737,12 @@ public class Features {
         final double vMean = AccStats.mean(v);
 
         // Initialize array to compute FFT coefs
-        double[] vFFT = new double[n];
+        final SpectrumCache cache = spectrumCache.get();
+        double[] vFFT = cache.signal(n);
         for (int i = 0; i < n; i++)  vFFT[i] = v[i] - vMean;  // note: we remove the 0Hz freq
         HanningWindow(vFFT, vFFT.length);
-        new DoubleFFT_1D(vFFT.length).realForward(vFFT);  // FFT library computes coefs inplace
-        final double[] vFFTpow = getFFTpower(vFFT);  // parse FFT coefs to obtain the powers
+        cache.plan(n).realForward(vFFT);  // FFT library computes coefs inplace
+        final double[] vFFTpow = getFFTpower(vFFT, true, cache.power(n));  // parse FFT coefs to obtain the powers
 
         //Find dominant frequencies in 0.3Hz - 15Hz, also in 0.6Hz - 2.5Hz
         //Also accumulate total power in 0.3Hz - 15Hz.
@@ -534,7 +777,6 @@ public class Features {
         p2 = Math.log(p2 + 1E-8);
         p625 = Math.log(p625 + 1E-8);
 
-        // don't forget to change header method immediately below !!!
         return new double[] {
             f1,
             p1,
@@ -546,12 +788,6 @@ public class Features {
         };
     }
 
-    private static String getUnileverFeaturesHeader(){
-        String header = "f1,p1,f2,p2,f625,p625,totalPower";
-        return header;
-    }
-
-
     /**
      * From paper:
      * Estimating sleep parameters using an accelerometer without sleep diary
@@ -564,22 +800,19 @@ public class Features {
      * avgArmAngel is only defined for epoch_length >= 5 sec and avgArmAngelAbsDiff
      * is only defined for epoch_length >= 10 sec. If epoch_length is not valid, we will return 0.
      * For more details, please refer to the references above.
+     * The 5-sec rolling medians of x/y/z are null if the epoch is shorter.
      */
-    private static double[] calculateArmFeatures(double[] x,
-                                                 double[] y,
-                                                 double[] z,
+    private static double[] calculateArmFeatures(double[] rollingMedianX,
+                                                 double[] rollingMedianY,
+                                                 double[] rollingMedianZ,
+                                                 int n,
                                                  int sampleRate) {
-        int window_len = 5; // 5-sec
-        if (x.length / sampleRate < window_len) {
+        if (rollingMedianX == null) {
             return new double[] {
                     0, 0 // if less than 5sec, just return zeros
             };
         } else {
-            // 1. 5-sec rolling medians
-            int k = window_len * sampleRate;
-            double[] rollingMedianX = medianSlidingWindow(x, k);
-            double[] rollingMedianY = medianSlidingWindow(y, k);
-            double[] rollingMedianZ = medianSlidingWindow(z, k);
+            // 1. 5-sec rolling medians (see Intermediates)
 
             // 2. compute arm angel
             double[] angelZ = new double[rollingMedianX.length];
@@ -596,12 +829,11 @@ public class Features {
             // 4. Absolute difference between successive values
             //    ill-defined when we have fewer 10 sec for the epoch length
             double avgArmAngelAbsDiff = 0;
-            if (x.length/sampleRate >= 10) {
+            if (n/sampleRate >= 10) {
                 double[] absoluteAvgDiff = computeAbsoluteDiff(fiveSecAvg);
                 avgArmAngelAbsDiff = AccStats.mean(absoluteAvgDiff);
             }
 
-            // don't forget to change header method immediately below !!!
             return new double[]{
                     avgArmAngel,
                     avgArmAngelAbsDiff
@@ -609,33 +841,11 @@ public class Features {
         }
     }
 
-    private static String getArmFeaturesHeader(){
-        String header = "avgArmAngel,avgArmAngelAbsDiff";
-        return header;
-    }
-
     /**
      * Obtain the rolling window median of window of size k
      */
     public static double[] medianSlidingWindow(double[] nums, int k) {
-        double[] res=new double[nums.length-k+1];
-        List<Double> list = new ArrayList<Double>();
-        for(int i=0;i<k;i++){
-            list.add(nums[i]);
-        }
-        Collections.sort(list);
-        res[0]=(k%2==0)?((double)list.get(k/2-1)+(double)list.get(k/2))/2:list.get(k/2);
-        for(int i=0;i<nums.length-k;i++){
-            double left=nums[i];
-            double right=nums[i+k];
-            int index=Collections.binarySearch(list,right);
-            if(index>=0) list.add(index,right);
-            else list.add(-index-1,right);
-            index=Collections.binarySearch(list,left);
-            list.remove(index);
-            res[i+1]=(k%2==0)?((double)list.get(k/2-1)+(double)list.get(k/2))/2:list.get(k/2);
-        }
-        return res;
+        return SlidingMedian.medians(nums, k);
     }
 
     private static double[] computeFiveSecAvg(double[] x, int sampleRate) {
@@ -3,17 +3,28 @@ import java.util.List;
 
 // (This inner class should probably be in another file)
 // [dgj] Butterworth 4th-order lowpass filter
+// Each filter keeps its own coefficients and state, so is not safe to use
+// from several threads at once, but separate filters are independent.
 public class Filter {
 
 	protected final static int BUTTERWORTH4_ORDER = 4;
-	protected static int BUTTERWORTH4_NUM_COEFFICIENTS;
+	// Number of B and A coefficients (set by each filter, not shared)
+	protected int numCoefficients;
 
     // Filter coefficients
     protected double B[];
     protected double A[];
+
+	// The same filter as a cascade of second-order sections (biquads),
+	// each {b0, b1, b2, a1, a2} (with a0 = 1)
+	protected double sos[][];
+	// Apply the second-order sections in filter() rather than B and A
+	protected boolean useSos = false;
     
 	// Final/initial conditions
     protected double z[];
+	// ... of the second-order sections, when used by filter()
+	protected double sosZ[];
 	
 	
 	// Reset state tracking
@@ -21,22 +32,95 @@ public class Filter {
 		for (int i = 0; i < z.length; i++) { 
 			z[i] = 0; 
 		}
+		if (sosZ != null) {
+			Arrays.fill(sosZ, 0);
+		}
 	}
 	
 	// Apply the filter to the specified data
 	public void filter(double[] X, int offset, int count) {
+		if (useSos) {
+			filterSos(X, offset, count, sosZ);
+			return;
+		}
 		int i, j;
 		
-		z[BUTTERWORTH4_NUM_COEFFICIENTS - 1] = 0;
+		z[numCoefficients - 1] = 0;
 		for (i = offset; i < offset + count; i++) {
 			double oldXm = X[i];
 			double newXm = B[0] * oldXm + z[0];
-			for (j = 1; j < BUTTERWORTH4_NUM_COEFFICIENTS; j++) {
+			for (j = 1; j < numCoefficients; j++) {
 				z[j - 1] = B[j] * oldXm + z[j] - A[j] * newXm;
 			}
 			X[i] = newXm;
 		}
 	}
+
+
+	// New (zero) state for filterSos(): two values per second-order section
+	public double[] newSosState() {
+		return new double[2 * sos.length];
+	}
+
+
+	// Apply the second-order sections to the specified data, starting from
+	// 'state' and leaving it at the end of the data (so that it can be
+	// carried on to the next block of data, e.g. the next epoch)
+	public void filterSos(double[] X, int offset, int count, double[] state) {
+		for (int k = 0; k < sos.length; k++) {
+			double[] s = sos[k];
+			double b0 = s[0], b1 = s[1], b2 = s[2], a1 = s[3], a2 = s[4];
+			double z1 = state[2 * k];
+			double z2 = state[2 * k + 1];
+			for (int i = offset; i < offset + count; i++) {
+				double x = X[i];
+				double y = b0 * x + z1;
+				z1 = b1 * x - a1 * y + z2;
+				z2 = b2 * x - a2 * y;
+				X[i] = y;
+			}
+			state[2 * k] = z1;
+			state[2 * k + 1] = z2;
+		}
+	}
+
+
+	// Apply the second-order sections to several channels (e.g. x/y/z/ENMO)
+	// in one loop over the samples, each channel c with its own states[c]
+	public void filterSos(double[][] X, int offset, int count, double[][] states) {
+		int numSections = sos.length;
+		for (int i = offset; i < offset + count; i++) {
+			for (int c = 0; c < X.length; c++) {
+				double[] state = states[c];
+				double y = X[c][i];
+				for (int k = 0; k < numSections; k++) {
+					double[] s = sos[k];
+					double x = y;
+					y = s[0] * x + state[2 * k];
+					state[2 * k] = s[1] * x - s[3] * y + state[2 * k + 1];
+					state[2 * k + 1] = s[2] * x - s[4] * y;
+				}
+				X[c][i] = y;
+			}
+		}
+	}
+
+
+	// Set the second-order sections from one pole of each complex conjugate
+	// pair (poles[2k] + i poles[2k+1]), with numerators B[0]^(1/n) (1, b1, b2)
+	// between them, where B = B[0] (1 + b1 z^-1 + b2 z^-2)^n
+	protected void setSecondOrderSections(double[] poles, double b1, double b2) {
+		int n = poles.length / 2;
+		double gain = Math.pow(Math.abs(B[0]), 1.0 / n);
+		sos = new double[n][];
+		for (int k = 0; k < n; k++) {
+			double re = poles[2 * k];
+			double im = poles[2 * k + 1];
+			double g = (k == 0) ? Math.signum(B[0]) * gain : gain;
+			sos[k] = new double[] { g, g * b1, g * b2, -2 * re, re * re + im * im };
+		}
+		sosZ = newSosState();
+	}
 	
 	// Additionally, returns the filtered-out signal
 	public double[] filterWithRemainder(double[] X, int offset, int count) {
@@ -1,8 +1,19 @@
 
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.time.format.DateTimeFormatter;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 
 /**
@@ -10,6 +21,10 @@ import java.time.LocalDateTime;
  */
 public class GENEActivReader extends DeviceReader {
 
+    private static final String PAGE_START = "Recorded Data";
+    // bytes of the file per run of pages decoded by one task
+    private static final long GENEA_RUN_SIZE = 1024 * 1024;
+
     /**
      * Read GENEA bin file pages, then call method to write epochs from raw
      * data. Epochs will be written to epochFileWriter.
@@ -36,16 +51,19 @@ public class GENEActivReader extends DeviceReader {
             double[] mfrGain = new double[3];
             int[] mfrOffset = new int[3];
             // memory size in pages
-            int memSizePages = parseBinFileHeader(rawAccReader, fileHeaderSize, linesToAxesCalibration, mfrGain, mfrOffset);
+            int memSizePages = parseBinFileHeader(() -> readLine(rawAccReader),
+                fileHeaderSize, linesToAxesCalibration, mfrGain, mfrOffset);
 
             int pageCount = 1;
             String header;
             LocalDateTime blockTime = LocalDateTime.of(1999, 1, 1, 1, 1, 1);
+            long sampleTime = dateTimeToLocalNanos(blockTime); // local time in nanos
             double temperature = 0.0;
             double sampleFreq = 0.0;
             String dataBlock;
             String timeFmtStr = "yyyy-MM-dd HH:mm:ss:SSS";
             DateTimeFormatter timeFmt = DateTimeFormatter.ofPattern(timeFmtStr);
+            SampleBatch samples = new SampleBatch();
             while ((readLine(rawAccReader)) != null) {
                 // header: "Recorded Data" (0), serialCode (1), seq num (2),
                 // pageTime (3), unassigned (4), temp (5), batteryVolt (6),
@@ -59,6 +77,7 @@ public class GENEActivReader extends DeviceReader {
                         if (i == 3) {
                             blockTime = LocalDateTime.parse(header.split("Time:")[1], timeFmt);
                             blockTime = blockTime.plusMinutes(timeShift);
+                            sampleTime = dateTimeToLocalNanos(blockTime);
 
                             if (pageCount == 1) {
                                 setSessionStart(blockTime);
@@ -79,11 +98,13 @@ public class GENEActivReader extends DeviceReader {
                 dataBlock = readLine(rawAccReader);
 
                 // raw reading values
-                long t = 0;  // Unix time in millis
+                long t = 0;  // Unix time in nanos
+                long sampleStep = secs2Nanos(1.0 / sampleFreq);
                 int hexPosition = 0;
                 int xRaw = 0;
                 int yRaw = 0;
                 int zRaw = 0;
+                samples.clear();
                 double x = 0.0;
                 double y = 0.0;
                 double z = 0.0;
@@ -98,8 +119,8 @@ public class GENEActivReader extends DeviceReader {
                         yRaw = getSignedIntFromHex(dataBlock, hexPosition + 3, 3);
                         zRaw = getSignedIntFromHex(dataBlock, hexPosition + 6, 3);
                     } catch (Exception excep) {
-                        errCounter[0] += 1;
-                        System.err.println("block err @ " + blockTime.toString() + ": " + excep.toString());
+                        samples.addError();
+                        System.err.println("block err @ " + localNanosToDateTime(sampleTime).toString() + ": " + excep.toString());
                         break; // rest of block/page could be corrupted
                     }
                     // todo *** read in light[36:46] (10 bits to signed int) and
@@ -111,12 +132,13 @@ public class GENEActivReader extends DeviceReader {
                     y = (yRaw * 100.0d - mfrOffset[1]) / mfrGain[1];
                     z = (zRaw * 100.0d - mfrOffset[2]) / mfrGain[2];
 
-                    t = zonedWithDSTCorrection(blockTime).toInstant().toEpochMilli();
-                    epochWriter.newValues(t, x, y, z, temperature, errCounter);
+                    t = localNanosToEpochNanos(sampleTime);
+                    samples.add(t, x, y, z, temperature);
 
                     hexPosition += 12;
-                    blockTime = blockTime.plusNanos(secs2Nanos(1.0 / sampleFreq));
+                    sampleTime += sampleStep;
                 }
+                samples.writeTo(epochWriter, errCounter);
                 // option to provide status update to user...
                 pageCount++;
                 if (verbose && pageCount % 10000 == 0) {
@@ -132,6 +154,449 @@ public class GENEActivReader extends DeviceReader {
     }
 
 
+    /**
+     * Read GENEA bin file pages from a memory-mapped file, decoding the
+     * header fields and hex data of each page in place, rather than via
+     * String/split/parseInt as readGeneaEpochs() does. Output is the same.
+     */
+    public static void readGeneaEpochsMapped(
+        String accFile,
+        String timeZone,
+        int timeShift,
+        EpochWriter epochWriter,
+        Boolean verbose) {
+
+        setTimeSettings(timeZone, timeShift);
+
+        int fileHeaderSize = 59;
+        int linesToAxesCalibration = 47;
+        // epoch creation support variables
+        int[] errCounter = new int[] { 0 }; // store val if updated in other
+                                            // method
+
+        try ( FileInputStream accStream = new FileInputStream(accFile); ) {
+            FileChannel channel = accStream.getChannel();
+            MappedLineReader rawAccReader = new MappedLineReader(channel);
+            // Read header to determine mfrGain and mfrOffset values
+            double[] mfrGain = new double[3];
+            int[] mfrOffset = new int[3];
+            // memory size in pages
+            int memSizePages = parseBinFileHeader(() -> readLine(rawAccReader),
+                fileHeaderSize, linesToAxesCalibration, mfrGain, mfrOffset);
+
+            GeneaPage page = new GeneaPage();
+            SampleBatch samples = new SampleBatch();
+            int pageCount = 1;
+            while (rawAccReader.next() && readGeneaPage(rawAccReader, page, pageCount == 1)) {
+                samples.clear();
+                decodeGeneaData(rawAccReader.buffer(), rawAccReader.start(),
+                    rawAccReader.end(), page, mfrGain, mfrOffset, samples);
+                samples.writeTo(epochWriter, errCounter);
+                // option to provide status update to user...
+                pageCount++;
+                if (verbose && pageCount % 10000 == 0) {
+                    System.out.print((pageCount * 100 / memSizePages) + "%\t");
+                }
+            }
+        } catch (Exception excep) {
+            excep.printStackTrace(System.err);
+            System.err.println("error reading/writing file " + accFile + ": " + excep.toString());
+            System.exit(-2);
+        }
+    }
+
+
+    /**
+     * Read GENEA bin file pages as readGeneaEpochsMapped() does, but decode
+     * runs of pages on numThreads threads. Sample times are computed from
+     * their own page's time, so runs can be decoded independently and are
+     * then passed to epochWriter in file order.
+     */
+    public static void readGeneaEpochsParallel(
+        String accFile,
+        String timeZone,
+        int timeShift,
+        EpochWriter epochWriter,
+        int numThreads,
+        Boolean verbose) {
+
+        setTimeSettings(timeZone, timeShift);
+
+        int fileHeaderSize = 59;
+        int linesToAxesCalibration = 47;
+        // epoch creation support variables
+        int[] errCounter = new int[] { 0 }; // store val if updated in other
+                                            // method
+
+        try ( FileInputStream accStream = new FileInputStream(accFile); ) {
+            FileChannel channel = accStream.getChannel();
+            MappedLineReader rawAccReader = new MappedLineReader(channel);
+            // Read header to determine mfrGain and mfrOffset values
+            double[] mfrGain = new double[3];
+            int[] mfrOffset = new int[3];
+            // memory size in pages
+            int memSizePages = parseBinFileHeader(() -> readLine(rawAccReader),
+                fileHeaderSize, linesToAxesCalibration, mfrGain, mfrOffset);
+            if (!rawAccReader.next()) {
+                return; // no pages
+            }
+
+            // split the pages into runs of about GENEA_RUN_SIZE bytes
+            long dataStart = rawAccReader.position();
+            long fileSize = channel.size();
+            List<GeneaPageRun> runs = new ArrayList<GeneaPageRun>();
+            for (long start = dataStart; start < fileSize; start += GENEA_RUN_SIZE) {
+                runs.add(new GeneaPageRun(channel, start,
+                    Math.min(start + GENEA_RUN_SIZE, fileSize), start == dataStart,
+                    mfrGain, mfrOffset));
+            }
+
+            // header values after the last page passed to epochWriter
+            GeneaPage[] state = { new GeneaPage() };
+            long[] pagesDone = { 0 };
+            Consumer<GeneaPageRun> writeRun = run -> {
+                if (run.page.needsPrevious) {
+                    // a header value of its first page must be carried over
+                    try {
+                        run.decode(state[0].copy());
+                    } catch (IOException excep) {
+                        throw new UncheckedIOException(excep);
+                    }
+                }
+                run.samples.writeTo(epochWriter, errCounter);
+                run.samples = null; // allow run's memory to be reclaimed
+                if (run.numPages > 0) {
+                    state[0] = run.page;
+                }
+                // option to provide status update to user...
+                long prevPageCount = pagesDone[0];
+                pagesDone[0] += run.numPages;
+                if (verbose && pagesDone[0] / 10000 != prevPageCount / 10000) {
+                    System.out.print((pagesDone[0] * 100 / memSizePages) + "%\t");
+                }
+            };
+
+            // the first run sets the session start, which later times depend on
+            writeRun.accept(runs.get(0).decode(state[0].copy()));
+            Iterator<GeneaPageRun> remaining = runs.subList(1, runs.size()).iterator();
+            decodeInOrder(numThreads,
+                new Iterator<Callable<GeneaPageRun>>() {
+                    public boolean hasNext() {
+                        return remaining.hasNext();
+                    }
+                    public Callable<GeneaPageRun> next() {
+                        GeneaPageRun run = remaining.next();
+                        return () -> run.decode(null);
+                    }
+                },
+                writeRun);
+        } catch (Exception excep) {
+            excep.printStackTrace(System.err);
+            System.err.println("error reading/writing file " + accFile + ": " + excep.toString());
+            System.exit(-2);
+        }
+    }
+
+
+    /**
+     * Page header values, which carry over to the next page if a header
+     * line can't be parsed
+    **/
+    private static class GeneaPage {
+        long sampleTime = dateTimeToLocalNanos(LocalDateTime.of(1999, 1, 1, 1, 1, 1));
+        double temperature = 0.0;
+        double sampleFreq = 0.0;
+        // true until a page has been read without header errors, when the
+        // values to carry over are from pages that haven't been decoded yet
+        boolean unknown = false;
+        // set if reading stopped at a header error while unknown
+        boolean needsPrevious = false;
+
+        GeneaPage copy() {
+            GeneaPage page = new GeneaPage();
+            page.sampleTime = sampleTime;
+            page.temperature = temperature;
+            page.sampleFreq = sampleFreq;
+            return page;
+        }
+    }
+
+
+    /**
+     * Pages from the first page starting in [start, end) of a GENEA bin file
+     * to the last one starting before end, and the samples decoded from them
+     * by readGeneaEpochsParallel()
+    **/
+    private static class GeneaPageRun {
+        final FileChannel channel;
+        final long start;
+        final long end;
+        final boolean firstRun; // start is that of the first page
+        final double[] mfrGain;
+        final int[] mfrOffset;
+
+        SampleBatch samples;
+        GeneaPage page; // header values after the last page of this run
+        int numPages;
+
+        GeneaPageRun(FileChannel channel, long start, long end, boolean firstRun,
+            double[] mfrGain, int[] mfrOffset) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.firstRun = firstRun;
+            this.mfrGain = mfrGain;
+            this.mfrOffset = mfrOffset;
+        }
+
+        /**
+         * Decode this run's pages, starting from the header values 'previous'
+         * left by the pages before it, or if null (not known yet) stopping
+         * with page.needsPrevious set if they turn out to be needed.
+        **/
+        GeneaPageRun decode(GeneaPage previous) throws IOException {
+            page = previous;
+            if (page == null) {
+                page = new GeneaPage();
+                page.unknown = true;
+            }
+            samples = new SampleBatch();
+            numPages = 0;
+            MappedLineReader reader;
+            if (firstRun) {
+                reader = new MappedLineReader(channel, start, 2 * GENEA_RUN_SIZE);
+                if (!reader.next()) {
+                    return this;
+                }
+            } else {
+                // skip to the first "Recorded Data" line starting at or after start
+                reader = new MappedLineReader(channel, start - 1, 2 * GENEA_RUN_SIZE);
+                reader.next();
+                do {
+                    if (!reader.next()) {
+                        return this;
+                    }
+                } while (reader.end() - reader.start() != PAGE_START.length()
+                    || indexOf(reader.buffer(), reader.start(), reader.end(), PAGE_START) < 0);
+            }
+            while (reader.position() < end
+                    && readGeneaPage(reader, page, firstRun && numPages == 0)) {
+                page.unknown = false;
+                decodeGeneaData(reader.buffer(), reader.start(), reader.end(),
+                    page, mfrGain, mfrOffset, samples);
+                numPages++;
+                if (!reader.next()) {
+                    break;
+                }
+            }
+            return this;
+        }
+    }
+
+
+    /**
+     * Read the header lines of the page whose first line ("Recorded Data")
+     * reader is at into 'page', leaving reader at the page's hex data line.
+     * Returns false at the end of the file, or at a header error if
+     * page.unknown (setting page.needsPrevious).
+    **/
+    private static boolean readGeneaPage(MappedLineReader reader, GeneaPage page,
+        boolean firstPage) throws IOException
+    {
+        int pageHeaderSize = 9;
+        // header: "Recorded Data" (0), serialCode (1), seq num (2),
+        // pageTime (3), unassigned (4), temp (5), batteryVolt (6),
+        // deviceStatus (7), sampleFreq (8),
+        // Then: dataBlock (9)
+        for (int i = 1; i < pageHeaderSize; i++) {
+            if (!reader.next()) {
+                return false;
+            }
+            try {
+                ByteBuffer buf = reader.buffer();
+                if (i == 3) {
+                    page.sampleTime = parseGeneaPageTime(buf, reader.start(), reader.end());
+                    if (firstPage) {
+                        setSessionStart(localNanosToDateTime(page.sampleTime));
+                        System.out.println("Session start: " + sessionStart);
+                    }
+                } else if (i == 5) {
+                    page.temperature = parseGeneaHeaderValue(buf, reader.start(), reader.end());
+                } else if (i == 8) {
+                    page.sampleFreq = parseGeneaHeaderValue(buf, reader.start(), reader.end());
+                }
+            } catch (Exception excep) {
+                if (page.unknown) {
+                    page.needsPrevious = true;
+                    return false;
+                }
+                System.err.println(excep.toString());
+                continue; // to keep reading sequence correct
+            }
+        }
+        // now at hex dataBlock
+        return reader.next();
+    }
+
+
+    // Local time (nanos, with timeShift) from a "Page Time:yyyy-MM-dd HH:mm:ss:SSS" line
+    private static long parseGeneaPageTime(ByteBuffer buf, int start, int end) {
+        int p = indexOf(buf, start, end, "Time:") + 5;
+        if (p >= 5 && end - p == 23 && indexOf(buf, p, end, "Time:") < 0
+                && isDigits(buf, p, 4) && buf.get(p + 4) == '-'
+                && isDigits(buf, p + 5, 2) && buf.get(p + 7) == '-'
+                && isDigits(buf, p + 8, 2) && buf.get(p + 10) == ' '
+                && isDigits(buf, p + 11, 2) && buf.get(p + 13) == ':'
+                && isDigits(buf, p + 14, 2) && buf.get(p + 16) == ':'
+                && isDigits(buf, p + 17, 2) && buf.get(p + 19) == ':'
+                && isDigits(buf, p + 20, 3)) {
+            int year = digits(buf, p, 4);
+            int month = digits(buf, p + 5, 2);
+            int day = digits(buf, p + 8, 2);
+            int hour = digits(buf, p + 11, 2);
+            int minute = digits(buf, p + 14, 2);
+            int second = digits(buf, p + 17, 2);
+            int millis = digits(buf, p + 20, 3);
+            if (month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month)
+                    && hour <= 23 && minute <= 59 && second <= 59) {
+                long localSecs = ((epochDay(year, month, day) * 24 + hour) * 60 + minute) * 60
+                    + second + timeShift * 60L;
+                return localSecs * NANOS_PER_SECOND + millis * NANOS_PER_MILLI;
+            }
+        }
+        // anything else is parsed (or rejected) as by readGeneaEpochs()
+        String header = MappedLineReader.toString(buf, start, end);
+        DateTimeFormatter timeFmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss:SSS");
+        LocalDateTime blockTime = LocalDateTime.parse(header.split("Time:")[1], timeFmt);
+        return dateTimeToLocalNanos(blockTime.plusMinutes(timeShift));
+    }
+
+
+    // value of a "Name:value" header line, as Double.parseDouble(header.split(":")[1])
+    private static double parseGeneaHeaderValue(ByteBuffer buf, int start, int end) {
+        int p = indexOf(buf, start, end, ":");
+        int valueEnd = p < 0 ? -1 : indexOf(buf, p + 1, end, ":");
+        if (valueEnd < 0) {
+            valueEnd = end;
+        }
+        if (p > start && valueEnd > p + 1) {
+            return parseDouble(buf, p + 1, valueEnd);
+        }
+        // no value, or leading ':', where split() gives a different element
+        String header = MappedLineReader.toString(buf, start, end);
+        return Double.parseDouble(header.split(":")[1]);
+    }
+
+
+    /**
+     * Decode a page of hex data: 12 hex digits per sample, holding 12-bit
+     * x/y/z values (then light and button, ignored), and add the calibrated
+     * samples to 'samples'. Sample i is at page time + i / sampleFreq.
+    **/
+    private static void decodeGeneaData(ByteBuffer buf, int start, int end,
+        GeneaPage page, double[] mfrGain, int[] mfrOffset, SampleBatch samples)
+    {
+        long pageTime = page.sampleTime;
+        long sampleStep = secs2Nanos(1.0 / page.sampleFreq);
+        int[] xyz = new int[3];
+        int i = 0;
+        for (int p = start; p < end; p += 12, i++) {
+            if (!hexSample(buf, p, end, xyz)) {
+                // not 3 plain hex values: decode exactly as readGeneaEpochs()
+                String dataBlock = MappedLineReader.toString(buf, start, end);
+                try {
+                    xyz[0] = getSignedIntFromHex(dataBlock, p - start, 3);
+                    xyz[1] = getSignedIntFromHex(dataBlock, p - start + 3, 3);
+                    xyz[2] = getSignedIntFromHex(dataBlock, p - start + 6, 3);
+                } catch (Exception excep) {
+                    samples.addError();
+                    System.err.println("block err @ "
+                        + localNanosToDateTime(pageTime + i * sampleStep).toString()
+                        + ": " + excep.toString());
+                    break; // rest of block/page could be corrupted
+                }
+            }
+            // update values to calibrated measure (taken from GENEActiv
+            // manual)
+            double x = (xyz[0] * 100.0d - mfrOffset[0]) / mfrGain[0];
+            double y = (xyz[1] * 100.0d - mfrOffset[1]) / mfrGain[1];
+            double z = (xyz[2] * 100.0d - mfrOffset[2]) / mfrGain[2];
+
+            long t = localNanosToEpochNanos(pageTime + i * sampleStep);
+            samples.add(t, x, y, z, page.temperature);
+        }
+        // next page continues from here if its time can't be parsed
+        page.sampleTime = pageTime + i * sampleStep;
+    }
+
+
+    // value of each hex digit, or -1
+    private static final byte[] HEX_VALUE = new byte[256];
+    static {
+        java.util.Arrays.fill(HEX_VALUE, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUE['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUE['a' + i] = (byte) (10 + i);
+            HEX_VALUE['A' + i] = (byte) (10 + i);
+        }
+    }
+
+
+    // read three 12-bit values from 9 hex digits at p, as getSignedIntFromHex()
+    private static boolean hexSample(ByteBuffer buf, int p, int end, int[] xyz) {
+        if (p + 9 > end) {
+            return false;
+        }
+        for (int axis = 0; axis < 3; axis++) {
+            int d0 = HEX_VALUE[buf.get(p) & 0xff];
+            int d1 = HEX_VALUE[buf.get(p + 1) & 0xff];
+            int d2 = HEX_VALUE[buf.get(p + 2) & 0xff];
+            if ((d0 | d1 | d2) < 0) {
+                return false;
+            }
+            int rawVal = (d0 << 8) | (d1 << 4) | d2;
+            xyz[axis] = rawVal > 2048 ? rawVal - 4096 : rawVal;
+            p += 3;
+        }
+        return true;
+    }
+
+
+    private static int indexOf(ByteBuffer buf, int start, int end, String s) {
+        for (int i = start; i <= end - s.length(); i++) {
+            int j = 0;
+            while (j < s.length() && buf.get(i + j) == s.charAt(j)) {
+                j++;
+            }
+            if (j == s.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private static boolean isDigits(ByteBuffer buf, int start, int n) {
+        for (int i = start; i < start + n; i++) {
+            if (buf.get(i) < '0' || buf.get(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static int digits(ByteBuffer buf, int start, int n) {
+        int value = 0;
+        for (int i = start; i < start + n; i++) {
+            value = value * 10 + (buf.get(i) - '0');
+        }
+        return value;
+    }
+
+
     /**
      * Replicates bin file header to epoch file, also calculates and returns
      * x/y/z gain/offset values along with number of pages of data in file bin
@@ -139,34 +604,45 @@ public class GENEActivReader extends DeviceReader {
      * http://www.geneactiv.org/wp-content/uploads/2014/03/
      * geneactiv_instruction_manual_v1.2.pdf
      */
-    private static int parseBinFileHeader(BufferedReader reader, int fileHeaderSize, int linesToAxesCalibration,
+    private static int parseBinFileHeader(Supplier<String> reader, int fileHeaderSize, int linesToAxesCalibration,
             double[] gainVals, int[] offsetVals) {
         // read first i lines in bin file to writer
         for (int i = 0; i < linesToAxesCalibration; i++) {
-            readLine(reader);
+            reader.get();
         }
         // read axes calibration lines for gain and offset values
         // data like -> x gain:25548 \n x offset:574 ... Volts:300 \n Lux:800
-        gainVals[0] = Double.parseDouble(readLine(reader).split(":")[1]); // xGain
-        offsetVals[0] = Integer.parseInt(readLine(reader).split(":")[1]); // xOffset
-        gainVals[1] = Double.parseDouble(readLine(reader).split(":")[1]); // y
-        offsetVals[1] = Integer.parseInt(readLine(reader).split(":")[1]); // y
-        gainVals[2] = Double.parseDouble(readLine(reader).split(":")[1]); // z
-        offsetVals[2] = Integer.parseInt(readLine(reader).split(":")[1]); // z
-        int volts = Integer.parseInt(readLine(reader).split(":")[1]); // volts
-        int lux = Integer.parseInt(readLine(reader).split(":")[1]); // lux
-        readLine(reader); // 9 blank
-        readLine(reader); // 10 memory status header
-        int memorySizePages = Integer.parseInt(readLine(reader).split(":")[1]); // 11
+        gainVals[0] = Double.parseDouble(reader.get().split(":")[1]); // xGain
+        offsetVals[0] = Integer.parseInt(reader.get().split(":")[1]); // xOffset
+        gainVals[1] = Double.parseDouble(reader.get().split(":")[1]); // y
+        offsetVals[1] = Integer.parseInt(reader.get().split(":")[1]); // y
+        gainVals[2] = Double.parseDouble(reader.get().split(":")[1]); // z
+        offsetVals[2] = Integer.parseInt(reader.get().split(":")[1]); // z
+        int volts = Integer.parseInt(reader.get().split(":")[1]); // volts
+        int lux = Integer.parseInt(reader.get().split(":")[1]); // lux
+        reader.get(); // 9 blank
+        reader.get(); // 10 memory status header
+        int memorySizePages = Integer.parseInt(reader.get().split(":")[1]); // 11
 
         // ignore remaining header lines in bin file
         for (int i = 0; i < fileHeaderSize - linesToAxesCalibration - 11; i++) {
-            readLine(reader);
+            reader.get();
         }
         return memorySizePages;
     }
 
 
+    private static String readLine(MappedLineReader reader) {
+        String line = "";
+        try {
+            line = reader.next() ? reader.line() : null;
+        } catch (Exception excep) {
+            System.err.println(excep.toString());
+        }
+        return line;
+    }
+
+
     private static String readLine(BufferedReader fReader) {
         String line = "";
         try {
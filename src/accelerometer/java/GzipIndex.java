@@ -0,0 +1,213 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Random access index for a gzip file: a list of access points, each being a
+ * deflate block boundary (as a bit offset in the file), its position in the
+ * uncompressed data, and the 32KB of uncompressed data preceding it. Any
+ * region of the uncompressed data can then be decoded starting from the
+ * nearest access point before it, instead of from the start of the file.
+ * The index is built by one full pass over the file, then saved alongside
+ * it (accFile + ".gzidx") and reused while the gzip file is unchanged.
+ */
+public class GzipIndex {
+
+    public static final String SUFFIX = ".gzidx";
+    // uncompressed bytes between access points
+    public static final long DEFAULT_SPAN = 1024 * 1024;
+    private static final int MAGIC = 0x677a6978; // "gzix"
+    private static final int VERSION = 1;
+
+    private final long gzLength;
+    private final long gzLastModified;
+    private long uncompressedSize;
+    private final List<Long> outPositions = new ArrayList<Long>();
+    private final List<Long> bitPositions = new ArrayList<Long>();
+    private final List<byte[]> windows = new ArrayList<byte[]>();
+
+
+    private GzipIndex(long gzLength, long gzLastModified) {
+        this.gzLength = gzLength;
+        this.gzLastModified = gzLastModified;
+    }
+
+
+    /**
+     * Load the saved index for gzFile, or build (and try to save) it if it
+     * is missing or out of date.
+    **/
+    public static GzipIndex loadOrBuild(String gzFile, boolean verbose)
+            throws IOException, DataFormatException {
+        File file = new File(gzFile);
+        File indexFile = new File(gzFile + SUFFIX);
+        if (indexFile.exists()) {
+            try {
+                GzipIndex index = load(indexFile);
+                if (index.gzLength == file.length()
+                        && index.gzLastModified == file.lastModified()) {
+                    return index;
+                }
+            } catch (IOException excep) {
+                System.err.println("ignoring unreadable gzip index " + indexFile
+                    + ": " + excep.toString());
+            }
+        }
+        if (verbose) {
+            System.out.println("building gzip index for " + gzFile);
+        }
+        GzipIndex index = build(gzFile, DEFAULT_SPAN);
+        try {
+            index.save(indexFile);
+        } catch (IOException excep) {
+            System.err.println("could not save gzip index " + indexFile
+                + ": " + excep.toString());
+        }
+        return index;
+    }
+
+
+    /**
+     * Decode the whole of gzFile, adding an access point at the first block
+     * boundary at least 'span' bytes after the previous one.
+    **/
+    public static GzipIndex build(String gzFile, long span)
+            throws IOException, DataFormatException {
+        File file = new File(gzFile);
+        GzipIndex index = new GzipIndex(file.length(), file.lastModified());
+        try (FileInputStream stream = new FileInputStream(file)) {
+            DeflateDecoder decoder = new DeflateDecoder(stream.getChannel());
+            decoder.run(d -> {
+                long outPos = d.outPosition();
+                int n = index.outPositions.size();
+                if (n == 0 || outPos - index.outPositions.get(n - 1) >= span) {
+                    index.outPositions.add(outPos);
+                    index.bitPositions.add(d.bitPosition());
+                    index.windows.add(d.window());
+                }
+            });
+            index.uncompressedSize = decoder.outPosition();
+        }
+        return index;
+    }
+
+
+    // total size of the uncompressed data
+    public long uncompressedSize() {
+        return uncompressedSize;
+    }
+
+
+    public int numAccessPoints() {
+        return outPositions.size();
+    }
+
+
+    // position in the uncompressed data of access point i
+    public long accessPoint(int i) {
+        return outPositions.get(i);
+    }
+
+
+    /**
+     * Decode the uncompressed bytes [start, start+len) of the file open on
+     * channel. Returns fewer than len bytes only at the end of the data.
+     * Safe to call from several threads at once.
+    **/
+    public byte[] read(FileChannel channel, long start, int len)
+            throws IOException, DataFormatException {
+        // last access point at or before start
+        int i = 0;
+        int hi = outPositions.size() - 1;
+        while (i < hi) {
+            int mid = (i + hi + 1) >>> 1;
+            if (outPositions.get(mid) <= start) {
+                i = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        DeflateDecoder decoder = new DeflateDecoder(channel);
+        decoder.resume(bitPositions.get(i), outPositions.get(i), windows.get(i));
+        byte[] data = new byte[len];
+        int n = decoder.read(start, data, len);
+        return n < len ? Arrays.copyOf(data, n) : data;
+    }
+
+
+    private void save(File indexFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(gzLength);
+            out.writeLong(gzLastModified);
+            out.writeLong(uncompressedSize);
+            out.writeInt(outPositions.size());
+            Deflater deflater = new Deflater();
+            byte[] buf = new byte[DeflateDecoder.WINDOW_SIZE + 1024];
+            for (int i = 0; i < outPositions.size(); i++) {
+                byte[] window = windows.get(i);
+                deflater.reset();
+                deflater.setInput(window);
+                deflater.finish();
+                int compressedLen = deflater.deflate(buf);
+                out.writeLong(outPositions.get(i));
+                out.writeLong(bitPositions.get(i));
+                out.writeInt(window.length);
+                out.writeInt(compressedLen);
+                out.write(buf, 0, compressedLen);
+            }
+            deflater.end();
+        }
+    }
+
+
+    private static GzipIndex load(File indexFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a gzip index (version " + VERSION + ")");
+            }
+            GzipIndex index = new GzipIndex(in.readLong(), in.readLong());
+            index.uncompressedSize = in.readLong();
+            int count = in.readInt();
+            Inflater inflater = new Inflater();
+            byte[] buf = new byte[DeflateDecoder.WINDOW_SIZE + 1024];
+            try {
+                for (int i = 0; i < count; i++) {
+                    index.outPositions.add(in.readLong());
+                    index.bitPositions.add(in.readLong());
+                    byte[] window = new byte[in.readInt()];
+                    int compressedLen = in.readInt();
+                    in.readFully(buf, 0, compressedLen);
+                    inflater.reset();
+                    inflater.setInput(buf, 0, compressedLen);
+                    if (inflater.inflate(window) != window.length) {
+                        throw new IOException("corrupt gzip index window");
+                    }
+                    index.windows.add(window);
+                }
+            } catch (DataFormatException excep) {
+                throw new IOException("corrupt gzip index window", excep);
+            } finally {
+                inflater.end();
+            }
+            return index;
+        }
+    }
+
+}
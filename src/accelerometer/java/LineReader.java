@@ -0,0 +1,26 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Reads a text file line by line as byte ranges of a buffer, so that lines
+ * can be parsed in place without creating Strings. Lines end at "\n", "\r"
+ * or "\r\n", as with BufferedReader.readLine().
+ */
+public interface LineReader {
+
+    /**
+     * Move to the next line, returning false at the end of the file
+    **/
+    boolean next() throws IOException;
+
+    // buffer holding the current line
+    ByteBuffer buffer();
+
+    // start (inclusive) of the current line in buffer()
+    int start();
+
+    // end (exclusive, before any line terminator) of the current line in buffer()
+    int end();
+
+}
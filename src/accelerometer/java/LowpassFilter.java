@@ -7,6 +7,14 @@ public class LowpassFilter extends Filter {
 	
 	// Constructs 4th order Butterworth lowpass filter with cutoff Fc at rate Fs.
 	public LowpassFilter(double Fc, double Fs, Boolean verbose)
+	{
+		this(Fc, Fs, false, verbose);
+	}
+
+
+	// As above, but if useSos, filter() applies the filter as two cascaded
+	// second-order sections rather than as B/A directly
+	public LowpassFilter(double Fc, double Fs, boolean useSos, Boolean verbose)
 	{
 		if (Fc >= (Fs / 2)) {
             System.out.format(
@@ -20,9 +28,10 @@ public class LowpassFilter extends Filter {
 		double W = Math.min( (Fc / (Fs / 2)), 0.999d);  // W cannot be > 1
 
 		// Create coefficients
-		BUTTERWORTH4_NUM_COEFFICIENTS = (BUTTERWORTH4_ORDER + 1);
-		B = new double[BUTTERWORTH4_NUM_COEFFICIENTS];
-		A = new double[BUTTERWORTH4_NUM_COEFFICIENTS];
+		numCoefficients = (BUTTERWORTH4_ORDER + 1);
+		B = new double[numCoefficients];
+		A = new double[numCoefficients];
+		this.useSos = useSos;
 		
 		// Calculate coefficients
 		CoefficientsButterworth4LP(W, B, A);
@@ -34,7 +43,7 @@ public class LowpassFilter extends Filter {
 		}
 		
 		// Create final/initial condition tracker
-		z = new double[BUTTERWORTH4_NUM_COEFFICIENTS];
+		z = new double[numCoefficients];
 		reset();
 	}
 
@@ -123,6 +132,16 @@ public class LowpassFilter extends Filter {
 			a[1] += b[2 * i + 1];
 		}
 
+		// Second-order sections: binomial i is (1 - p z^-1) for pole p = -b[2i..],
+		// and binomials i and ORDER-1-i have complex conjugate poles
+		double poles[] = new double[BUTTERWORTH4_ORDER];
+		for (i = 0; i < BUTTERWORTH4_ORDER / 2; i++)
+		{
+			poles[2 * i] = -b[2 * i];
+			poles[2 * i + 1] = -b[2 * i + 1];
+		}
+		setSecondOrderSections(poles, highpass ? -2 : 2, 1);
+
 		// Read out results as A coefficients for high-pass or low-pass filter.
 		A[1] = a[0];
 		A[0] = 1.0;
@@ -0,0 +1,153 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * LineReader over memory-mapped windows of a file. The file is mapped
+ * in windows that end on a line boundary, so every line lies within one
+ * window (and files > 2GB are supported). Lines end at "\n", "\r" or "\r\n",
+ * as with BufferedReader.readLine().
+ */
+public class MappedLineReader implements LineReader {
+
+    public static final long DEFAULT_WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long windowSize;
+    private long windowStart = 0; // file position of buf[0]
+    private long nextWindowStart = 0;
+    private ByteBuffer buf = null;
+    private int pos = 0;
+    private int lineStart = 0;
+    private int lineEnd = 0;
+
+
+    public MappedLineReader(FileChannel channel) throws IOException {
+        this(channel, 0, DEFAULT_WINDOW_SIZE);
+    }
+
+
+    public MappedLineReader(FileChannel channel, long start, long windowSize) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        this.windowSize = windowSize;
+        this.nextWindowStart = start;
+    }
+
+
+    /**
+     * Move to the next line, returning false at the end of the file
+    **/
+    public boolean next() throws IOException {
+        if (buf == null || pos >= buf.limit()) {
+            if (nextWindowStart >= fileSize) {
+                return false;
+            }
+            mapNextWindow();
+        }
+        lineStart = pos;
+        int limit = buf.limit();
+        int i = pos;
+        byte b = 0;
+        while (i < limit && (b = buf.get(i)) != '\n' && b != '\r') {
+            i++;
+        }
+        lineEnd = i;
+        if (i < limit) {
+            i++;
+            if (b == '\r' && i < limit && buf.get(i) == '\n') {
+                i++;
+            }
+        }
+        pos = i;
+        return true;
+    }
+
+
+    // window holding the current line
+    public ByteBuffer buffer() {
+        return buf;
+    }
+
+
+    // start (inclusive) of the current line in buffer()
+    public int start() {
+        return lineStart;
+    }
+
+
+    // end (exclusive, before any line terminator) of the current line in buffer()
+    public int end() {
+        return lineEnd;
+    }
+
+
+    // file position of the start of the current line
+    public long position() {
+        return windowStart + lineStart;
+    }
+
+
+    public String line() {
+        return toString(buf, lineStart, lineEnd);
+    }
+
+
+    public static String toString(ByteBuffer buf, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buf.get(i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+
+    /**
+     * Map the next window of the file, ending it after its last line
+     * terminator unless it reaches the end of the file.
+    **/
+    private void mapNextWindow() throws IOException {
+        windowStart = nextWindowStart;
+        long size = Math.min(windowSize, fileSize - windowStart);
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+        int limit = (int) size;
+        if (windowStart + size < fileSize) {
+            limit = lastLineEnd(window, (int) size);
+            if (limit == 0) {
+                // line longer than the window: map it whole
+                long lineSize = windowSize;
+                while (limit == 0 && windowStart + lineSize < fileSize) {
+                    lineSize = Math.min(lineSize * 2, fileSize - windowStart);
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, lineSize);
+                    limit = windowStart + lineSize < fileSize
+                        ? lastLineEnd(window, (int) lineSize) : (int) lineSize;
+                }
+            }
+        }
+        window.limit(limit);
+        buf = window;
+        pos = 0;
+        nextWindowStart = windowStart + limit;
+    }
+
+
+    // position after the last "\n" (or lone "\r") in buf[0, size), or 0 if none
+    private int lastLineEnd(ByteBuffer window, int size) {
+        for (int i = size - 1; i >= 0; i--) {
+            byte b = window.get(i);
+            if (b == '\n') {
+                return i + 1;
+            }
+            // a "\r" is only a line end here if not followed by "\n"
+            if (b == '\r' && i < size - 1) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+}
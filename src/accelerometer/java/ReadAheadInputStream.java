@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * InputStream that reads (e.g. inflates) its source on a separate thread.
+ * The reader thread fills a fixed set of large buffers, which are handed to
+ * the consumer through a bounded queue and recycled once consumed, so
+ * decompression of the next chunk overlaps with parsing of the current one.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    public static final int DEFAULT_NUM_BUFFERS = 4;
+
+    private static class Chunk {
+        final byte[] data;
+        int length; // -1 marks end of stream
+
+        Chunk(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private final InputStream in;
+    private final BlockingQueue<Chunk> filled;
+    private final BlockingQueue<Chunk> empty;
+    private final Thread readerThread;
+    private volatile Throwable readError = null; // what ended the reader thread
+    private volatile boolean closed = false;
+
+    private Chunk current = null;
+    private int pos = 0;
+    private boolean eof = false;
+
+
+    public ReadAheadInputStream(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE, DEFAULT_NUM_BUFFERS);
+    }
+
+
+    public ReadAheadInputStream(InputStream in, int bufferSize, int numBuffers) {
+        this.in = in;
+        filled = new ArrayBlockingQueue<Chunk>(numBuffers + 1);
+        empty = new ArrayBlockingQueue<Chunk>(numBuffers);
+        for (int i = 0; i < numBuffers; i++) {
+            empty.add(new Chunk(bufferSize));
+        }
+        readerThread = new Thread(this::fill, "read-ahead");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+
+    // reader thread: fill each free buffer completely, unless at end of stream.
+    // The end marker is queued however the thread ends, so that the consumer
+    // never waits for it forever.
+    private void fill() {
+        try {
+            while (!closed) {
+                Chunk chunk = empty.take();
+                int n = 0;
+                int len;
+                try {
+                    while (n < chunk.data.length
+                            && (len = in.read(chunk.data, n, chunk.data.length - n)) != -1) {
+                        n += len;
+                    }
+                } catch (Throwable excep) {
+                    // the bytes read before the error are still passed on
+                    readError = excep;
+                }
+                chunk.length = n;
+                if (n > 0) {
+                    filled.put(chunk);
+                }
+                if (n < chunk.data.length || readError != null) {
+                    break;
+                }
+            }
+        } catch (InterruptedException excep) {
+            // closed
+        } finally {
+            // (there is always room for it, as there is one more place in
+            // 'filled' than there are buffers)
+            Chunk end = new Chunk(0);
+            end.length = -1;
+            filled.offer(end);
+        }
+    }
+
+
+    // make sure 'current' has unread bytes, returns false at end of stream
+    private boolean nextChunk() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (current != null && pos < current.length) {
+            return true;
+        }
+        if (current != null) {
+            empty.offer(current);
+            current = null;
+        }
+        Chunk chunk;
+        try {
+            chunk = filled.take();
+        } catch (InterruptedException excep) {
+            throw new IOException("interrupted while waiting for data", excep);
+        }
+        if (chunk.length == -1) {
+            eof = true;
+            Throwable error = readError;
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            }
+            return false;
+        }
+        current = chunk;
+        pos = 0;
+        return true;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        return current.data[pos++] & 0xff;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current.data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+
+    /**
+     * Read up to len bytes, only returning fewer at the end of the stream.
+     * Returns -1 if the stream has already ended.
+    **/
+    public int readFully(byte[] b, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int count = read(b, off + n, len - n);
+            if (count == -1) {
+                break;
+            }
+            n += count;
+        }
+        return (n == 0 && len > 0) ? -1 : n;
+    }
+
+
+    @Override
+    public int available() {
+        return (current != null && !eof) ? current.length - pos : 0;
+    }
+
+
+    // stop the reader thread (once it is done with its current read), and
+    // only then close the source, which it may be reading from
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        readerThread.interrupt();
+        boolean interrupted = false;
+        while (readerThread.isAlive()) {
+            try {
+                readerThread.join();
+            } catch (InterruptedException excep) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        in.close();
+    }
+
+}
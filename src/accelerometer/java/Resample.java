@@ -1,77 +1,62 @@
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
 
 public class Resample{
 
     //inspired by http://www.java2s.com/Code/Java/Collections-Data-Structure/LinearInterpolation.htm
     //in small tests this method has matched python scipy.interpolate.interp1d
     //http://docs.scipy.org/doc/scipy/reference/tutorial/interpolate.html
+    //Both time and timeI must be in (non-decreasing) time order, so that the
+    //two can be walked together in one pass. Repeated times need no
+    //patching: the interval used always has time[j] < time[j+1], and at a
+    //repeated time the last of its values is used. time isn't modified.
     public static final void interpLinear(
-            List<Long> time, //time in milliseconds
-            List<Double> x,
-            List<Double> y,
-            List<Double> z,
-            long[] timeI, //time in milliseconds
+            long[] time, //time in nanoseconds
+            double[] x,
+            double[] y,
+            double[] z,
+            int n, //number of values in time/x/y/z
+            long[] timeI, //time in nanoseconds
             double[] xNew,
             double[] yNew,
             double[] zNew) throws IllegalArgumentException {
-        if (time.size() != x.size()) {
-            throw new IllegalArgumentException("time and x must be the same length");
-        }
-        if (time.size() == 1) {
+        if (n < 2) {
             throw new IllegalArgumentException("time must contain more than one value");
         }
-        double dtime;
-        double dx;
-        double dy;
-        double dz;
-        double[] xSlope = new double[time.size() - 1];
-        double[] ySlope = new double[time.size() - 1];
-        double[] zSlope = new double[time.size() - 1];
-        double[] xIntercept = new double[time.size() - 1];
-        double[] yIntercept = new double[time.size() - 1];
-        double[] zIntercept = new double[time.size() - 1];
-
-        // Calculate the line equation (i.e. slope and intercept) between each point
-        for (int i = time.size()-2; i >= 0; i--) {
-            dtime = time.get(i + 1) - time.get(i);
-            if (dtime <= 0){
-                time.set(i, time.get(i+1) - 1);
-                dtime = 1;
-            }
-            dx = x.get(i + 1) - x.get(i);
-            dy = y.get(i + 1) - y.get(i);
-            dz = z.get(i + 1) - z.get(i);
-            xSlope[i] = dx / dtime;
-            ySlope[i] = dy / dtime;
-            zSlope[i] = dz / dtime;
-            xIntercept[i] = x.get(i) - time.get(i) * xSlope[i];
-            yIntercept[i] = y.get(i) - time.get(i) * ySlope[i];
-            zIntercept[i] = z.get(i) - time.get(i) * zSlope[i];
-        }
 
-        // Perform the interpolation here
+        // Perform the interpolation here, with the line equation (i.e.
+        // slope and intercept) between time[j] <= timeI[i] < time[j+1]
+        int last = n - 1;
+        int j = 0;
+        double dtime;
+        double xSlope;
+        double ySlope;
+        double zSlope;
         for (int i = 0; i < timeI.length; i++) {
-            if (timeI[i] > time.get(time.size() - 1)) {
-                xNew[i] = x.get(time.size() - 1);
-                yNew[i] = y.get(time.size() - 1);
-                zNew[i] = z.get(time.size() - 1);
-            } else if (timeI[i] < time.get(0)) {
-                xNew[i] = x.get(0);
-                yNew[i] = y.get(0);
-                zNew[i] = z.get(0);
+            long t = timeI[i];
+            if (t > time[last]) {
+                xNew[i] = x[last];
+                yNew[i] = y[last];
+                zNew[i] = z[last];
+            } else if (t < time[0]) {
+                xNew[i] = x[0];
+                yNew[i] = y[0];
+                zNew[i] = z[0];
             } else {
-                int loc = Collections.binarySearch(time, timeI[i]);
-                if (loc < -1) {
-                    loc = -loc - 2;
-                    xNew[i] = xSlope[loc] * timeI[i] + xIntercept[loc];
-                    yNew[i] = ySlope[loc] * timeI[i] + yIntercept[loc];
-                    zNew[i] = zSlope[loc] * timeI[i] + zIntercept[loc];
+                while (j < last && time[j + 1] <= t) {
+                    j++;
                 }
-                else {
-                    xNew[i] = x.get(loc);
-                    yNew[i] = y.get(loc);
-                    zNew[i] = z.get(loc);
+                if (time[j] == t) {
+                    xNew[i] = x[j];
+                    yNew[i] = y[j];
+                    zNew[i] = z[j];
+                } else {
+                    dtime = time[j + 1] - time[j];
+                    xSlope = (x[j + 1] - x[j]) / dtime;
+                    ySlope = (y[j + 1] - y[j]) / dtime;
+                    zSlope = (z[j + 1] - z[j]) / dtime;
+                    xNew[i] = xSlope * t + (x[j] - time[j] * xSlope);
+                    yNew[i] = ySlope * t + (y[j] - time[j] * ySlope);
+                    zNew[i] = zSlope * t + (z[j] - time[j] * zSlope);
                 }
             }
         }
@@ -79,46 +64,47 @@ public class Resample{
 
 
     /** Nearest neighbor interpolation
+     *  Both t and tNew must be in (non-decreasing) time order
      */
     public static final void interpNearest(
-            List<Long> t, //time in milliseconds
-            List<Double> x,
-            List<Double> y,
-            List<Double> z,
-            long[] tNew, //time in milliseconds
+            long[] t, //time in nanoseconds
+            double[] x,
+            double[] y,
+            double[] z,
+            int n, //number of values in t/x/y/z
+            long[] tNew, //time in nanoseconds
             double[] xNew,
             double[] yNew,
             double[] zNew) throws IllegalArgumentException {
-        if (t.size() != x.size()) {
-            throw new IllegalArgumentException("time and x must be the same length");
-        }
-        if (t.size() == 1) {
+        if (n < 2) {
             throw new IllegalArgumentException("time must contain more than one value");
         }
 
+        int last = n - 1;
+        int next = 0; // index of the first element >= tNew[i]
         for (int i = 0; i < tNew.length; i++) {
-            int j = nearestIndex(t, tNew[i]);
-            xNew[i] = x.get(j);
-            yNew[i] = y.get(j);
-            zNew[i] = z.get(j);
+            long key = tNew[i];
+            int j;
+            if (key <= t[0]) {
+                j = 0;
+            } else if (key >= t[last]) {
+                j = last;
+            } else {
+                while (t[next] < key) {
+                    next++;
+                }
+                if (t[next] == key) {
+                    // for a repeated time, choose the element a binary search would
+                    j = t[next + 1] == key ? Arrays.binarySearch(t, 0, n, key) : next;
+                } else {
+                    j = (t[next] - key) < (key - t[next - 1]) ? next : next - 1;
+                }
+            }
+            xNew[i] = x[j];
+            yNew[i] = y[j];
+            zNew[i] = z[j];
         }
 
     }
 
-
-    /**
-     * Find index of the closest element to key
-     */
-    private static int nearestIndex(List<Long> elems, long key) {
-        if (key <= elems.get(0)) { return 0; }
-        if (key >= elems.get(elems.size() - 1)) { return elems.size() - 1; }
-
-        int result = Collections.binarySearch(elems, key);
-        if (result >= 0) { return result; }
-
-        int insertionPoint = -result - 1;
-        return (elems.get(insertionPoint) - key) < (key - elems.get(insertionPoint - 1)) ?
-                insertionPoint : insertionPoint - 1;
-    }
-
 }
@@ -0,0 +1,105 @@
+import java.util.Arrays;
+
+
+/**
+ * Growable batch of decoded raw samples (time, x, y, z, temperature) held in
+ * primitive arrays, so a device reader can decode a run of data away from the
+ * EpochWriter (e.g. on a worker thread) and hand it over in one go.
+ * Read errors are recorded at their position between samples so that
+ * writeTo() reproduces the same errCounter updates as calling
+ * EpochWriter.newValues() for each sample directly while decoding.
+ */
+public class SampleBatch {
+
+    long[] time; // Unix time (nanoseconds)
+    double[] x;
+    double[] y;
+    double[] z;
+    double[] temperature;
+    // errors[i] = read errors that occurred just before sample i was added
+    int[] errors;
+    int numErrors = 0;
+    int size = 0;
+
+
+    public SampleBatch() {
+        this(1024);
+    }
+
+
+    public SampleBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        time = new long[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        temperature = new double[capacity];
+        errors = new int[capacity + 1];
+    }
+
+
+    public void add(long t, double xVal, double yVal, double zVal, double temp) {
+        if (size == time.length) {
+            grow();
+        }
+        time[size] = t;
+        x[size] = xVal;
+        y[size] = yVal;
+        z[size] = zVal;
+        temperature[size] = temp;
+        size++;
+    }
+
+
+    public void addError() {
+        errors[size] += 1;
+        numErrors++;
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+
+    public void clear() {
+        if (numErrors > 0) {
+            Arrays.fill(errors, 0, size + 1, 0);
+            numErrors = 0;
+        }
+        size = 0;
+    }
+
+
+    /**
+     * Pass all samples (and read errors) in this batch to the epochWriter,
+     * in the order they were added, as blocks of samples.
+    **/
+    public void writeTo(EpochWriter epochWriter, int[] errCounter) {
+        int from = 0;
+        if (numErrors > 0) {
+            // pass the samples between errors as blocks
+            for (int i = 0; i < size; i++) {
+                if (errors[i] != 0) {
+                    epochWriter.newValues(time, x, y, z, temperature, from, i, errCounter);
+                    errCounter[0] += errors[i];
+                    from = i;
+                }
+            }
+        }
+        epochWriter.newValues(time, x, y, z, temperature, from, size, errCounter);
+        errCounter[0] += errors[size];
+    }
+
+
+    private void grow() {
+        int capacity = time.length * 2;
+        time = Arrays.copyOf(time, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        temperature = Arrays.copyOf(temperature, capacity);
+        errors = Arrays.copyOf(errors, capacity + 1);
+    }
+
+}
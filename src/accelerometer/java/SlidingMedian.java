@@ -0,0 +1,229 @@
+/**
+ * Median of the last k values added, updated in O(log k) per value.
+ * The window is held as two indexed heaps: a max-heap of its lower half
+ * and a min-heap of its upper half, where each value's position in its heap
+ * is tracked so that the value leaving the window can be replaced in place
+ * by the one entering it (no boxing, no lazy deletion).
+ * Values are ordered as by Double.compare() (so NaN is the largest), which
+ * is the order the sorted-list implementation in Features used.
+ */
+public class SlidingMedian {
+
+    private final int k;
+    private final double[] values; // window values, by slot (ring buffer)
+    private final int[] heapPos; // position of each slot in its heap
+    private final boolean[] inLow; // whether each slot is in the low heap
+    private final int[] low; // slots, max-heap of the lower half
+    private final int[] high; // slots, min-heap of the upper half
+    private int lowSize = 0;
+    private int highSize = 0;
+    private int count = 0; // values added so far
+
+
+    public SlidingMedian(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("window must contain at least one value");
+        }
+        this.k = k;
+        values = new double[k];
+        heapPos = new int[k];
+        inLow = new boolean[k];
+        low = new int[(k + 1) / 2 + 1];
+        high = new int[k / 2 + 1];
+    }
+
+
+    /**
+     * Medians of each window of k consecutive values in nums, i.e.
+     * res[i] = median(nums[i..i+k-1])
+    **/
+    public static double[] medians(double[] nums, int k) {
+        return medians(nums, 0, nums.length, k);
+    }
+
+
+    /**
+     * Medians of each window of k consecutive values in nums[from..to), i.e.
+     * res[i] = median(nums[from+i..from+i+k-1])
+    **/
+    public static double[] medians(double[] nums, int from, int to, int k) {
+        double[] res = new double[to - from - k + 1];
+        SlidingMedian window = new SlidingMedian(k);
+        for (int i = from; i < to; i++) {
+            window.add(nums[i]);
+            if (i >= from + k - 1) {
+                res[i - from - k + 1] = window.median();
+            }
+        }
+        return res;
+    }
+
+
+    public void clear() {
+        lowSize = 0;
+        highSize = 0;
+        count = 0;
+    }
+
+
+    // number of values in the window
+    public int size() {
+        return Math.min(count, k);
+    }
+
+
+    /**
+     * Add a value to the window, removing the oldest value once the window
+     * holds k values
+    **/
+    public void add(double value) {
+        int slot = count % k;
+        count++;
+        values[slot] = value;
+        if (count > k) {
+            // the oldest value's slot takes the new value, in whichever heap
+            // it is in; then at most one pair of values needs to swap halves
+            if (inLow[slot]) {
+                siftUpLow(heapPos[slot]);
+                siftDownLow(heapPos[slot]);
+            } else {
+                siftUpHigh(heapPos[slot]);
+                siftDownHigh(heapPos[slot]);
+            }
+            if (highSize > 0 && Double.compare(values[low[0]], values[high[0]]) > 0) {
+                int lowTop = low[0];
+                int highTop = high[0];
+                setLow(0, highTop);
+                setHigh(0, lowTop);
+                siftDownLow(0);
+                siftDownHigh(0);
+            }
+            return;
+        }
+
+        // while the window is filling: add to one half, then rebalance so
+        // that the low half has the same number of values, or one more
+        if (lowSize == 0 || Double.compare(value, values[low[0]]) <= 0) {
+            setLow(lowSize++, slot);
+            siftUpLow(lowSize - 1);
+        } else {
+            setHigh(highSize++, slot);
+            siftUpHigh(highSize - 1);
+        }
+        if (lowSize > highSize + 1) {
+            int top = low[0];
+            setLow(0, low[--lowSize]);
+            siftDownLow(0);
+            setHigh(highSize++, top);
+            siftUpHigh(highSize - 1);
+        } else if (highSize > lowSize) {
+            int top = high[0];
+            setHigh(0, high[--highSize]);
+            siftDownHigh(0);
+            setLow(lowSize++, top);
+            siftUpLow(lowSize - 1);
+        }
+    }
+
+
+    // median of the values in the window (the mean of the two middle values
+    // if there are an even number)
+    public double median() {
+        if (lowSize == 0) {
+            return Double.NaN;
+        }
+        if (lowSize > highSize) {
+            return values[low[0]];
+        }
+        return (values[low[0]] + values[high[0]]) / 2;
+    }
+
+
+    private void setLow(int pos, int slot) {
+        low[pos] = slot;
+        heapPos[slot] = pos;
+        inLow[slot] = true;
+    }
+
+
+    private void setHigh(int pos, int slot) {
+        high[pos] = slot;
+        heapPos[slot] = pos;
+        inLow[slot] = false;
+    }
+
+
+    private void siftUpLow(int pos) {
+        int slot = low[pos];
+        double value = values[slot];
+        while (pos > 0) {
+            int parent = (pos - 1) / 2;
+            if (Double.compare(values[low[parent]], value) >= 0) {
+                break;
+            }
+            setLow(pos, low[parent]);
+            pos = parent;
+        }
+        setLow(pos, slot);
+    }
+
+
+    private void siftDownLow(int pos) {
+        int slot = low[pos];
+        double value = values[slot];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= lowSize) {
+                break;
+            }
+            if (child + 1 < lowSize
+                    && Double.compare(values[low[child + 1]], values[low[child]]) > 0) {
+                child++;
+            }
+            if (Double.compare(values[low[child]], value) <= 0) {
+                break;
+            }
+            setLow(pos, low[child]);
+            pos = child;
+        }
+        setLow(pos, slot);
+    }
+
+
+    private void siftUpHigh(int pos) {
+        int slot = high[pos];
+        double value = values[slot];
+        while (pos > 0) {
+            int parent = (pos - 1) / 2;
+            if (Double.compare(values[high[parent]], value) <= 0) {
+                break;
+            }
+            setHigh(pos, high[parent]);
+            pos = parent;
+        }
+        setHigh(pos, slot);
+    }
+
+
+    private void siftDownHigh(int pos) {
+        int slot = high[pos];
+        double value = values[slot];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= highSize) {
+                break;
+            }
+            if (child + 1 < highSize
+                    && Double.compare(values[high[child + 1]], values[high[child]]) < 0) {
+                child++;
+            }
+            if (Double.compare(values[high[child]], value) >= 0) {
+                break;
+            }
+            setHigh(pos, high[child]);
+            pos = child;
+        }
+        setHigh(pos, slot);
+    }
+
+}
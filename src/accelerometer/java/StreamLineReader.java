@@ -0,0 +1,104 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * LineReader over an InputStream (e.g. a decompressed file), reading it into
+ * a reused byte buffer. The buffer grows if a line is longer than it.
+ */
+public class StreamLineReader implements LineReader {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final InputStream in;
+    private byte[] data;
+    private ByteBuffer buf;
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+    private int lineStart = 0;
+    private int lineEnd = 0;
+
+
+    public StreamLineReader(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+
+    public StreamLineReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.data = new byte[bufferSize];
+        this.buf = ByteBuffer.wrap(data);
+    }
+
+
+    public boolean next() throws IOException {
+        while (pos >= limit && !eof) {
+            fill();
+        }
+        if (pos >= limit) {
+            return false;
+        }
+        int i = pos;
+        while (true) {
+            while (i < limit && data[i] != '\n' && data[i] != '\r') {
+                i++;
+            }
+            if (eof || (i < limit - 1) || (i == limit - 1 && data[i] == '\n')) {
+                break;
+            }
+            // no line end yet, or a "\r" that may be followed by "\n"
+            i -= fill();
+        }
+        lineStart = pos;
+        lineEnd = i;
+        if (i < limit) {
+            i++;
+            if (data[i - 1] == '\r' && i < limit && data[i] == '\n') {
+                i++;
+            }
+        }
+        pos = i;
+        return true;
+    }
+
+
+    public ByteBuffer buffer() {
+        return buf;
+    }
+
+
+    public int start() {
+        return lineStart;
+    }
+
+
+    public int end() {
+        return lineEnd;
+    }
+
+
+    /**
+     * Move unread data to the start of the buffer (growing it if full) and
+     * read more after it. Returns how far the data was moved.
+    **/
+    private int fill() throws IOException {
+        int shift = pos;
+        System.arraycopy(data, pos, data, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+        if (limit == data.length) {
+            data = java.util.Arrays.copyOf(data, 2 * data.length);
+            buf = ByteBuffer.wrap(data);
+        }
+        int n = in.read(data, limit, data.length - limit);
+        if (n == -1) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+        return shift;
+    }
+
+}
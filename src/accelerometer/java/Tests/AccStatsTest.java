@@ -0,0 +1,117 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class AccStatsTest {
+
+    @Test
+    public void basicStatsMatchSeparateStats() {
+        Random random = new Random(42);
+        double[] x = new double[3000];
+        double[] y = new double[3000];
+        double[] z = new double[3000];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = random.nextGaussian() * 0.3;
+            y[i] = random.nextGaussian() * 0.3 - 0.5;
+            z[i] = random.nextGaussian() * 0.3 + 0.8;
+        }
+        double[] stats = AccStats.getBasicStats(x, y, z, null, null);
+
+        double[][] axes = {x, y, z};
+        for (int a = 0; a < 3; a++) {
+            double mean = AccStats.mean(axes[a]);
+            assertEquals(mean, stats[2 + a], 0);
+            assertEquals(AccStats.range(axes[a]), stats[5 + a], 0);
+            assertEquals(AccStats.std(axes[a], mean), stats[8 + a], 0);
+        }
+
+        double[] enmoTrunc = new double[x.length];
+        double[] enmoAbs = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            double enmo = AccStats.getVectorMagnitude(x[i], y[i], z[i]) - 1;
+            enmoTrunc[i] = Math.max(enmo, 0);
+            enmoAbs[i] = Math.abs(enmo);
+        }
+        assertEquals(AccStats.mean(enmoTrunc), stats[0], 0);
+        assertEquals(AccStats.mean(enmoAbs), stats[1], 0);
+
+        // the same values are returned when the enmoTrunc values are wanted
+        double[] enmoTruncOut = new double[x.length];
+        double[] stats2 = AccStats.getBasicStats(x, y, z, null, enmoTruncOut);
+        for (int i = 0; i < stats.length; i++) {
+            assertEquals(stats[i], stats2[i], 0);
+        }
+        for (int i = 0; i < x.length; i++) {
+            assertEquals(enmoTrunc[i], enmoTruncOut[i], 0);
+        }
+    }
+
+    @Test
+    public void percentilesMatchSortedValues() {
+        Random random = new Random(3);
+        double[] percentiles = {0, 0.1, 0.25, 0.5, 0.5, 0.75, 0.999, 1};
+        for (int n : new int[] {2, 3, 10, 17, 100, 3001}) {
+            double[] v = new double[n];
+            for (int i = 0; i < n; i++) {
+                // rounded so that there are repeated values (and zeros)
+                v[i] = Math.round(random.nextGaussian() * 3) / 2.0;
+            }
+            v[n / 2] = -0.0;
+            if (n > 10) {
+                v[n / 3] = Double.NaN;
+            }
+            double[] sorted = v.clone();
+            Arrays.sort(sorted);
+            double[] output = AccStats.percentiles(v, percentiles);
+            for (int i = 0; i < percentiles.length; i++) {
+                double h = percentiles[i] * (n - 1) + 1;
+                int hfloor = (int) Math.floor(h);
+                double expected;
+                if (h <= 1.0) {
+                    expected = sorted[0];
+                } else if (h >= n) {
+                    expected = sorted[n - 1];
+                } else {
+                    double xh = sorted[hfloor - 1];
+                    expected = xh + (h - hfloor) * (sorted[hfloor] - xh);
+                }
+                assertEquals(Double.doubleToLongBits(expected),
+                    Double.doubleToLongBits(output[i]));
+            }
+        }
+    }
+
+    @Test
+    public void mergedRunningStatsMatchBasicStats() {
+        Random random = new Random(5);
+        int runLength = 500;
+        int numRuns = 6;
+        double[] x = new double[runLength * numRuns];
+        double[] y = new double[x.length];
+        double[] z = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = random.nextGaussian() * 0.2 + i / 3000.0;
+            y[i] = random.nextGaussian() * 0.1 - 0.5;
+            z[i] = random.nextGaussian() * 0.4 + 0.8;
+        }
+        double[] enmo = new double[x.length];
+        AccStats.getENMO(x, y, z, enmo);
+
+        AccStats.RunningStats merged = new AccStats.RunningStats();
+        for (int r = 0; r < numRuns; r++) {
+            int from = r * runLength;
+            int to = from + runLength;
+            merged.merge(new AccStats.RunningStats(
+                Arrays.copyOfRange(x, from, to), Arrays.copyOfRange(y, from, to),
+                Arrays.copyOfRange(z, from, to), Arrays.copyOfRange(enmo, from, to)));
+        }
+        double[] expected = AccStats.getBasicStats(x, y, z, null, null);
+        double[] stats = merged.getBasicStats();
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], stats[i], 1e-12);
+        }
+    }
+}
@@ -1,11 +1,22 @@
 import org.junit.Test;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.ZoneId;
 import java.time.Instant;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ActigraphTest {
 
@@ -64,5 +75,91 @@ public class ActigraphTest {
         long targetTime = ActigraphReader.getTrueUnixTime(myTime, timeShift);
         assertEquals(myTime+1*60*60*1000, targetTime);
     }
-}
 
+
+    @Test
+    public void truncatedV2EpochsMatchSerialEpochs() throws Exception {
+        File gt3x = File.createTempFile("truncated", ".gt3x");
+        gt3x.deleteOnExit();
+        writeTruncatedV2(gt3x);
+
+        String serial = readEpochs(gt3x, 1);
+        String parallel = readEpochs(gt3x, 3);
+        // the read error comes after more than a run of packets was read
+        assertTrue(serial.split("\n").length > 100);
+        assertEquals(serial, parallel);
+    }
+
+    private static String readEpochs(File gt3x, int numThreads) {
+        StringWriter epochs = new StringWriter();
+        EpochWriter epochWriter = new EpochWriter(
+            new BufferedWriter(epochs), null, null,
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSxxxx '['VV']'"),
+            "UTC", 10, 0, 100, "linear", 8,
+            new double[] {0.0, 0.0, 0.0}, new double[] {1.0, 1.0, 1.0},
+            new double[] {0.0, 0.0, 0.0}, false, 0.013, null, -1, -1, null, 1);
+        ActigraphReader.readG3TXEpochs(gt3x.getPath(), epochWriter, numThreads, false);
+        epochWriter.closeWriters();
+        return epochs.toString();
+    }
+
+    // a v2 .gt3x of ACTIVITY2 packets (100Hz), whose compressed log.bin is
+    // cut short, so that reading it fails part of the way through
+    private static void writeTruncatedV2(File gt3x) throws Exception {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        long time = 1500000000L;
+        for (int p = 0; p < 5000; p++) {
+            byte[] packet = new byte[8 + 600 + 1];
+            packet[0] = 0x1E;
+            packet[1] = 26; // ACTIVITY2
+            for (int b = 0; b < 4; b++) {
+                packet[2 + b] = (byte) ((time + p) >>> (8 * b));
+            }
+            packet[6] = (byte) (600 & 0xFF);
+            packet[7] = (byte) (600 >>> 8);
+            for (int i = 0; i < 300; i++) {
+                int n = p * 100 + i / 3;
+                short value = (short) (256 * Math.sin(n / (7.0 + i % 3)));
+                packet[8 + 2 * i] = (byte) value;
+                packet[9 + 2 * i] = (byte) (value >>> 8);
+            }
+            byte checksum = 0;
+            for (int i = 0; i < 8 + 600; i++) {
+                checksum ^= packet[i];
+            }
+            packet[8 + 600] = (byte) ~checksum;
+            log.write(packet);
+        }
+
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(gt3x))) {
+            zip.putNextEntry(new ZipEntry("info.txt"));
+            zip.write(("Serial Number: MOS2E00000000\n" + "Sample Rate: 100\n"
+                + "Start Date: 636358464000000000\n" + "TimeZone: 00:00:00\n")
+                .getBytes(StandardCharsets.US_ASCII));
+            zip.putNextEntry(new ZipEntry("log.bin"));
+            zip.write(log.toByteArray());
+        }
+
+        // halve log.bin's compressed size in the central directory
+        try (RandomAccessFile file = new RandomAccessFile(gt3x, "rw")) {
+            byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            for (int pos = bytes.length - 4; pos >= 0; pos--) {
+                if (bytes[pos] == 'P' && bytes[pos + 1] == 'K' && bytes[pos + 2] == 1
+                        && bytes[pos + 3] == 2) {
+                    int nameLength = (bytes[pos + 28] & 0xFF) | ((bytes[pos + 29] & 0xFF) << 8);
+                    String name = new String(bytes, pos + 46, nameLength, StandardCharsets.US_ASCII);
+                    if (name.equals("log.bin")) {
+                        int size = (bytes[pos + 20] & 0xFF) | ((bytes[pos + 21] & 0xFF) << 8)
+                            | ((bytes[pos + 22] & 0xFF) << 16) | ((bytes[pos + 23] & 0xFF) << 24);
+                        file.seek(pos + 20);
+                        file.write(new byte[] {(byte) (size / 2), (byte) (size / 2 >>> 8),
+                            (byte) (size / 2 >>> 16), (byte) (size / 2 >>> 24)});
+                        return;
+                    }
+                }
+            }
+        }
+        throw new IllegalStateException("no log.bin entry");
+    }
+}
@@ -0,0 +1,179 @@
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CsvReaderTest {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    // timestamps 0.37 sec apart across midnight (and the end of a month)
+    private static List<LocalDateTime> testTimes() {
+        List<LocalDateTime> times = new ArrayList<>();
+        LocalDateTime time = LocalDateTime.of(2020, 2, 29, 23, 59, 55, 123456789);
+        for (int i = 0; i < 40; i++) {
+            times.add(time);
+            time = time.plusNanos(370000001L);
+        }
+        return times;
+    }
+
+    private static long expectedNanos(String text, DateTimeFormatter format) {
+        LocalDateTime time = LocalDateTime.parse(text, format);
+        return time.toEpochSecond(ZoneOffset.UTC) * NANOS_PER_SECOND + time.getNano();
+    }
+
+    // CsvTimeParser.parse() of text, as a column in the middle of a line
+    private static long parseTime(CsvReader.CsvTimeParser parser, String text) {
+        byte[] line = ("1," + text + ",2").getBytes(StandardCharsets.US_ASCII);
+        return parser.parse(ByteBuffer.wrap(line), 2, 2 + text.length());
+    }
+
+    // each text (in order) is parsed as by LocalDateTime.parse()
+    private static CsvReader.CsvTimeParser assertTimesParsed(String pattern, List<String> texts) {
+        DateTimeFormatter format = DateTimeFormatter.ofPattern(pattern);
+        CsvReader.CsvTimeParser parser = new CsvReader.CsvTimeParser(format);
+        for (String text : texts) {
+            assertEquals(pattern + ": " + text, expectedNanos(text, format), parseTime(parser, text));
+        }
+        return parser;
+    }
+
+    private static List<String> format(String pattern, List<LocalDateTime> times, String suffix) {
+        DateTimeFormatter format = DateTimeFormatter.ofPattern(pattern);
+        List<String> texts = new ArrayList<>();
+        for (LocalDateTime time : times) {
+            texts.add(time.format(format) + suffix);
+        }
+        return texts;
+    }
+
+    @Test
+    public void fastPathTimesMatchLocalDateTimeParse() {
+        List<LocalDateTime> times = testTimes();
+        for (String sep : new String[] {" ", "'T'"}) {
+            for (int digits = 0; digits <= 9; digits++) {
+                String pattern = "yyyy-MM-dd" + sep + "HH:mm:ss"
+                    + (digits > 0 ? ".SSSSSSSSS".substring(0, digits + 1) : "");
+                CsvReader.CsvTimeParser parser =
+                    new CsvReader.CsvTimeParser(DateTimeFormatter.ofPattern(pattern));
+                assertEquals(pattern, digits, parser.fractionDigits);
+                parser = assertTimesParsed(pattern, format(pattern, times, ""));
+                // (still) using the fast path
+                assertEquals(pattern, digits, parser.fractionDigits);
+                assertTrue(pattern, parser.suffixLength >= 0);
+            }
+        }
+    }
+
+    @Test
+    public void zoneSuffixesMatchLocalDateTimeParse() {
+        List<LocalDateTime> times = testTimes();
+        // a suffix that changes must be parsed in full again
+        List<String> texts = format("yyyy-MM-dd HH:mm:ss.SSS", times.subList(0, 20), "Z");
+        texts.addAll(format("yyyy-MM-dd HH:mm:ss.SSS", times.subList(20, 40), "+01:00"));
+        texts.add(texts.get(0));
+        assertTimesParsed("yyyy-MM-dd HH:mm:ss.SSSXXX", texts);
+
+        List<String> zoneTexts = format("yyyy-MM-dd HH:mm:ss.SSS", times, " [Europe/London]");
+        assertTimesParsed("yyyy-MM-dd HH:mm:ss.SSS '['VV']'", zoneTexts);
+        assertEquals(3, new CsvReader.CsvTimeParser(
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS '['VV']'")).fractionDigits);
+    }
+
+    @Test
+    public void otherPatternsAreParsedInFull() {
+        List<LocalDateTime> times = testTimes();
+        for (String pattern : new String[] {
+                "dd/MM/yyyy HH:mm:ss.SSS", "yyyy-dd-MM HH:mm:ss.SSS", "uuuu-MM-dd HH:mm:ss",
+                "yyyy-MM-dd hh:mm:ss.SSS a", "yyyyMMdd HH:mm:ss.SSS"}) {
+            CsvReader.CsvTimeParser parser =
+                new CsvReader.CsvTimeParser(DateTimeFormatter.ofPattern(pattern));
+            assertEquals(pattern, -1, parser.fractionDigits);
+            assertTimesParsed(pattern, format(pattern, times, ""));
+        }
+
+        // a layout that only looks like the fast path's (the optional
+        // fraction is taken as part of the suffix), which turns it off
+        String pattern = "yyyy-MM-dd HH:mm:ss[.SSS]";
+        CsvReader.CsvTimeParser parser = new CsvReader.CsvTimeParser(DateTimeFormatter.ofPattern(pattern));
+        List<String> texts = format("yyyy-MM-dd HH:mm:ss.SSS", times, "");
+        for (String text : texts) {
+            assertEquals(text, expectedNanos(text, DateTimeFormatter.ofPattern(pattern)),
+                parseTime(parser, text));
+        }
+        assertEquals(-1, parser.fractionDigits);
+    }
+
+    @Test
+    public void rowsWithoutTimesAreAtTheSampleRate() throws Exception {
+        // 95 sec of x,y,z rows at 30Hz (33.33... ms apart), after a header
+        File file = File.createTempFile("csvreader", ".csv");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file, "US-ASCII")) {
+            out.println("x,y,z");
+            for (int i = 0; i < 95 * 30; i++) {
+                out.println(Math.sin(i / 10.0) + "," + Math.cos(i / 7.0) + "," + (1 + (i % 13) / 100.0));
+            }
+        }
+        LocalDateTime start = LocalDateTime.of(2021, 3, 4, 5, 6, 7, 500000000);
+        DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+        String serialEpochs = null;
+        for (int numThreads : new int[] {1, 3}) {
+            StringWriter epochs = new StringWriter();
+            EpochWriter epochWriter = new EpochWriter(
+                new BufferedWriter(epochs), null, null, timeFormat, "UTC", 10, 0, 30, "linear", 8,
+                new double[] {0.0, 0.0, 0.0}, new double[] {1.0, 1.0, 1.0},
+                new double[] {0.0, 0.0, 0.0}, false, 0.013, null, -1, -1, null, 1);
+            // (the time column, 0, is ignored)
+            CsvReader.readCSVEpochs(file.getPath(), epochWriter, 1, Arrays.asList(0, 0, 1, 2),
+                timeFormat, start, 30, numThreads, false);
+            epochWriter.closeWriters();
+
+            String[] lines = epochs.toString().split("\\n");
+            String[] header = lines[0].split(",");
+            int rawSamples = Arrays.asList(header).indexOf("rawSamples");
+            assertTrue(lines.length >= 10);
+            for (int i = 1; i < 10; i++) {
+                String[] values = lines[i].split(",");
+                assertEquals(start.plusSeconds(10 * (i - 1)).format(timeFormat), values[0]);
+                // 300 rows, and the ones either side for edge interpolation
+                assertEquals(values[0], (i == 1) ? "301" : "302", values[rawSamples]);
+            }
+            if (serialEpochs == null) {
+                serialEpochs = epochs.toString();
+            } else {
+                assertEquals(serialEpochs, epochs.toString());
+            }
+        }
+    }
+
+    @Test
+    public void rowTimingIsGivenInFullOrNotAtAll() {
+        LocalDateTime start = LocalDateTime.of(2021, 3, 4, 5, 6, 7);
+        assertTrue(CsvReader.isValidRowTiming(null, -1));
+        assertTrue(CsvReader.isValidRowTiming(start, 30));
+        assertTrue(CsvReader.isValidRowTiming(start, 0.5));
+        assertFalse(CsvReader.isValidRowTiming(start, -1));
+        assertFalse(CsvReader.isValidRowTiming(null, 30));
+        assertFalse(CsvReader.isValidRowTiming(start, 0));
+        assertFalse(CsvReader.isValidRowTiming(start, -0.5));
+        assertFalse(CsvReader.isValidRowTiming(start, -30));
+        assertFalse(CsvReader.isValidRowTiming(start, Double.NaN));
+    }
+}
@@ -0,0 +1,76 @@
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DeviceReaderTest {
+
+    // parseDouble() of text, as a column in the middle of a line
+    private static double parseDouble(String text) {
+        byte[] line = ("1," + text + ",2").getBytes(StandardCharsets.US_ASCII);
+        return DeviceReader.parseDouble(ByteBuffer.wrap(line), 2, 2 + text.length());
+    }
+
+    private static void assertParsed(String text) {
+        // the same bits, so that -0.0 isn't taken for 0.0
+        assertEquals(text, Double.doubleToRawLongBits(Double.parseDouble(text)),
+            Double.doubleToRawLongBits(parseDouble(text)));
+    }
+
+    @Test
+    public void parseDoubleMatchesDoubleParseDouble() {
+        String[] texts = {
+            // signs, and zeros
+            "0", "-0", "+0", "0.0", "-0.0", "-0.000", "00012", "-00.5",
+            "1", "-1", "+1.5", "1.", ".5", "-.5", " 1.25 ", "\t-3 ",
+            "0.1", "0.3", "123.456", "-0.0123", "9.80665", "-8.000001",
+            // up to 15 significant digits, and fraction digits
+            "123456789012345", "-0.123456789012345", "1234567.89012345",
+            "0.0000000000000000000001", "100000000000000000000.5",
+            // more than 15 significant digits, and 23 or more fraction digits
+            "1234567890123456", "0.12345678901234567", "12345678901234567890",
+            "9007199254740993", "0.00000000000000000000001",
+            "0.1000000000000000055511151231257827",
+            // exponents, and other forms only Double.parseDouble() knows
+            "1e3", "-2.5E-3", "1.5e+10", "4.9e-324", "1.7976931348623157e308",
+            "NaN", "Infinity", "-Infinity", "0x1p3", "1.5d", "2f",
+        };
+        for (String text : texts) {
+            assertParsed(text);
+        }
+
+        // random decimals, of up to 15 (and some more) significant digits
+        Random random = new Random(37);
+        for (int i = 0; i < 100000; i++) {
+            StringBuilder text = new StringBuilder();
+            if (random.nextBoolean()) {
+                text.append('-');
+            }
+            int digits = 1 + random.nextInt(17);
+            int point = random.nextInt(digits + 1);
+            for (int d = 0; d < digits; d++) {
+                if (d == point) {
+                    text.append('.');
+                }
+                text.append((char) ('0' + random.nextInt(10)));
+            }
+            assertParsed(text.toString());
+        }
+    }
+
+    @Test
+    public void parseDoubleRejectsWhatDoubleParseDoubleRejects() {
+        for (String text : new String[] {"", " ", "-", ".", "1.2.3", "1-2", "abc", "1,5", "--1"}) {
+            try {
+                double value = parseDouble(text);
+                fail("parsed '" + text + "' as " + value);
+            } catch (NumberFormatException excep) {
+                // expected
+            }
+        }
+    }
+}
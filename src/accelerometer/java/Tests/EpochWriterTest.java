@@ -0,0 +1,169 @@
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.StringWriter;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EpochWriterTest {
+
+    private static final long START = 1500000000000000000L; // nanoseconds
+    private static final long STEP = 10000000L; // 100Hz
+
+    private EpochWriter newEpochWriter(StringWriter epochs, StringWriter raw) {
+        return newEpochWriter(epochs, raw, null, 1);
+    }
+
+    private EpochWriter newEpochWriter(StringWriter epochs, StringWriter raw,
+            Filter filter, int epochThreads) {
+        return newEpochWriter(epochs, raw, filter, epochThreads, 5, 0);
+    }
+
+    private EpochWriter newEpochWriter(StringWriter epochs, StringWriter raw,
+            Filter filter, int epochThreads, int epochPeriod, int epochHop) {
+        return new EpochWriter(
+            new BufferedWriter(epochs), new BufferedWriter(raw), null,
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSxxxx '['VV']'"),
+            "UTC", epochPeriod, epochHop, 100, "linear", 8,
+            new double[] {0.0, 0.0, 0.0}, new double[] {1.0, 1.0, 1.0},
+            new double[] {0.0, 0.0, 0.0}, false, 0.013, filter, -1, -1, FeatureSet.ALL,
+            epochThreads);
+    }
+
+    // samples at 100Hz with an interrupt, and some out of order
+    private SampleBatch testSamples() {
+        SampleBatch samples = new SampleBatch();
+        long time = START;
+        for (int i = 0; i < 6000; i++) {
+            if (i == 2500) {
+                time += 17 * 1000000000L; // interrupt
+            }
+            long t = (i % 701 == 0) ? time - 5 * STEP : time;
+            samples.add(t, Math.sin(i / 10.0), Math.cos(i / 7.0), 1 + (i % 13) / 100.0, 20 + i / 1000.0);
+            if (i == 3000) {
+                samples.addError();
+            }
+            time += STEP;
+        }
+        return samples;
+    }
+
+    @Test
+    public void blockValuesMatchSingleValues() throws Exception {
+        SampleBatch samples = testSamples();
+
+        StringWriter epochs = new StringWriter();
+        StringWriter raw = new StringWriter();
+        EpochWriter single = newEpochWriter(epochs, raw);
+        int[] errCounter = new int[] { 0 };
+        for (int i = 0; i < samples.size(); i++) {
+            errCounter[0] += samples.errors[i];
+            single.newValues(samples.time[i], samples.x[i], samples.y[i], samples.z[i],
+                samples.temperature[i], errCounter);
+        }
+        single.closeWriters();
+
+        StringWriter blockEpochs = new StringWriter();
+        StringWriter blockRaw = new StringWriter();
+        EpochWriter block = newEpochWriter(blockEpochs, blockRaw);
+        samples.writeTo(block, new int[] { 0 });
+        block.closeWriters();
+
+        assertEquals(epochs.toString(), blockEpochs.toString());
+        assertEquals(raw.toString(), blockRaw.toString());
+    }
+
+    @Test
+    public void parallelEpochsMatchSerialEpochs() throws Exception {
+        SampleBatch samples = testSamples();
+
+        StringWriter epochs = new StringWriter();
+        StringWriter raw = new StringWriter();
+        EpochWriter serial = newEpochWriter(epochs, raw,
+            new LowpassFilter(20, 100, false), 1);
+        samples.writeTo(serial, new int[] { 0 });
+        serial.closeWriters();
+
+        StringWriter parallelEpochs = new StringWriter();
+        StringWriter parallelRaw = new StringWriter();
+        EpochWriter parallel = newEpochWriter(parallelEpochs, parallelRaw,
+            new LowpassFilter(20, 100, false), 3);
+        samples.writeTo(parallel, new int[] { 0 });
+        parallel.closeWriters();
+
+        assertEquals(epochs.toString(), parallelEpochs.toString());
+        assertEquals(raw.toString(), parallelRaw.toString());
+    }
+
+    @Test
+    public void hopEpochsMatchTumblingEpochs() throws Exception {
+        // samples at 100Hz with an interrupt (of more than two 10 sec
+        // epochs), and some out of order
+        SampleBatch samples = new SampleBatch();
+        long time = START;
+        for (int i = 0; i < 9000; i++) {
+            if (i == 4730) {
+                time += 25 * 1000000000L;
+            }
+            long t = (i % 701 == 0) ? time - 5 * STEP : time;
+            samples.add(t, Math.sin(i / 10.0), Math.cos(i / 7.0), 1 + (i % 13) / 100.0, 20 + i / 1000.0);
+            time += STEP;
+        }
+
+        StringWriter epochs = new StringWriter();
+        EpochWriter tumbling = newEpochWriter(epochs, new StringWriter(),
+            new LowpassFilter(20, 100, false), 1, 10, 0);
+        samples.writeTo(tumbling, new int[] { 0 });
+        tumbling.closeWriters();
+
+        StringWriter hopEpochs = new StringWriter();
+        EpochWriter hop = newEpochWriter(hopEpochs, new StringWriter(),
+            new LowpassFilter(20, 100, false), 1, 10, 5);
+        samples.writeTo(hop, new int[] { 0 });
+        hop.closeWriters();
+
+        StringWriter parallelEpochs = new StringWriter();
+        EpochWriter parallel = newEpochWriter(parallelEpochs, new StringWriter(),
+            new LowpassFilter(20, 100, false), 3, 10, 5);
+        samples.writeTo(parallel, new int[] { 0 });
+        parallel.closeWriters();
+        assertEquals(hopEpochs.toString(), parallelEpochs.toString());
+
+        // the hop epochs at the times of tumbling epochs have the same
+        // housekeeping values, and the same stats and features (to rounding,
+        // as the hop epochs are resampled in runs)
+        String[] lines = epochs.toString().split("\\n");
+        String[] header = lines[0].split(",");
+        Map<String, String[]> tumblingEpochs = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            String[] values = lines[i].split(",");
+            tumblingEpochs.put(values[0], values);
+        }
+        String[] hopLines = hopEpochs.toString().split("\\n");
+        assertEquals(lines[0], hopLines[0]);
+        int aligned = 0;
+        for (int i = 1; i < hopLines.length; i++) {
+            String[] hopValues = hopLines[i].split(",");
+            String[] values = tumblingEpochs.get(hopValues[0]);
+            if (values == null) {
+                continue;
+            }
+            aligned++;
+            for (int col = 1; col < header.length; col++) {
+                String column = header[col] + " " + hopValues[0];
+                if (col >= header.length - 6) {
+                    assertEquals(column, values[col], hopValues[col]);
+                } else {
+                    double value = Double.parseDouble(values[col]);
+                    assertEquals(column, value, Double.parseDouble(hopValues[col]),
+                        1e-2 * Math.max(1, Math.abs(value)));
+                }
+            }
+        }
+        assertTrue(aligned >= 6);
+    }
+}
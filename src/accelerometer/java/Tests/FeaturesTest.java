@@ -0,0 +1,127 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FeaturesTest {
+
+    @Test
+    public void goertzelMatchesFFTMagnitudes() {
+        Random random = new Random(7);
+        for (int n : new int[] {50, 100, 200}) {
+            double[] v = new double[3 * n];
+            for (int i = 0; i < v.length; i++) {
+                v[i] = 1 + 0.3 * random.nextGaussian() + Math.sin(i * 0.3);
+            }
+            int m = (n + 1) / 2;
+            double[] fft = new double[m];
+            double[] goertzel = new double[m];
+            for (int start = 0; start + n <= v.length; start += n / 2) {
+                // more bins than the spectrum has forces a full FFT
+                Features.windowMagnitudes(v, start, n, m + 1, fft);
+                Features.windowMagnitudes(v, start, n, 10, goertzel);
+                for (int k = 0; k < 10; k++) {
+                    assertEquals(fft[k], goertzel[k], 1e-10 * fft[k] + 1e-15);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void slidingMedianMatchesSortedWindows() {
+        Random random = new Random(11);
+        double[] v = new double[500];
+        for (int i = 0; i < v.length; i++) {
+            // rounded so that the windows contain repeated values
+            v[i] = Math.round(random.nextGaussian() * 4) / 4.0;
+        }
+        v[123] = Double.NaN;
+        for (int k : new int[] {1, 2, 5, 50, 51, 500}) {
+            double[] medians = Features.medianSlidingWindow(v, k);
+            assertEquals(v.length - k + 1, medians.length);
+            for (int i = 0; i < medians.length; i++) {
+                double[] window = Arrays.copyOfRange(v, i, i + k);
+                Arrays.sort(window);
+                double expected = (k % 2 == 0)
+                    ? (window[k / 2 - 1] + window[k / 2]) / 2 : window[k / 2];
+                assertEquals(expected, medians[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void selectedFeaturesMatchAllFeatures() {
+        Random random = new Random(13);
+        int sampleRate = 100;
+        double[] x = new double[30 * sampleRate];
+        double[] y = new double[x.length];
+        double[] z = new double[x.length];
+        double[] vm = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = random.nextGaussian() * 0.2 + Math.sin(i * 0.05);
+            y[i] = random.nextGaussian() * 0.1 - 0.5;
+            z[i] = random.nextGaussian() * 0.3 + 0.8;
+            vm[i] = Math.max(AccStats.getVectorMagnitude(x[i], y[i], z[i]) - 1, 0);
+        }
+        double[] all = Features.getFeatures(x, y, z, vm, sampleRate);
+        String[] header = Features.getFeaturesHeader().split(",");
+        assertEquals(header.length, all.length);
+
+        for (String names : new String[] {"fft1,MAD", "sanDiegoFFT", "yawg,avgArmAngel,p625", "kurt,all"}) {
+            FeatureSet features = FeatureSet.parse(names);
+            double[] selected = Features.getFeatures(x, y, z, vm, sampleRate, features, false);
+            String[] columns = features.getHeader().split(",");
+            assertEquals(columns.length, selected.length);
+            for (int i = 0; i < columns.length; i++) {
+                int col = Arrays.asList(header).indexOf(columns[i]);
+                assertEquals(columns[i], all[col], selected[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void stillEpochsSkipOnlyDynamicFeatures() {
+        int sampleRate = 100;
+        Random random = new Random(31);
+        double stationaryStd = 0.013;
+        // no movement at all, and noise just below stationaryStd
+        for (double noise : new double[] {0, 0.011}) {
+            double[] x = new double[30 * sampleRate];
+            double[] y = new double[x.length];
+            double[] z = new double[x.length];
+            double[] vm = new double[x.length];
+            for (int i = 0; i < x.length; i++) {
+                x[i] = noise * random.nextGaussian();
+                y[i] = noise * random.nextGaussian();
+                z[i] = 1 + noise * random.nextGaussian();
+                vm[i] = Math.max(AccStats.getVectorMagnitude(x[i], y[i], z[i]) - 1, 0);
+            }
+            double[] basicStats = AccStats.getBasicStats(x, y, z, null, null);
+
+            FeatureSet features = FeatureSet.ALL.skippingStillEpochs(stationaryStd);
+            assertTrue(features.isStill(basicStats));
+            double[] computed = Features.getFeatures(x, y, z, vm, sampleRate, features, false);
+            double[] still = Features.getFeatures(x, y, z, vm, sampleRate, features, true);
+            assertEquals(1, features.getStillEpochs());
+
+            // every column of a dynamic group is NaN, every other one is computed
+            int col = 0;
+            for (FeatureSet.Group group : FeatureSet.Group.values()) {
+                for (String column : group.columns) {
+                    assertFalse(column, Double.isNaN(computed[col]));
+                    if (group.dynamic) {
+                        assertTrue(column, Double.isNaN(still[col]));
+                    } else {
+                        assertEquals(column, computed[col], still[col], 0);
+                    }
+                    col++;
+                }
+            }
+            assertEquals(still.length, col);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class FilterTest {
+
+    private static final int SAMPLE_RATE = 100;
+
+    // 60 seconds of slow and fast movement, with noise
+    private static double[] testSignal() {
+        Random random = new Random(29);
+        double[] signal = new double[60 * SAMPLE_RATE];
+        for (int i = 0; i < signal.length; i++) {
+            double t = i / (double) SAMPLE_RATE;
+            signal[i] = 1 + 0.5 * Math.sin(2 * Math.PI * 0.2 * t)
+                + 0.3 * Math.sin(2 * Math.PI * 2 * t)
+                + 0.2 * Math.sin(2 * Math.PI * 35 * t) + 0.05 * random.nextGaussian();
+        }
+        return signal;
+    }
+
+    @Test
+    public void secondOrderSectionsMatchDirectForm() {
+        Filter[][] filters = {
+            {new LowpassFilter(20, SAMPLE_RATE, false, false),
+                new LowpassFilter(20, SAMPLE_RATE, true, false)},
+            {new BandpassFilter(0.5, 20, SAMPLE_RATE, false, false),
+                new BandpassFilter(0.5, 20, SAMPLE_RATE, true, false)},
+        };
+        for (Filter[] pair : filters) {
+            double[] direct = testSignal();
+            pair[0].filter(direct);
+            double[] sos = testSignal();
+            pair[1].filter(sos);
+            assertArrayEquals(direct, sos, 1e-9);
+        }
+    }
+
+    @Test
+    public void blocksMatchOneCall() {
+        int[] blockEnds = {1, 2, 37, 500, 501, 3000, 5999, 6000};
+        for (boolean useSos : new boolean[] {false, true}) {
+            Filter[][] filters = {
+                {new LowpassFilter(20, SAMPLE_RATE, useSos, false),
+                    new LowpassFilter(20, SAMPLE_RATE, useSos, false)},
+                {new BandpassFilter(0.5, 20, SAMPLE_RATE, useSos, false),
+                    new BandpassFilter(0.5, 20, SAMPLE_RATE, useSos, false)},
+            };
+            for (Filter[] pair : filters) {
+                double[] whole = testSignal();
+                pair[0].filter(whole);
+                double[] blocks = testSignal();
+                int start = 0;
+                for (int end : blockEnds) {
+                    pair[1].filter(blocks, start, end - start);
+                    start = end;
+                }
+                assertArrayEquals(whole, blocks, 0);
+            }
+        }
+
+        // and for several channels at once, each with its own state
+        Filter filter = new BandpassFilter(0.5, 20, SAMPLE_RATE, true, false);
+        double[] whole = testSignal();
+        filter.filterSos(whole, 0, whole.length, filter.newSosState());
+        double[][] channels = {testSignal(), testSignal()};
+        double[][] states = {filter.newSosState(), filter.newSosState()};
+        int start = 0;
+        for (int end : blockEnds) {
+            filter.filterSos(channels, start, end - start, states);
+            start = end;
+        }
+        for (double[] channel : channels) {
+            assertArrayEquals(whole, channel, 0);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GzipIndexTest {
+
+    private static final int STORED = 0;
+    private static final int FIXED = 1;
+    private static final int DYNAMIC = 2;
+
+    @Test
+    public void readsMatchGZIPInputStream() throws Exception {
+        Random random = new Random(17);
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        // members with stored, fixed and dynamic blocks, and an empty member
+        gz.write(gzip(data(random, 200000), Deflater.NO_COMPRESSION, STORED));
+        gz.write(gzip("fixed".getBytes("US-ASCII"), Deflater.DEFAULT_COMPRESSION, FIXED));
+        gz.write(gzip(new byte[0], Deflater.DEFAULT_COMPRESSION, -1));
+        gz.write(gzip(data(random, 300000), Deflater.DEFAULT_COMPRESSION, DYNAMIC));
+        gz.write(gzip(data(random, 100000), Deflater.BEST_SPEED, DYNAMIC));
+        File file = writeTemp(gz.toByteArray());
+        byte[] expected = gunzip(file);
+
+        GzipIndex index = GzipIndex.build(file.getPath(), 8192);
+        assertEquals(expected.length, index.uncompressedSize());
+        assertTrue(index.numAccessPoints() > 10);
+        assertReadsMatch(index, file, expected, random);
+    }
+
+    @Test
+    public void savedIndexIsReloadedUntilStale() throws Exception {
+        Random random = new Random(19);
+        File file = writeTemp(gzip(data(random, 3000000), Deflater.DEFAULT_COMPRESSION, DYNAMIC));
+        File indexFile = new File(file.getPath() + GzipIndex.SUFFIX);
+        indexFile.deleteOnExit();
+        byte[] expected = gunzip(file);
+
+        GzipIndex built = GzipIndex.loadOrBuild(file.getPath(), false);
+        assertTrue(indexFile.exists());
+        assertTrue(built.numAccessPoints() > 1);
+
+        // an up to date index is loaded, not rebuilt (and saved) again
+        assertTrue(indexFile.setLastModified(1000000000000L));
+        GzipIndex loaded = GzipIndex.loadOrBuild(file.getPath(), false);
+        assertEquals(1000000000000L, indexFile.lastModified());
+        assertEquals(built.numAccessPoints(), loaded.numAccessPoints());
+        for (int i = 0; i < built.numAccessPoints(); i++) {
+            assertEquals(built.accessPoint(i), loaded.accessPoint(i));
+        }
+        assertReadsMatch(loaded, file, expected, random);
+
+        // a changed modification time makes it stale
+        assertTrue(file.setLastModified(file.lastModified() - 60000));
+        GzipIndex rebuilt = GzipIndex.loadOrBuild(file.getPath(), false);
+        assertNotEquals(1000000000000L, indexFile.lastModified());
+        assertReadsMatch(rebuilt, file, expected, random);
+
+        // as does a changed length (with the same modification time)
+        long lastModified = file.lastModified();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(gzip(data(random, 50000), Deflater.DEFAULT_COMPRESSION, DYNAMIC));
+        }
+        assertTrue(file.setLastModified(lastModified));
+        expected = gunzip(file);
+        GzipIndex longer = GzipIndex.loadOrBuild(file.getPath(), false);
+        assertEquals(expected.length, longer.uncompressedSize());
+        assertReadsMatch(longer, file, expected, random);
+    }
+
+    @Test
+    public void truncatedFileIsAnError() throws Exception {
+        Random random = new Random(23);
+        byte[] gz = gzip(data(random, 500000), Deflater.DEFAULT_COMPRESSION, DYNAMIC);
+        File file = writeTemp(gz);
+        byte[] expected = gunzip(file);
+        GzipIndex index = GzipIndex.build(file.getPath(), 8192);
+
+        for (int cut : new int[] {gz.length / 2, gz.length - 100, gz.length - 8}) {
+            File truncated = writeTemp(Arrays.copyOf(gz, cut));
+            try {
+                GzipIndex.build(truncated.getPath(), 8192);
+                fail("built an index of a gzip file truncated at " + cut);
+            } catch (IOException | DataFormatException excep) {
+                // expected
+            }
+            // reading past the end of the data with the (full) file's index
+            try (FileInputStream stream = new FileInputStream(truncated)) {
+                int len = 100000;
+                byte[] data = index.read(stream.getChannel(), expected.length - len, len + 1);
+                fail("read " + data.length + " bytes of a gzip file truncated at " + cut);
+            } catch (IOException | DataFormatException excep) {
+                // expected
+            }
+        }
+
+        // without just the trailer, the data itself is still there to read
+        File noTrailer = writeTemp(Arrays.copyOf(gz, gz.length - 8));
+        try (FileInputStream stream = new FileInputStream(noTrailer)) {
+            assertRead(index, stream.getChannel(), expected, expected.length - 1000, 1000);
+        }
+    }
+
+    // random reads (including past the end), and reads at access points
+    private static void assertReadsMatch(GzipIndex index, File file, byte[] expected,
+            Random random) throws Exception {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            FileChannel channel = stream.getChannel();
+            for (int i = 0; i < 300; i++) {
+                int start = random.nextInt(expected.length);
+                int len = 1 + random.nextInt(100000);
+                assertRead(index, channel, expected, start, len);
+            }
+            for (int i = 0; i < index.numAccessPoints(); i++) {
+                assertRead(index, channel, expected, (int) index.accessPoint(i), 5000);
+            }
+        }
+    }
+
+    private static void assertRead(GzipIndex index, FileChannel channel, byte[] expected,
+            int start, int len) throws Exception {
+        byte[] data = index.read(channel, start, len);
+        int end = Math.min(start + len, expected.length);
+        assertArrayEquals(Arrays.copyOfRange(expected, start, end), data);
+    }
+
+    // compressible bytes, as runs of repeated (and random) text
+    private static byte[] data(Random random, int len) {
+        byte[] data = new byte[len];
+        for (int i = 0; i < len; ) {
+            int run = Math.min(len - i, 1 + random.nextInt(40));
+            byte b = (byte) ('a' + random.nextInt(random.nextBoolean() ? 4 : 26));
+            for (int j = 0; j < run; j++) {
+                data[i++] = random.nextInt(5) == 0 ? (byte) random.nextInt(256) : b;
+            }
+        }
+        return data;
+    }
+
+    // a gzip member, checking the type of its first deflate block (if >= 0)
+    private static byte[] gzip(byte[] data, int level, int firstBlockType) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes) {
+                { def.setLevel(level); }
+            }) {
+            out.write(data);
+        }
+        byte[] gz = bytes.toByteArray();
+        if (firstBlockType >= 0) {
+            // the header has no optional fields, so the first block is at byte 10
+            assertEquals(firstBlockType, (gz[10] >> 1) & 3);
+        }
+        return gz;
+    }
+
+    private static byte[] gunzip(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            byte[] buf = new byte[65536];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static File writeTemp(byte[] bytes) throws IOException {
+        File file = File.createTempFile("gzipindex", ".gz");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,103 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class ReadAheadInputStreamTest {
+
+    // a source of 'size' bytes (i & 0xff) that then throws 'error', if any,
+    // and that notes whether it is closed during a read
+    private static class TestSource extends InputStream {
+        final int size;
+        final RuntimeException runtimeError;
+        final IOException ioError;
+        int pos = 0;
+        volatile boolean reading = false;
+        volatile boolean closedWhileReading = false;
+
+        TestSource(int size, RuntimeException runtimeError, IOException ioError) {
+            this.size = size;
+            this.runtimeError = runtimeError;
+            this.ioError = ioError;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            reading = true;
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException excep) {
+                // as for a read that isn't interruptible
+            }
+            try {
+                if (pos == size) {
+                    if (runtimeError != null) {
+                        throw runtimeError;
+                    }
+                    if (ioError != null) {
+                        throw ioError;
+                    }
+                    return -1;
+                }
+                int n = Math.min(Math.min(len, 100), size - pos);
+                for (int i = 0; i < n; i++) {
+                    b[off + i] = (byte) (pos++ & 0xff);
+                }
+                return n;
+            } finally {
+                reading = false;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (reading) {
+                closedWhileReading = true;
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void sourceErrorsAreThrownAfterTheData() throws Exception {
+        Exception[] errors = {new IllegalStateException("runtime"), new IOException("io")};
+        for (Exception error : errors) {
+            TestSource source = new TestSource(5000,
+                (error instanceof RuntimeException) ? (RuntimeException) error : null,
+                (error instanceof IOException) ? (IOException) error : null);
+            ReadAheadInputStream stream = new ReadAheadInputStream(source, 1024, 2);
+            byte[] data = new byte[5000];
+            assertEquals(5000, stream.readFully(data, 0, data.length));
+            for (int i = 0; i < data.length; i++) {
+                assertEquals(i & 0xff, data[i] & 0xff);
+            }
+            try {
+                stream.read();
+                fail("no error after the data");
+            } catch (IOException | RuntimeException excep) {
+                assertEquals(error, excep);
+            }
+            stream.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void closeStopsTheReaderBeforeClosingTheSource() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            TestSource source = new TestSource(Integer.MAX_VALUE, null, null);
+            ReadAheadInputStream stream = new ReadAheadInputStream(source, 1024, 2);
+            byte[] data = new byte[3000];
+            assertEquals(3000, stream.readFully(data, 0, data.length));
+            stream.close();
+            assertFalse(source.closedWhileReading);
+        }
+    }
+}